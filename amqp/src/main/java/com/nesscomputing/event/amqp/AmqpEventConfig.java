@@ -50,6 +50,17 @@ public abstract class AmqpEventConfig
         return true;
     }
 
+    /**
+     * Send events in the binary encoding instead of JSON. Only enable this once all receivers
+     * accept the binary encoding.
+     */
+    @Config("ness.event.amqp.transmit-binary")
+    @Default("false")
+    public boolean isTransmitBinary()
+    {
+        return false;
+    }
+
     /**
      * The name of the event AMQP exchange.
      */
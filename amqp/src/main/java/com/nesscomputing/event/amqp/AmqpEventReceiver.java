@@ -25,13 +25,16 @@ import com.google.common.base.Throwables;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
+import com.rabbitmq.client.AMQP.BasicProperties;
 import com.rabbitmq.client.QueueingConsumer.Delivery;
 
 import com.nesscomputing.amqp.AmqpRunnableFactory;
 import com.nesscomputing.amqp.ConsumerCallback;
 import com.nesscomputing.amqp.ExchangeConsumer;
 import com.nesscomputing.event.NessEvent;
+import com.nesscomputing.event.NessEventDecoder;
 import com.nesscomputing.event.NessEventDispatcher;
+import com.nesscomputing.event.NessEventFlowControl;
 import com.nesscomputing.jackson.JsonMapper;
 import com.nesscomputing.lifecycle.LifecycleStage;
 import com.nesscomputing.lifecycle.guice.OnStage;
@@ -47,20 +50,22 @@ public class AmqpEventReceiver implements ConsumerCallback
 
     private final AmqpEventConfig amqpEventConfig;
     private final NessEventDispatcher eventDispatcher;
-    private final ObjectMapper mapper;
+    private final NessEventDecoder decoder;
 
     private final AtomicReference<ExchangeConsumer> exchangeConsumerHolder = new AtomicReference<ExchangeConsumer>();
     private final AtomicReference<Thread> consumerThreadHolder = new AtomicReference<Thread>();
 
     private final AtomicInteger eventsReceived = new AtomicInteger(0);
 
+    private volatile NessEventFlowControl flowControl = null;
+
     @Inject
     AmqpEventReceiver(final AmqpEventConfig amqpEventConfig,
                      final NessEventDispatcher eventDispatcher,
                      @JsonMapper final ObjectMapper mapper)
     {
         this.eventDispatcher = eventDispatcher;
-        this.mapper = mapper;
+        this.decoder = new NessEventDecoder(mapper);
         this.amqpEventConfig = amqpEventConfig;
     }
 
@@ -70,6 +75,12 @@ public class AmqpEventReceiver implements ConsumerCallback
         this.exchangeConsumerHolder.set(exchangeFactory.createExchangeListener(amqpEventConfig.getExchangeName(), this));
     }
 
+    @Inject(optional = true)
+    void injectFlowControl(final NessEventFlowControl flowControl)
+    {
+        this.flowControl = flowControl;
+    }
+
     @OnStage(LifecycleStage.START)
     void start()
     {
@@ -122,7 +133,9 @@ public class AmqpEventReceiver implements ConsumerCallback
     {
         if (delivery != null) {
             try {
-                final NessEvent event = mapper.readValue(delivery.getBody(), NessEvent.class);
+                final BasicProperties properties = delivery.getProperties();
+                final NessEvent event = decoder.decode(delivery.getBody(), (properties == null) ? null : properties.getContentType());
+                awaitCapacity();
                 eventsReceived.incrementAndGet();
                 eventDispatcher.dispatch(event);
             }
@@ -137,4 +150,21 @@ public class AmqpEventReceiver implements ConsumerCallback
 
         return true;
     }
+
+    /**
+     * Block the consumer thread while the dispatcher is saturated, so that no further
+     * messages are pulled from the broker.
+     */
+    private void awaitCapacity()
+    {
+        final NessEventFlowControl flowControl = this.flowControl;
+        if (flowControl != null) {
+            try {
+                flowControl.awaitCapacity();
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 }
@@ -22,20 +22,33 @@ import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nonnull;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Preconditions;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 import com.nesscomputing.amqp.AmqpRunnableFactory;
 import com.nesscomputing.amqp.ExchangePublisher;
+import com.nesscomputing.amqp.PublisherCallback;
+import com.nesscomputing.amqp.PublisherData;
 import com.nesscomputing.event.NessEvent;
+import com.nesscomputing.event.NessEventBinaryCodec;
 import com.nesscomputing.event.NessEventTransmitter;
+import com.nesscomputing.jackson.JsonMapper;
+import com.rabbitmq.client.AMQP.BasicProperties;
 import com.nesscomputing.lifecycle.LifecycleStage;
 import com.nesscomputing.lifecycle.guice.OnStage;
 import com.nesscomputing.logging.Log;
 
 /**
- * Transmits an event onto an AMQP exchange.
+ * Transmits an event onto an AMQP exchange, as JSON or, if configured, in the binary encoding
+ * (see {@link NessEventBinaryCodec}).
+ * <p>
+ * This is deliberately not a {@link com.nesscomputing.event.NessEventBatchTransmitter}. The
+ * exchange publisher owns its channel and publishes from its own thread, one message at a
+ * time; it offers no way to publish a batch under a single confirm. Batches from
+ * {@link com.nesscomputing.event.NessEventSender#enqueueAll(java.util.Collection)} arrive
+ * here as one {@link #transmit(NessEvent)} call per event.
  */
 @Singleton
 public class AmqpEventTransmitter implements NessEventTransmitter
@@ -43,6 +56,7 @@ public class AmqpEventTransmitter implements NessEventTransmitter
      private static final Log LOG = Log.findLog();
 
      private final AmqpEventConfig amqpEventConfig;
+     private final ObjectMapper mapper;
 
      private final AtomicReference<ExchangePublisher<NessEvent>> exchangePublisherHolder = new AtomicReference<ExchangePublisher<NessEvent>>();
      private final AtomicReference<Thread> producerThreadHolder = new AtomicReference<Thread>();
@@ -50,15 +64,22 @@ public class AmqpEventTransmitter implements NessEventTransmitter
      private AtomicInteger eventsTransmitted = new AtomicInteger(0);
 
      @Inject
-     AmqpEventTransmitter(final AmqpEventConfig amqpEventConfig)
+     AmqpEventTransmitter(final AmqpEventConfig amqpEventConfig,
+                          @JsonMapper final ObjectMapper mapper)
      {
          this.amqpEventConfig = amqpEventConfig;
+         this.mapper = mapper;
      }
 
      @Inject(optional = true)
      void injectExchangeFactory(@Named(AMQP_EVENT_NAME) final AmqpRunnableFactory exchangeFactory)
      {
-         this.exchangePublisherHolder.set(exchangeFactory.<NessEvent>createExchangeJsonPublisher(amqpEventConfig.getExchangeName()));
+         if (amqpEventConfig.isTransmitBinary()) {
+             this.exchangePublisherHolder.set(exchangeFactory.createExchangePublisher(amqpEventConfig.getExchangeName(), new BinaryPublisherCallback(mapper)));
+         }
+         else {
+             this.exchangePublisherHolder.set(exchangeFactory.<NessEvent>createExchangeJsonPublisher(amqpEventConfig.getExchangeName()));
+         }
      }
 
      @OnStage(LifecycleStage.START)
@@ -125,4 +146,25 @@ public class AmqpEventTransmitter implements NessEventTransmitter
              LOG.trace("Successfully offered '%s' to queue", event);
          }
      }
+
+     /**
+      * Publishes events in the binary encoding, marked with its content type.
+      */
+     static final class BinaryPublisherCallback implements PublisherCallback<NessEvent>
+     {
+         private static final BasicProperties PROPERTIES = new BasicProperties.Builder().contentType(NessEventBinaryCodec.CONTENT_TYPE).build();
+
+         private final NessEventBinaryCodec codec;
+
+         BinaryPublisherCallback(final ObjectMapper mapper)
+         {
+             this.codec = new NessEventBinaryCodec(mapper);
+         }
+
+         @Override
+         public PublisherData getData(final NessEvent event)
+         {
+             return new PublisherData().setBody(codec.encode(event)).setProperties(PROPERTIES);
+         }
+     }
 }
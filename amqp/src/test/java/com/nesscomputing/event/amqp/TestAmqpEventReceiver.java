@@ -15,9 +15,13 @@
  */
 package com.nesscomputing.event.amqp;
 
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.annotation.Nonnull;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.rabbitmq.client.AMQP.BasicProperties;
@@ -25,13 +29,18 @@ import com.rabbitmq.client.Envelope;
 import com.rabbitmq.client.QueueingConsumer.Delivery;
 
 import org.apache.commons.io.Charsets;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.nesscomputing.amqp.PublisherData;
 import com.nesscomputing.config.Config;
 import com.nesscomputing.config.ConfigModule;
 import com.nesscomputing.event.NessEvent;
+import com.nesscomputing.event.NessEventBinaryCodec;
 import com.nesscomputing.event.NessEventDispatcher;
+import com.nesscomputing.event.NessEventFlowControl;
+import com.nesscomputing.event.NessEventType;
 import com.nesscomputing.jackson.NessJacksonModule;
 import com.nesscomputing.logging.Log;
 
@@ -70,4 +79,58 @@ public class TestAmqpEventReceiver
 
         eventReceiver.withDelivery(d);
     }
+
+    @Test
+    public void testFlowControl() throws Exception
+    {
+        final AtomicInteger waits = new AtomicInteger();
+        eventReceiver.injectFlowControl(new NessEventFlowControl() {
+            @Override
+            public long getBufferedEventCount()
+            {
+                return 0L;
+            }
+
+            @Override
+            public boolean isSaturated()
+            {
+                return false;
+            }
+
+            @Override
+            public void awaitCapacity()
+            {
+                waits.incrementAndGet();
+            }
+        });
+
+        final String json = "{\"user\":\"00000000-02bb-cb0b-c000-000000026810\",\"timestamp\":1327531243690,\"id\":\"31ab3710-0741-40a3-8e04-12cfb8073e9e\",\"type\":\"LOCATION_ACCURACY\",\"payload\":{},\"v\":2}";
+        eventReceiver.withDelivery(new Delivery(new Envelope(42L, false, "amqp-event", "default"), new BasicProperties.Builder().build(), json.getBytes(Charsets.UTF_8)));
+
+        Assert.assertEquals(1, waits.get());
+        Assert.assertEquals(1, eventReceiver.getEventsReceivedCount());
+    }
+
+    @Test
+    public void testBinaryDelivery() throws Exception
+    {
+        final byte [] data = new NessEventBinaryCodec(new ObjectMapper()).encode(NessEvent.createEvent(UUID.randomUUID(), NessEventType.getForName("LOCATION_ACCURACY"), ImmutableMap.of("accuracy", 99.9)));
+        final BasicProperties properties = new BasicProperties.Builder().contentType(NessEventBinaryCodec.CONTENT_TYPE).build();
+
+        Assert.assertTrue(eventReceiver.withDelivery(new Delivery(new Envelope(42L, false, "amqp-event", "default"), properties, data)));
+        Assert.assertEquals(1, eventReceiver.getEventsReceivedCount());
+    }
+
+    @Test
+    public void testBinaryFromTransmitter() throws Exception
+    {
+        final NessEvent event = NessEvent.createEvent(UUID.randomUUID(), NessEventType.getForName("LOCATION_ACCURACY"), ImmutableMap.of("accuracy", 99.9));
+        final PublisherData publisherData = new AmqpEventTransmitter.BinaryPublisherCallback(new ObjectMapper()).getData(event);
+
+        Assert.assertEquals(NessEventBinaryCodec.CONTENT_TYPE, publisherData.getProperties().getContentType());
+        Assert.assertTrue(NessEventBinaryCodec.isBinary(publisherData.getBody()));
+
+        Assert.assertTrue(eventReceiver.withDelivery(new Delivery(new Envelope(42L, false, "amqp-event", "default"), publisherData.getProperties(), publisherData.getBody())));
+        Assert.assertEquals(1, eventReceiver.getEventsReceivedCount());
+    }
 }
@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.base.Preconditions;
+
+import com.nesscomputing.logging.Log;
+
+/**
+ * Adapts a batch receiver to the single event receiver interface. Events are collected and
+ * handed to the batch receiver when the batch is full or when the linger time of the first
+ * event in the batch has passed.
+ *
+ * The batch receiver is called outside of the monitor that guards the current batch, so
+ * a slow batch receiver does not block threads that only add events to the next batch.
+ * Completed batches are queued and handed over in order, one at a time.
+ */
+class BatchingEventReceiver implements NessEventReceiver
+{
+    private static final Log LOG = Log.findLog();
+
+    private final NessEventBatchReceiver batchReceiver;
+    private final int maxBatchSize;
+    private final long maxLingerMillis;
+    private final ScheduledExecutorService flushExecutor;
+
+    private final Queue<List<NessEvent>> completedBatches = new ConcurrentLinkedQueue<List<NessEvent>>();
+    private final Lock deliveryLock = new ReentrantLock();
+
+    private List<NessEvent> batch;
+
+    BatchingEventReceiver(@Nonnull final NessEventBatchReceiver batchReceiver,
+                          final int maxBatchSize,
+                          final long maxLingerMillis,
+                          @Nonnull final ScheduledExecutorService flushExecutor)
+    {
+        Preconditions.checkArgument(maxBatchSize > 0, "batch size must be positive!");
+
+        this.batchReceiver = batchReceiver;
+        this.maxBatchSize = maxBatchSize;
+        this.maxLingerMillis = maxLingerMillis;
+        this.flushExecutor = flushExecutor;
+    }
+
+    NessEventBatchReceiver getBatchReceiver()
+    {
+        return batchReceiver;
+    }
+
+    @Override
+    public boolean accept(final NessEvent event)
+    {
+        return batchReceiver.accept(event);
+    }
+
+    @Override
+    public void receive(final NessEvent event)
+    {
+        if (add(event)) {
+            deliver();
+        }
+    }
+
+    /**
+     * Adds an event to the current batch. Returns true if the batch was completed.
+     */
+    private synchronized boolean add(final NessEvent event)
+    {
+        if (batch == null) {
+            final List<NessEvent> newBatch = new ArrayList<NessEvent>(maxBatchSize);
+            batch = newBatch;
+            if (maxBatchSize > 1) {
+                flushExecutor.schedule(new Runnable() {
+                    @Override
+                    public void run()
+                    {
+                        flush(newBatch);
+                    }
+                }, maxLingerMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        batch.add(event);
+        if (batch.size() >= maxBatchSize) {
+            complete();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Hand over all pending events.
+     */
+    void flush()
+    {
+        synchronized (this) {
+            if (batch != null) {
+                complete();
+            }
+        }
+        deliver();
+    }
+
+    private void flush(final List<NessEvent> expectedBatch)
+    {
+        synchronized (this) {
+            // Only flush if the batch was not completed because it filled up in the meantime.
+            if (batch != expectedBatch) {
+                return;
+            }
+            complete();
+        }
+        deliver();
+    }
+
+    private void complete()
+    {
+        completedBatches.add(Collections.unmodifiableList(batch));
+        batch = null;
+    }
+
+    private void deliver()
+    {
+        deliveryLock.lock();
+        try {
+            List<NessEvent> events;
+            while ((events = completedBatches.poll()) != null) {
+                try {
+                    batchReceiver.receive(events);
+                }
+                catch (Exception e) {
+                    LOG.error(e, "Exception during batch event handling by %s of %d events", batchReceiver, events.size());
+                }
+            }
+        }
+        finally {
+            deliveryLock.unlock();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return batchReceiver.toString();
+    }
+}
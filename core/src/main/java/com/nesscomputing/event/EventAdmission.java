@@ -0,0 +1,263 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.apache.commons.configuration.Configuration;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import com.nesscomputing.config.Config;
+
+/**
+ * Decides per event type whether the sender passes an event on. Types can have a token bucket
+ * rate limit, set with <tt>ness.event.rate-limit.&lt;TYPE&gt;=&lt;events per second&gt;</tt>, and a
+ * sample rate, the fraction of events kept, set with <tt>ness.event.sample.&lt;TYPE&gt;=&lt;0..1&gt;</tt>.
+ * Both can be changed at runtime. Events of types without a policy are always admitted.
+ * <p>
+ * With adaptive sampling, the sample rate of sampled types is lowered further as the fill level
+ * of the transport queues passes a threshold, down to zero for full queues. Only asynchronous
+ * senders have transport queues, so adaptive sampling does nothing for a synchronous sender.
+ * <p>
+ * Policies are changed under the lock of this object and published copy-on-write, so concurrent
+ * changes to one type do not overwrite each other.
+ */
+final class EventAdmission
+{
+    static final String RATE_LIMIT_PREFIX = "ness.event.rate-limit";
+    static final String SAMPLE_PREFIX = "ness.event.sample";
+
+    private static final TypePolicy [] NO_POLICIES = new TypePolicy[0];
+
+    private static final ThreadLocal<Random> RANDOM = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue()
+        {
+            return new Random();
+        }
+    };
+
+    private final boolean adaptiveSampling;
+    private final double adaptiveThreshold;
+
+    /** Policies by type ordinal, null for types without a policy. Copied on write. */
+    private volatile TypePolicy [] policiesByOrdinal = NO_POLICIES;
+
+    /** Counters by type, kept across policy changes. */
+    private final Map<NessEventType, TypeCounters> counters = Maps.newHashMap();
+
+    EventAdmission(final boolean adaptiveSampling, final double adaptiveThreshold)
+    {
+        Preconditions.checkArgument(adaptiveThreshold >= 0.0 && adaptiveThreshold < 1.0, "adaptive sampling threshold must be at least 0 and less than 1!");
+
+        this.adaptiveSampling = adaptiveSampling;
+        this.adaptiveThreshold = adaptiveThreshold;
+    }
+
+    static EventAdmission fromConfig(@Nonnull final Config config, @Nonnull final NessEventConfig eventConfig)
+    {
+        final EventAdmission admission = new EventAdmission(eventConfig.isAdaptiveSampling(), eventConfig.getAdaptiveSamplingThreshold());
+
+        final Configuration rateLimitConfig = config.getConfiguration(RATE_LIMIT_PREFIX);
+        for (final Iterator<?> it = rateLimitConfig.getKeys(); it.hasNext(); ) {
+            final String typeName = it.next().toString();
+            admission.setRateLimit(NessEventType.getForName(typeName), Double.parseDouble(rateLimitConfig.getString(typeName).trim()));
+        }
+
+        final Configuration sampleConfig = config.getConfiguration(SAMPLE_PREFIX);
+        for (final Iterator<?> it = sampleConfig.getKeys(); it.hasNext(); ) {
+            final String typeName = it.next().toString();
+            admission.setSampleRate(NessEventType.getForName(typeName), Double.parseDouble(sampleConfig.getString(typeName).trim()));
+        }
+
+        return admission;
+    }
+
+    boolean isAdaptiveSampling()
+    {
+        return adaptiveSampling;
+    }
+
+    /**
+     * Returns the policy for an event type, or null if all events of the type are admitted.
+     */
+    @CheckForNull
+    TypePolicy getPolicy(@Nonnull final NessEventType eventType)
+    {
+        final TypePolicy [] policies = policiesByOrdinal;
+        final int ordinal = eventType.getOrdinal();
+        return (ordinal < policies.length) ? policies[ordinal] : null;
+    }
+
+    /**
+     * Limit the number of events of a type per second. A burst of up to one second worth of
+     * events is admitted.
+     */
+    synchronized void setRateLimit(@Nonnull final NessEventType eventType, final double eventsPerSecond)
+    {
+        Preconditions.checkArgument(eventsPerSecond > 0.0, "rate limit must be positive!");
+        final TypePolicy policy = getPolicy(eventType);
+        setPolicy(eventType, eventsPerSecond, (policy == null) ? Double.NaN : policy.sampleRate);
+    }
+
+    synchronized void removeRateLimit(@Nonnull final NessEventType eventType)
+    {
+        final TypePolicy policy = getPolicy(eventType);
+        setPolicy(eventType, Double.NaN, (policy == null) ? Double.NaN : policy.sampleRate);
+    }
+
+    /**
+     * Keep only the given fraction of the events of a type.
+     */
+    synchronized void setSampleRate(@Nonnull final NessEventType eventType, final double sampleRate)
+    {
+        Preconditions.checkArgument(sampleRate >= 0.0 && sampleRate <= 1.0, "sample rate must be between 0 and 1!");
+        final TypePolicy policy = getPolicy(eventType);
+        setPolicy(eventType, (policy == null) ? Double.NaN : policy.eventsPerSecond, sampleRate);
+    }
+
+    synchronized void removeSampleRate(@Nonnull final NessEventType eventType)
+    {
+        final TypePolicy policy = getPolicy(eventType);
+        setPolicy(eventType, (policy == null) ? Double.NaN : policy.eventsPerSecond, Double.NaN);
+    }
+
+    /**
+     * Replace the policy of a type. Called with the lock held.
+     */
+    private void setPolicy(final NessEventType eventType, final double eventsPerSecond, final double sampleRate)
+    {
+        TypeCounters typeCounters = counters.get(eventType);
+        if (typeCounters == null) {
+            typeCounters = new TypeCounters();
+            counters.put(eventType, typeCounters);
+        }
+
+        final int ordinal = eventType.getOrdinal();
+        final TypePolicy [] policies = Arrays.copyOf(policiesByOrdinal, Math.max(policiesByOrdinal.length, ordinal + 1));
+        policies[ordinal] = (Double.isNaN(eventsPerSecond) && Double.isNaN(sampleRate)) ? null : new TypePolicy(this, eventsPerSecond, sampleRate, typeCounters);
+        policiesByOrdinal = policies;
+    }
+
+    synchronized Map<NessEventType, Long> getRateLimitedEventCounts()
+    {
+        final ImmutableMap.Builder<NessEventType, Long> builder = ImmutableMap.builder();
+        for (final Map.Entry<NessEventType, TypeCounters> entry : counters.entrySet()) {
+            builder.put(entry.getKey(), entry.getValue().rateLimited.get());
+        }
+        return builder.build();
+    }
+
+    synchronized Map<NessEventType, Long> getSampledEventCounts()
+    {
+        final ImmutableMap.Builder<NessEventType, Long> builder = ImmutableMap.builder();
+        for (final Map.Entry<NessEventType, TypeCounters> entry : counters.entrySet()) {
+            builder.put(entry.getKey(), entry.getValue().sampled.get());
+        }
+        return builder.build();
+    }
+
+    private static final class TypeCounters
+    {
+        private final AtomicLong rateLimited = new AtomicLong();
+        private final AtomicLong sampled = new AtomicLong();
+    }
+
+    /**
+     * Rate limit and sample rate of one event type. NaN stands for no limit or no sampling.
+     */
+    static final class TypePolicy
+    {
+        private final EventAdmission admission;
+        private final double eventsPerSecond;
+        private final double sampleRate;
+        private final TypeCounters typeCounters;
+
+        private final double bucketSize;
+        private double tokens;
+        private long lastRefillNanos;
+
+        TypePolicy(final EventAdmission admission, final double eventsPerSecond, final double sampleRate, final TypeCounters typeCounters)
+        {
+            this.admission = admission;
+            this.eventsPerSecond = eventsPerSecond;
+            this.sampleRate = sampleRate;
+            this.typeCounters = typeCounters;
+
+            this.bucketSize = Double.isNaN(eventsPerSecond) ? 0.0 : Math.max(1.0, eventsPerSecond);
+            this.tokens = bucketSize;
+            this.lastRefillNanos = System.nanoTime();
+        }
+
+        boolean isSampled()
+        {
+            return !Double.isNaN(sampleRate);
+        }
+
+        boolean isRateLimited()
+        {
+            return !Double.isNaN(eventsPerSecond);
+        }
+
+        /**
+         * Returns true if the event may be sent.
+         *
+         * @param queueFill The fill level of the fullest transport queue, from 0 to 1. Only used for adaptive sampling.
+         */
+        boolean admit(final double queueFill)
+        {
+            if (isSampled()) {
+                double keep = sampleRate;
+                if (admission.adaptiveSampling && queueFill > admission.adaptiveThreshold) {
+                    keep *= Math.max(0.0, (1.0 - queueFill) / (1.0 - admission.adaptiveThreshold));
+                }
+                if (keep < 1.0 && RANDOM.get().nextDouble() >= keep) {
+                    typeCounters.sampled.incrementAndGet();
+                    return false;
+                }
+            }
+
+            if (!Double.isNaN(eventsPerSecond) && !acquireToken()) {
+                typeCounters.rateLimited.incrementAndGet();
+                return false;
+            }
+            return true;
+        }
+
+        private synchronized boolean acquireToken()
+        {
+            final long now = System.nanoTime();
+            tokens = Math.min(bucketSize, tokens + (now - lastRefillNanos) * eventsPerSecond / 1.0e9);
+            lastRefillNanos = now;
+
+            if (tokens >= 1.0) {
+                tokens -= 1.0;
+                return true;
+            }
+            return false;
+        }
+    }
+}
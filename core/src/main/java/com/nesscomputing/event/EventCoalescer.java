@@ -0,0 +1,201 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import com.nesscomputing.logging.Log;
+
+/**
+ * Holds events of coalesced types for one window per event type and user. When the window
+ * ends, a single event is handed downstream. If other events were merged into it, their number
+ * is added to its payload as {@link NessEventSender#COALESCED_EVENTS_KEY}.
+ */
+class EventCoalescer
+{
+    private static final Log LOG = Log.findLog();
+
+    private final EventCoalescing coalescing;
+    private final NessEventTransmitter downstream;
+    private final ScheduledExecutorService flushExecutor;
+
+    private final Map<CoalesceKey, PendingEvent> pendingEvents = Maps.newHashMap();
+
+    private final AtomicLong coalescedEvents = new AtomicLong();
+
+    EventCoalescer(@Nonnull final EventCoalescing coalescing,
+                   @Nonnull final NessEventTransmitter downstream,
+                   @Nonnull final ScheduledExecutorService flushExecutor)
+    {
+        this.coalescing = coalescing;
+        this.downstream = downstream;
+        this.flushExecutor = flushExecutor;
+    }
+
+    /**
+     * Offer an event to the coalescer. Returns false if the event's type is not coalesced and
+     * the caller must send the event itself.
+     */
+    boolean offer(@Nonnull final NessEvent event)
+    {
+        final NessEventCoalesceMode mode = coalescing.getMode(event.getType());
+        if (mode == null) {
+            return false;
+        }
+
+        final CoalesceKey key = new CoalesceKey(event.getType(), event.getUser());
+        synchronized (this) {
+            final PendingEvent pendingEvent = pendingEvents.get(key);
+            if (pendingEvent != null) {
+                pendingEvent.merge(event, mode);
+                coalescedEvents.incrementAndGet();
+                return true;
+            }
+            pendingEvents.put(key, new PendingEvent(event));
+        }
+
+        try {
+            flushExecutor.schedule(new Runnable() {
+                @Override
+                public void run()
+                {
+                    flush(key);
+                }
+            }, coalescing.getWindowMillis(), TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException ree) {
+            // Shut down, nothing will end the window.
+            flush(key);
+        }
+        return true;
+    }
+
+    private void flush(final CoalesceKey key)
+    {
+        final PendingEvent pendingEvent;
+        synchronized (this) {
+            pendingEvent = pendingEvents.remove(key);
+        }
+        if (pendingEvent != null) {
+            send(pendingEvent);
+        }
+    }
+
+    /**
+     * Hand all held events downstream.
+     */
+    void flush()
+    {
+        final List<PendingEvent> events;
+        synchronized (this) {
+            events = Lists.newArrayList(pendingEvents.values());
+            pendingEvents.clear();
+        }
+        for (final PendingEvent pendingEvent : events) {
+            send(pendingEvent);
+        }
+    }
+
+    private void send(final PendingEvent pendingEvent)
+    {
+        try {
+            downstream.transmit(pendingEvent.toEvent());
+        }
+        catch (Exception e) {
+            LOG.error(e, "Exception while sending coalesced event %s", pendingEvent.event);
+        }
+    }
+
+    /**
+     * Returns the number of events merged into other events.
+     */
+    long getCoalescedEventCount()
+    {
+        return coalescedEvents.get();
+    }
+
+    private static final class PendingEvent
+    {
+        private NessEvent event;
+        private int merged = 0;
+
+        PendingEvent(final NessEvent event)
+        {
+            this.event = event;
+        }
+
+        void merge(final NessEvent newEvent, final NessEventCoalesceMode mode)
+        {
+            if (mode == NessEventCoalesceMode.LAST) {
+                event = newEvent;
+            }
+            merged++;
+        }
+
+        NessEvent toEvent()
+        {
+            if (merged == 0) {
+                return event;
+            }
+            final NessEventPayload payload = NessEventPayload.builder(event.getPayload().size() + 1)
+                .putAll(event.getPayload())
+                .putInt(NessEventSender.COALESCED_EVENTS_KEY, merged)
+                .build();
+            return new NessEvent(event.getUser(), event.getTimestampMillis(), event.getType(), payload, event.getId());
+        }
+    }
+
+    private static final class CoalesceKey
+    {
+        private final NessEventType type;
+        private final UUID user;
+
+        CoalesceKey(final NessEventType type, @Nullable final UUID user)
+        {
+            this.type = type;
+            this.user = user;
+        }
+
+        @Override
+        public boolean equals(final Object other)
+        {
+            if (!(other instanceof CoalesceKey)) {
+                return false;
+            }
+            final CoalesceKey castOther = (CoalesceKey) other;
+            return type.equals(castOther.type) && Objects.equal(user, castOther.user);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * type.hashCode() + ((user == null) ? 0 : user.hashCode());
+        }
+    }
+}
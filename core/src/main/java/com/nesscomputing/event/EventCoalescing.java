@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.apache.commons.configuration.Configuration;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+import com.nesscomputing.config.Config;
+
+/**
+ * Selects the event types that the sender coalesces. Types are selected with
+ * <tt>ness.event.coalesce.&lt;TYPE&gt;=first|last</tt>, all other types are sent as they are.
+ */
+final class EventCoalescing
+{
+    static final String COALESCE_PREFIX = "ness.event.coalesce";
+
+    static final EventCoalescing NONE = new EventCoalescing(ImmutableMap.<NessEventType, NessEventCoalesceMode>of(), 0L);
+
+    private final Map<NessEventType, NessEventCoalesceMode> modes;
+
+    /** Modes by type ordinal, null for types that are not coalesced. */
+    private final NessEventCoalesceMode [] modesByOrdinal;
+    private final long windowMillis;
+
+    EventCoalescing(@Nonnull final Map<NessEventType, NessEventCoalesceMode> modes, final long windowMillis)
+    {
+        Preconditions.checkArgument(modes.isEmpty() || windowMillis > 0, "coalesce window must be positive!");
+
+        this.modes = ImmutableMap.copyOf(modes);
+        this.windowMillis = windowMillis;
+
+        int maxOrdinal = -1;
+        for (final NessEventType eventType : modes.keySet()) {
+            maxOrdinal = Math.max(maxOrdinal, eventType.getOrdinal());
+        }
+        this.modesByOrdinal = new NessEventCoalesceMode[maxOrdinal + 1];
+        for (final Map.Entry<NessEventType, NessEventCoalesceMode> entry : modes.entrySet()) {
+            modesByOrdinal[entry.getKey().getOrdinal()] = entry.getValue();
+        }
+    }
+
+    static EventCoalescing fromConfig(@Nonnull final Config config, @Nonnull final NessEventConfig eventConfig)
+    {
+        final ImmutableMap.Builder<NessEventType, NessEventCoalesceMode> builder = ImmutableMap.builder();
+
+        final Configuration coalesceConfig = config.getConfiguration(COALESCE_PREFIX);
+        for (final Iterator<?> it = coalesceConfig.getKeys(); it.hasNext(); ) {
+            final String typeName = it.next().toString();
+            builder.put(NessEventType.getForName(typeName), NessEventCoalesceMode.valueOf(coalesceConfig.getString(typeName).trim().toUpperCase(Locale.ENGLISH)));
+        }
+
+        final Map<NessEventType, NessEventCoalesceMode> modes = builder.build();
+        return modes.isEmpty() ? NONE : new EventCoalescing(modes, eventConfig.getSenderCoalesceWindow().getMillis());
+    }
+
+    /**
+     * Returns true if no event type is coalesced.
+     */
+    boolean isEmpty()
+    {
+        return modes.isEmpty();
+    }
+
+    /**
+     * Returns how events of a type are coalesced, or null if they are not.
+     */
+    @CheckForNull
+    NessEventCoalesceMode getMode(@Nonnull final NessEventType eventType)
+    {
+        final int ordinal = eventType.getOrdinal();
+        return (ordinal < modesByOrdinal.length) ? modesByOrdinal[ordinal] : null;
+    }
+
+    long getWindowMillis()
+    {
+        return windowMillis;
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A fixed set of serial dispatch lanes. Events for the same user always go into the same
+ * lane so they are delivered in order, while events for different users are delivered in
+ * parallel. Events without a user go to a fixed lane or are spread round-robin. With event
+ * priorities, ordering is only kept within a priority class.
+ */
+abstract class EventLanes
+{
+    private final EventQueueWorker [] lanes;
+    private final int nullUserLane;
+    private final AtomicInteger nextLane = new AtomicInteger();
+
+    /**
+     * @param laneCount    Number of lanes.
+     * @param nullUserLane Lane for events without a user, or a negative value to distribute them round-robin.
+     */
+    EventLanes(final int laneCount, final int nullUserLane, final int queueSize, @Nonnull final NessEventOverflowPolicy overflowPolicy, @Nonnull final EventPriorities priorities)
+    {
+        Preconditions.checkArgument(laneCount > 0, "lane count must be positive!");
+        Preconditions.checkArgument(nullUserLane < laneCount, "null user lane %s does not exist, only %s lanes available!", nullUserLane, laneCount);
+
+        this.nullUserLane = nullUserLane;
+        this.lanes = new EventQueueWorker[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new EventQueueWorker("ness-event-lane-" + i, queueSize, overflowPolicy, priorities) {
+                @Override
+                protected void process(@Nonnull final NessEvent event)
+                {
+                    EventLanes.this.process(event);
+                }
+            };
+        }
+    }
+
+    /**
+     * Deliver an event. Called on the worker thread of the lane.
+     */
+    protected abstract void process(@Nonnull NessEvent event);
+
+    void start()
+    {
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i].start();
+        }
+    }
+
+    void shutdown()
+    {
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i].shutdown();
+        }
+    }
+
+    void offer(@Nonnull final NessEvent event)
+    {
+        lanes[getLane(event)].offer(event);
+    }
+
+    int getLane(@Nonnull final NessEvent event)
+    {
+        final UUID user = event.getUser();
+        if (user != null) {
+            return (user.hashCode() & Integer.MAX_VALUE) % lanes.length;
+        }
+        else if (nullUserLane >= 0) {
+            return nullUserLane;
+        }
+        else {
+            return (nextLane.getAndIncrement() & Integer.MAX_VALUE) % lanes.length;
+        }
+    }
+
+    List<Integer> getQueueDepths()
+    {
+        final ImmutableList.Builder<Integer> builder = ImmutableList.builder();
+        for (int i = 0; i < lanes.length; i++) {
+            builder.add(lanes[i].getQueueDepth());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the number of events queued in all lanes.
+     */
+    long getTotalQueueDepth()
+    {
+        long queueDepth = 0L;
+        for (int i = 0; i < lanes.length; i++) {
+            queueDepth += lanes[i].getQueueDepth();
+        }
+        return queueDepth;
+    }
+
+    long getDroppedEventCount()
+    {
+        long droppedEvents = 0L;
+        for (int i = 0; i < lanes.length; i++) {
+            droppedEvents += lanes[i].getDroppedEventCount();
+        }
+        return droppedEvents;
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import org.apache.commons.configuration.Configuration;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+import com.nesscomputing.config.Config;
+
+/**
+ * Maps event types to priority classes and holds the weighted schedule used to drain the
+ * per-class queues. Types are assigned with <tt>ness.event.priority.&lt;TYPE&gt;=high|normal|low</tt>,
+ * all other types are NORMAL.
+ */
+final class EventPriorities
+{
+    static final String PRIORITY_PREFIX = "ness.event.priority";
+
+    static final EventPriorities NONE = new EventPriorities(ImmutableMap.<NessEventType, NessEventPriority>of(), new int [] { 1, 1, 1 });
+
+    private final Map<NessEventType, NessEventPriority> priorities;
+
+    /** Priorities by type ordinal, null for types without an explicit priority. */
+    private final NessEventPriority [] prioritiesByOrdinal;
+    private final int [] schedule;
+
+    EventPriorities(@Nonnull final Map<NessEventType, NessEventPriority> priorities, @Nonnull final int [] weights)
+    {
+        Preconditions.checkArgument(weights.length == NessEventPriority.values().length, "need one weight per priority class!");
+
+        int total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            Preconditions.checkArgument(weights[i] > 0, "priority weights must be positive!");
+            total += weights[i];
+        }
+
+        this.priorities = ImmutableMap.copyOf(priorities);
+
+        int maxOrdinal = -1;
+        for (final NessEventType eventType : priorities.keySet()) {
+            maxOrdinal = Math.max(maxOrdinal, eventType.getOrdinal());
+        }
+        this.prioritiesByOrdinal = new NessEventPriority[maxOrdinal + 1];
+        for (final Map.Entry<NessEventType, NessEventPriority> entry : priorities.entrySet()) {
+            prioritiesByOrdinal[entry.getKey().getOrdinal()] = entry.getValue();
+        }
+
+        // Smooth weighted round robin, spreads the lower classes evenly over the schedule.
+        this.schedule = new int[total];
+        final int [] current = new int[weights.length];
+        for (int i = 0; i < total; i++) {
+            int best = 0;
+            for (int j = 0; j < weights.length; j++) {
+                current[j] += weights[j];
+                if (current[j] > current[best]) {
+                    best = j;
+                }
+            }
+            current[best] -= total;
+            schedule[i] = best;
+        }
+    }
+
+    static EventPriorities fromConfig(@Nonnull final Config config, @Nonnull final NessEventConfig eventConfig)
+    {
+        final ImmutableMap.Builder<NessEventType, NessEventPriority> builder = ImmutableMap.builder();
+
+        final Configuration priorityConfig = config.getConfiguration(PRIORITY_PREFIX);
+        for (final Iterator<?> it = priorityConfig.getKeys(); it.hasNext(); ) {
+            final String typeName = it.next().toString();
+            builder.put(NessEventType.getForName(typeName), NessEventPriority.valueOf(priorityConfig.getString(typeName).trim().toUpperCase(Locale.ENGLISH)));
+        }
+
+        return new EventPriorities(builder.build(), new int [] { eventConfig.getPriorityWeightHigh(),
+                                                                 eventConfig.getPriorityWeightNormal(),
+                                                                 eventConfig.getPriorityWeightLow() });
+    }
+
+    /**
+     * Returns true if no event type has a priority assigned.
+     */
+    boolean isEmpty()
+    {
+        return priorities.isEmpty();
+    }
+
+    @Nonnull
+    NessEventPriority getPriority(@Nonnull final NessEventType eventType)
+    {
+        final int ordinal = eventType.getOrdinal();
+        final NessEventPriority priority = (ordinal < prioritiesByOrdinal.length) ? prioritiesByOrdinal[ordinal] : null;
+        return (priority == null) ? NessEventPriority.NORMAL : priority;
+    }
+
+    /**
+     * Returns the drain schedule. Every element is the ordinal of a priority class, each
+     * class appears as often as its weight. The returned array must not be modified.
+     */
+    int [] getSchedule()
+    {
+        return schedule;
+    }
+}
@@ -0,0 +1,398 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.base.Preconditions;
+
+import com.nesscomputing.logging.Log;
+
+/**
+ * A bounded event queue that is drained by its own worker thread. If event priorities are
+ * configured, every priority class gets its own queue and the worker drains them by
+ * weighted round robin; events of a class are still processed in order. The queue size
+ * bounds the events of all classes together, any class may use all of it.
+ * <p>
+ * On shutdown, the worker can be given some time to process the events still queued. Events
+ * left after that and events offered after shutdown are counted as dropped.
+ */
+abstract class EventQueueWorker implements Runnable
+{
+    private static final Log LOG = Log.findLog();
+
+    /** How often an idle worker checks whether it was shut down. */
+    private static final long POLL_MILLIS = 100L;
+
+    private final String name;
+    private final BlockingQueue<NessEvent> [] queues;
+    private final NessEventOverflowPolicy overflowPolicy;
+
+    private final EventPriorities priorities;
+    private final int [] schedule;
+    private int scheduleIndex = 0;
+
+    /** Number of queued events over all priority classes. Only used with priorities. */
+    private final Semaphore available;
+
+    /** Free space shared by all priority classes. Only used with priorities. */
+    private final Semaphore capacity;
+
+    private final AtomicReference<Thread> workerThreadHolder = new AtomicReference<Thread>();
+    private final AtomicLong droppedEvents = new AtomicLong(0L);
+
+    private volatile boolean running = true;
+
+    /** Until when queued events are still processed after shutdown, in {@link System#nanoTime()}. */
+    private volatile long drainDeadline = 0L;
+    private volatile Thread stoppedThread = null;
+
+    EventQueueWorker(@Nonnull final String name, final int queueSize, @Nonnull final NessEventOverflowPolicy overflowPolicy)
+    {
+        this(name, queueSize, overflowPolicy, EventPriorities.NONE);
+    }
+
+    /**
+     * @param queueSize Maximum number of queued events, over all priority classes.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    EventQueueWorker(@Nonnull final String name, final int queueSize, @Nonnull final NessEventOverflowPolicy overflowPolicy, @Nonnull final EventPriorities priorities)
+    {
+        Preconditions.checkArgument(queueSize > 0, "queue size must be positive!");
+        Preconditions.checkArgument(overflowPolicy != null, "overflow policy must not be null!");
+        Preconditions.checkArgument(priorities != null, "priorities must not be null!");
+
+        this.name = name;
+        this.overflowPolicy = overflowPolicy;
+
+        if (priorities.isEmpty()) {
+            this.priorities = null;
+            this.queues = new BlockingQueue[] { new ArrayBlockingQueue<NessEvent>(queueSize) };
+            this.schedule = null;
+            this.available = null;
+            this.capacity = null;
+        }
+        else {
+            this.priorities = priorities;
+            this.queues = new BlockingQueue[NessEventPriority.values().length];
+            // Every class queue can hold all events, the shared capacity is the actual bound.
+            for (int i = 0; i < queues.length; i++) {
+                queues[i] = new ArrayBlockingQueue<NessEvent>(queueSize);
+            }
+            this.schedule = priorities.getSchedule();
+            this.available = new Semaphore(0);
+            this.capacity = new Semaphore(queueSize);
+        }
+    }
+
+    /**
+     * Process an event taken from the queue. Called on the worker thread.
+     */
+    protected abstract void process(@Nonnull NessEvent event);
+
+    /**
+     * Process several events taken from the queue at once, in order. Called on the worker thread
+     * if {@link #getMaxBatchSize()} is larger than one and more than one event is waiting.
+     */
+    protected void process(@Nonnull final List<NessEvent> events)
+    {
+        for (final NessEvent event : events) {
+            process(event);
+        }
+    }
+
+    /**
+     * Returns the maximum number of events handed to {@link #process(List)}. Events are only
+     * batched without event priorities.
+     */
+    protected int getMaxBatchSize()
+    {
+        return 1;
+    }
+
+    void start()
+    {
+        Preconditions.checkState(workerThreadHolder.get() == null, "already started, boldly refusing to start twice!");
+        final Thread workerThread = new Thread(this, name);
+        Preconditions.checkState(workerThreadHolder.getAndSet(workerThread) == null, "thread already set, this should not happen!");
+
+        workerThread.setDaemon(true);
+        workerThread.start();
+    }
+
+    /**
+     * Stop the worker and drop all queued events.
+     */
+    void shutdown()
+    {
+        shutdown(0L);
+    }
+
+    /**
+     * Stop the worker. Events that are already queued are still processed for up to the given
+     * time, see {@link #awaitTermination(long)}. Does not wait for the worker.
+     */
+    void shutdown(final long drainMillis)
+    {
+        drainDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainMillis);
+        running = false;
+
+        final Thread workerThread = workerThreadHolder.getAndSet(null);
+        if (workerThread != null) {
+            stoppedThread = workerThread;
+            if (drainMillis <= 0L) {
+                workerThread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Wait for the worker to finish after shutdown.
+     *
+     * @return true if the worker has finished.
+     */
+    boolean awaitTermination(final long timeoutMillis)
+    {
+        final Thread workerThread = stoppedThread;
+        if (workerThread == null) {
+            return true;
+        }
+
+        try {
+            workerThread.join(Math.max(1L, timeoutMillis));
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        return !workerThread.isAlive();
+    }
+
+    /**
+     * Offer an event to the queue, applying the overflow policy if the queue is full.
+     *
+     * @return true if the event was queued.
+     */
+    boolean offer(@Nonnull final NessEvent event)
+    {
+        if (!running) {
+            return dropped(event);
+        }
+        if (available == null) {
+            return offer(queues[0], event);
+        }
+        else if (acquireCapacity(event)) {
+            queues[priorities.getPriority(event.getType()).ordinal()].add(event);
+            available.release();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reserve space for an event in the shared capacity of the priority classes. If the queues
+     * are full, DROP_OLDEST drops the oldest event of the lowest priority class that has events.
+     */
+    private boolean acquireCapacity(final NessEvent event)
+    {
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    capacity.acquire();
+                    return true;
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return dropped(event);
+                }
+
+            case DROP_OLDEST:
+                while (!capacity.tryAcquire()) {
+                    // The space of the dropped event goes to the new one.
+                    for (int i = queues.length - 1; i >= 0; i--) {
+                        final NessEvent oldest = queues[i].poll();
+                        if (oldest != null) {
+                            available.tryAcquire();
+                            dropped(oldest);
+                            return true;
+                        }
+                    }
+                }
+                return true;
+
+            case DROP_NEWEST:
+                return capacity.tryAcquire() || dropped(event);
+
+            default:
+                throw new IllegalStateException("Unknown overflow policy " + overflowPolicy);
+        }
+    }
+
+    private boolean offer(final BlockingQueue<NessEvent> queue, final NessEvent event)
+    {
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    queue.put(event);
+                    return true;
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return dropped(event);
+                }
+
+            case DROP_OLDEST:
+                while (!queue.offer(event)) {
+                    final NessEvent oldest = queue.poll();
+                    if (oldest != null) {
+                        dropped(oldest);
+                    }
+                }
+                return true;
+
+            case DROP_NEWEST:
+                return queue.offer(event) || dropped(event);
+
+            default:
+                throw new IllegalStateException("Unknown overflow policy " + overflowPolicy);
+        }
+    }
+
+    int getQueueDepth()
+    {
+        int queueDepth = 0;
+        for (int i = 0; i < queues.length; i++) {
+            queueDepth += queues[i].size();
+        }
+        return queueDepth;
+    }
+
+    long getDroppedEventCount()
+    {
+        return droppedEvents.get();
+    }
+
+    @Override
+    public void run()
+    {
+        try {
+            while (running) {
+                final NessEvent event = poll(POLL_MILLIS);
+                if (event != null) {
+                    processAvailable(event);
+                }
+            }
+
+            NessEvent event;
+            while (System.nanoTime() - drainDeadline < 0L && (event = poll(0L)) != null) {
+                processAvailable(event);
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+
+        int leftEvents = 0;
+        for (int i = 0; i < queues.length; i++) {
+            NessEvent event;
+            while ((event = queues[i].poll()) != null) {
+                droppedEvents.incrementAndGet();
+                leftEvents++;
+            }
+        }
+        if (leftEvents > 0) {
+            LOG.warn("Event queue worker %s exits, dropped %d events left in queue.", name, leftEvents);
+        }
+        else {
+            LOG.debug("Event queue worker %s exits.", name);
+        }
+    }
+
+    /**
+     * Process an event together with the events queued behind it, up to the batch size.
+     */
+    private void processAvailable(final NessEvent event)
+    {
+        final int maxBatchSize = getMaxBatchSize();
+        if (maxBatchSize <= 1 || available != null || queues[0].isEmpty()) {
+            processSafely(event);
+            return;
+        }
+
+        final List<NessEvent> batch = new ArrayList<NessEvent>(Math.min(maxBatchSize, queues[0].size() + 1));
+        batch.add(event);
+        queues[0].drainTo(batch, maxBatchSize - 1);
+        try {
+            process(batch);
+        }
+        catch (Exception e) {
+            LOG.error(e, "Exception in event queue worker %s", name);
+        }
+    }
+
+    private void processSafely(final NessEvent event)
+    {
+        try {
+            process(event);
+        }
+        catch (Exception e) {
+            LOG.error(e, "Exception in event queue worker %s", name);
+        }
+    }
+
+    /**
+     * Take the next event, waiting up to the given time. Returns null if no event arrived in time.
+     */
+    private NessEvent poll(final long timeoutMillis) throws InterruptedException
+    {
+        if (available == null) {
+            return queues[0].poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        for (;;) {
+            if (!available.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                return null;
+            }
+
+            NessEvent event = queues[schedule[scheduleIndex]].poll();
+            scheduleIndex = (scheduleIndex + 1) % schedule.length;
+
+            // The scheduled class is empty, fall back to the others in priority order.
+            for (int i = 0; event == null && i < queues.length; i++) {
+                event = queues[i].poll();
+            }
+            if (event != null) {
+                capacity.release();
+                return event;
+            }
+        }
+    }
+
+    private boolean dropped(final NessEvent event)
+    {
+        droppedEvents.incrementAndGet();
+        LOG.trace("Queue %s dropped event %s", name, event);
+        return false;
+    }
+}
@@ -0,0 +1,475 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+import com.nesscomputing.logging.Log;
+
+/**
+ * Preallocated ring buffer that broadcasts every published event to a set of consumers.
+ * Each consumer runs on its own thread, tracks its own sequence and delivers the events
+ * to a single receiver endpoint. Publishers wait for a free slot if the slowest consumer
+ * is a full ring behind. Neither publishing nor consuming allocates.
+ * <p>
+ * With the PARK wait strategy, an idle consumer parks a few times for a short time and then
+ * sleeps until a publisher wakes it up. Publishers waiting for a free slot back off up to
+ * {@link #MAX_PARK_NANOS}. The last consumer of an event clears its slot, so the ring does
+ * not keep delivered events alive.
+ * <p>
+ * Every slot records the consumer set its event was published to, and only those consumers
+ * count down its pending count. A consumer added while a publish is in flight skips that
+ * event. A removed consumer is detached from its thread first; the removing thread then
+ * counts down every slot the consumer still owed, while the consumer still holds back
+ * publishers from reusing those slots.
+ */
+final class EventRingBuffer
+{
+    private static final Log LOG = Log.findLog();
+
+    private static final long PARK_NANOS = 50000L;
+    private static final long MAX_PARK_NANOS = 1000000L;
+
+    /** Number of short parks before an idle consumer sleeps until it is woken up. */
+    private static final int PARKS_BEFORE_SLEEP = 4;
+
+    /** Upper bound for a sleep, in case a wake up is lost. */
+    private static final long SLEEP_NANOS = 100000000L;
+
+    private static final Consumer [] NO_CONSUMERS = new Consumer[0];
+
+    private static final int CONSUMER_IDLE = 0;
+    private static final int CONSUMER_RELEASING = 1;
+    private static final int CONSUMER_DETACHED = 2;
+
+    private final NessEvent [] slots;
+    private final AtomicLongArray published;
+
+    /** The consumers an event was published to. Written before the slot is published. */
+    private final Consumer [][] slotConsumers;
+
+    /** Number of consumers that still have to process the event in a slot. */
+    private final AtomicIntegerArray pending;
+    private final int mask;
+    private final NessEventWaitStrategy waitStrategy;
+
+    /** The next sequence to claim. */
+    private final AtomicLong cursor = new AtomicLong(0L);
+
+    private volatile Consumer [] consumers = NO_CONSUMERS;
+
+    /** A removed consumer whose pending slots are being released. Still holds back publishers. */
+    private volatile Consumer detachedConsumer = null;
+
+    /** Number of consumers that sleep until an event is published. */
+    private final AtomicInteger sleepingConsumers = new AtomicInteger(0);
+    private volatile boolean running = true;
+
+    EventRingBuffer(final int size, @Nonnull final NessEventWaitStrategy waitStrategy)
+    {
+        Preconditions.checkArgument(size > 0, "ring size must be positive!");
+        Preconditions.checkArgument(waitStrategy != null, "wait strategy must not be null!");
+
+        final int capacity = Integer.highestOneBit(size) == size ? size : Integer.highestOneBit(size) << 1;
+
+        this.slots = new NessEvent[capacity];
+        this.published = new AtomicLongArray(capacity);
+        this.slotConsumers = new Consumer[capacity][];
+        this.pending = new AtomicIntegerArray(capacity);
+        this.mask = capacity - 1;
+        this.waitStrategy = waitStrategy;
+
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1L);
+        }
+    }
+
+    int getCapacity()
+    {
+        return slots.length;
+    }
+
+    /**
+     * Publish an event to all consumers. Waits if the ring is full.
+     */
+    void publish(@Nonnull final NessEvent event)
+    {
+        final long sequence = cursor.getAndIncrement();
+
+        for (int idleCount = 0; sequence - slots.length > getMinimumSequence(sequence); idleCount++) {
+            if (!running) {
+                return;
+            }
+            idle(idleCount);
+        }
+
+        final int index = (int) (sequence & mask);
+        final Consumer [] currentConsumers = consumers;
+        int consumerCount = 0;
+        for (int i = 0; i < currentConsumers.length; i++) {
+            if (currentConsumers[i].firstSequence <= sequence) {
+                consumerCount++;
+            }
+        }
+        slotConsumers[index] = (consumerCount == 0) ? null : currentConsumers;
+        slots[index] = (consumerCount == 0) ? null : event;
+        pending.set(index, consumerCount);
+        published.set(index, sequence);
+
+        if (sleepingConsumers.get() > 0) {
+            wakeConsumers();
+        }
+    }
+
+    private void wakeConsumers()
+    {
+        final Consumer [] currentConsumers = consumers;
+        for (int i = 0; i < currentConsumers.length; i++) {
+            currentConsumers[i].wake();
+        }
+    }
+
+    /**
+     * Add a consumer for an endpoint. The consumer sees all events published after this call.
+     */
+    synchronized void addConsumer(@Nonnull final ReceiverEndpoint endpoint)
+    {
+        // Events claimed before this point are never counted for the new consumer. Events claimed
+        // later, but published to the old consumer set, are skipped by it.
+        final Consumer consumer = new Consumer(endpoint, cursor.get());
+
+        final Consumer [] oldConsumers = consumers;
+        final Consumer [] newConsumers = new Consumer[oldConsumers.length + 1];
+        System.arraycopy(oldConsumers, 0, newConsumers, 0, oldConsumers.length);
+        newConsumers[oldConsumers.length] = consumer;
+        consumers = newConsumers;
+
+        consumer.start();
+    }
+
+    /**
+     * Remove the consumer of an endpoint and stop its thread. Releases all slots the consumer
+     * still had to process, waiting for publishes that were in flight. Publishers no longer
+     * wait for it when this method returns.
+     */
+    synchronized void removeConsumer(@Nonnull final ReceiverEndpoint endpoint)
+    {
+        final Consumer [] oldConsumers = consumers;
+        for (int i = 0; i < oldConsumers.length; i++) {
+            final Consumer consumer = oldConsumers[i];
+            if (consumer.endpoint == endpoint) {
+                // From here on, the consumer thread no longer touches any slot.
+                consumer.detach();
+                consumer.shutdown();
+
+                detachedConsumer = consumer;
+                final Consumer [] newConsumers = new Consumer[oldConsumers.length - 1];
+                System.arraycopy(oldConsumers, 0, newConsumers, 0, i);
+                System.arraycopy(oldConsumers, i + 1, newConsumers, i, oldConsumers.length - i - 1);
+                consumers = newConsumers;
+
+                // Every event claimed from now on is published without the consumer.
+                releaseDetached(consumer, cursor.get());
+                detachedConsumer = null;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Release the slots a detached consumer was counted for, up to (but not including) the given
+     * sequence. The consumer's sequence moves along, so publishers can not reuse a slot before it
+     * is released.
+     */
+    private void releaseDetached(final Consumer consumer, final long endSequence)
+    {
+        for (long next = consumer.sequence.get() + 1L; next < endSequence; next++) {
+            final int index = (int) (next & mask);
+            for (int idleCount = 0; published.get(index) != next; idleCount++) {
+                if (!running) {
+                    return;
+                }
+                idle(idleCount);
+            }
+            if (consumer.isCountedFor(index, next)) {
+                release(index);
+            }
+            consumer.sequence.set(next);
+        }
+    }
+
+    /**
+     * Count down the pending consumers of a slot, and clear it after the last one.
+     */
+    private void release(final int index)
+    {
+        if (pending.decrementAndGet(index) == 0) {
+            slots[index] = null;
+            slotConsumers[index] = null;
+        }
+    }
+
+    void shutdown()
+    {
+        running = false;
+
+        final Consumer [] currentConsumers = consumers;
+        for (int i = 0; i < currentConsumers.length; i++) {
+            currentConsumers[i].shutdown();
+        }
+    }
+
+    /**
+     * Returns the number of events each consumer still has to process.
+     */
+    ImmutableMap<NessEventReceiver, Integer> getQueueDepths()
+    {
+        final long lastClaimed = cursor.get() - 1L;
+        final ImmutableMap.Builder<NessEventReceiver, Integer> builder = ImmutableMap.builder();
+
+        final Consumer [] currentConsumers = consumers;
+        for (int i = 0; i < currentConsumers.length; i++) {
+            builder.put(currentConsumers[i].endpoint.getReceiver(), (int) (lastClaimed - currentConsumers[i].sequence.get()));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the number of events the slowest consumer still has to process. Unlike
+     * {@link #getQueueDepths()}, this does not allocate.
+     */
+    int getMaxQueueDepth()
+    {
+        final long lastClaimed = cursor.get() - 1L;
+        long minSequence = lastClaimed;
+
+        final Consumer [] currentConsumers = consumers;
+        for (int i = 0; i < currentConsumers.length; i++) {
+            minSequence = Math.min(minSequence, currentConsumers[i].sequence.get());
+        }
+        return (int) (lastClaimed - minSequence);
+    }
+
+    /**
+     * Returns the number of slots that still hold an event.
+     */
+    int getRetainedEventCount()
+    {
+        int retained = 0;
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null) {
+                retained++;
+            }
+        }
+        return retained;
+    }
+
+    private long getMinimumSequence(final long sequence)
+    {
+        long minimum = sequence - 1L;
+
+        final Consumer [] currentConsumers = consumers;
+        for (int i = 0; i < currentConsumers.length; i++) {
+            minimum = Math.min(minimum, currentConsumers[i].sequence.get());
+        }
+
+        final Consumer detached = detachedConsumer;
+        if (detached != null) {
+            minimum = Math.min(minimum, detached.sequence.get());
+        }
+        return minimum;
+    }
+
+    /**
+     * Wait a little. With the PARK strategy, the wait doubles with every call up to {@link #MAX_PARK_NANOS}.
+     */
+    private void idle(final int idleCount)
+    {
+        switch (waitStrategy) {
+            case BUSY_SPIN:
+                break;
+            case YIELD:
+                Thread.yield();
+                break;
+            case PARK:
+            default:
+                LockSupport.parkNanos(idleCount < 5 ? PARK_NANOS << idleCount : MAX_PARK_NANOS);
+                break;
+        }
+    }
+
+    private final class Consumer implements Runnable
+    {
+        private final ReceiverEndpoint endpoint;
+
+        /** The first sequence this consumer can be counted for. */
+        private final long firstSequence;
+
+        /** The last sequence processed by this consumer. */
+        private final AtomicLong sequence;
+
+        /** Whether the consumer thread is releasing a slot, or has been detached from the ring. */
+        private final AtomicInteger state = new AtomicInteger(CONSUMER_IDLE);
+
+        private final AtomicReference<Thread> consumerThreadHolder = new AtomicReference<Thread>();
+
+        private volatile boolean consumerRunning = true;
+        private volatile boolean sleeping = false;
+        private volatile Thread consumerThread = null;
+
+        Consumer(final ReceiverEndpoint endpoint, final long firstSequence)
+        {
+            this.endpoint = endpoint;
+            this.firstSequence = firstSequence;
+            this.sequence = new AtomicLong(firstSequence - 1L);
+        }
+
+        /**
+         * Returns true if the event with the given sequence in a slot was published to this consumer.
+         */
+        boolean isCountedFor(final int index, final long next)
+        {
+            if (next < firstSequence) {
+                return false;
+            }
+            final Consumer [] counted = slotConsumers[index];
+            if (counted != null) {
+                for (int i = 0; i < counted.length; i++) {
+                    if (counted[i] == this) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Take the slots over from the consumer thread. Waits until the thread finished releasing
+         * a slot, which never blocks.
+         */
+        void detach()
+        {
+            while (!state.compareAndSet(CONSUMER_IDLE, CONSUMER_DETACHED)) {
+                Thread.yield();
+            }
+        }
+
+        void start()
+        {
+            final Thread thread = new Thread(this, "ness-event-ring-consumer-" + endpoint.getReceiver().getClass().getName());
+            Preconditions.checkState(consumerThreadHolder.getAndSet(thread) == null, "thread already set, this should not happen!");
+
+            consumerThread = thread;
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void shutdown()
+        {
+            consumerRunning = false;
+
+            final Thread thread = consumerThreadHolder.getAndSet(null);
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        void wake()
+        {
+            if (sleeping) {
+                LockSupport.unpark(consumerThread);
+            }
+        }
+
+        /**
+         * Sleep until the event with the given sequence is published. The flags are set before
+         * the slot is checked again, and publishers check them after publishing, so a publish
+         * can not slip in between unnoticed.
+         */
+        private void sleep(final int index, final long next)
+        {
+            sleeping = true;
+            sleepingConsumers.incrementAndGet();
+            try {
+                if (published.get(index) != next && consumerRunning && running) {
+                    LockSupport.parkNanos(SLEEP_NANOS);
+                }
+            }
+            finally {
+                sleepingConsumers.decrementAndGet();
+                sleeping = false;
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            long next = sequence.get() + 1L;
+            int idleCount = 0;
+
+            while (consumerRunning && running) {
+                final int index = (int) (next & mask);
+                if (published.get(index) != next) {
+                    if (waitStrategy == NessEventWaitStrategy.PARK && idleCount >= PARKS_BEFORE_SLEEP) {
+                        sleep(index, next);
+                    }
+                    else {
+                        idle(idleCount++);
+                    }
+                    continue;
+                }
+                idleCount = 0;
+
+                // Events published while this consumer was added may have been published without it.
+                final boolean counted = isCountedFor(index, next);
+                if (counted) {
+                    final NessEvent event = slots[index];
+                    try {
+                        if (endpoint.subscribes(event.getType()) && endpoint.accept(event)) {
+                            endpoint.deliver(event);
+                        }
+                    }
+                    catch (Exception e) {
+                        // don't reraise. We prefer to not disrupt event handling by other receievers
+                        LOG.error(e, "Exception during event handling by %s of event %s", endpoint.getReceiver(), event);
+                    }
+                }
+
+                if (!state.compareAndSet(CONSUMER_IDLE, CONSUMER_RELEASING)) {
+                    // Removed, the removing thread releases the slot.
+                    break;
+                }
+                // Before the sequence moves on, publishers can not reuse the slot until then.
+                if (counted) {
+                    release(index);
+                }
+                sequence.lazySet(next);
+                state.set(CONSUMER_IDLE);
+                next++;
+            }
+        }
+    }
+}
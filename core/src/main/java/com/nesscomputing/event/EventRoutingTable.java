@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Immutable lookup table, indexed by event type ordinal, from an event type to the endpoints that may accept events of
+ * that type. Endpoints of receivers that do not declare their event types are part of every
+ * entry. The order of the endpoints is the registration order. The table also holds the
+ * list of all endpoints, so that a single volatile read yields a consistent snapshot.
+ */
+final class EventRoutingTable
+{
+    private static final ReceiverEndpoint [] NO_ENDPOINTS = new ReceiverEndpoint[0];
+
+    static final EventRoutingTable EMPTY = new EventRoutingTable(ImmutableList.<ReceiverEndpoint>of(), new ReceiverEndpoint[0][], NO_ENDPOINTS);
+
+    private final List<ReceiverEndpoint> allEndpoints;
+    private final ReceiverEndpoint [] allEndpointArray;
+
+    /** Endpoints by type ordinal. Null for types that no typed receiver subscribed to. */
+    private final ReceiverEndpoint [][] typedEndpoints;
+    private final ReceiverEndpoint [] untypedEndpoints;
+
+    private EventRoutingTable(final List<ReceiverEndpoint> allEndpoints, final ReceiverEndpoint [][] typedEndpoints, final ReceiverEndpoint [] untypedEndpoints)
+    {
+        this.allEndpoints = allEndpoints;
+        this.allEndpointArray = allEndpoints.toArray(NO_ENDPOINTS);
+        this.typedEndpoints = typedEndpoints;
+        this.untypedEndpoints = untypedEndpoints;
+    }
+
+    static EventRoutingTable build(@Nonnull final Collection<ReceiverEndpoint> endpoints)
+    {
+        final Set<NessEventType> eventTypes = Sets.newHashSet();
+        final List<ReceiverEndpoint> untyped = Lists.newArrayList();
+
+        for (final ReceiverEndpoint endpoint : endpoints) {
+            final Set<NessEventType> endpointTypes = endpoint.getEventTypes();
+            if (endpointTypes == null) {
+                untyped.add(endpoint);
+            }
+            else {
+                eventTypes.addAll(endpointTypes);
+            }
+        }
+
+        int maxOrdinal = -1;
+        for (final NessEventType eventType : eventTypes) {
+            maxOrdinal = Math.max(maxOrdinal, eventType.getOrdinal());
+        }
+
+        final ReceiverEndpoint [][] typedEndpoints = new ReceiverEndpoint[maxOrdinal + 1][];
+        for (final NessEventType eventType : eventTypes) {
+            final List<ReceiverEndpoint> typeEndpoints = Lists.newArrayList();
+            for (final ReceiverEndpoint endpoint : endpoints) {
+                // By ordinal, so that types sharing the unknown ordinal share one slot.
+                if (endpoint.subscribes(eventType)) {
+                    typeEndpoints.add(endpoint);
+                }
+            }
+            typedEndpoints[eventType.getOrdinal()] = typeEndpoints.toArray(NO_ENDPOINTS);
+        }
+
+        return new EventRoutingTable(ImmutableList.copyOf(endpoints), typedEndpoints, untyped.toArray(NO_ENDPOINTS));
+    }
+
+    /**
+     * Returns all endpoints in registration order.
+     */
+    @Nonnull
+    List<ReceiverEndpoint> getAllEndpoints()
+    {
+        return allEndpoints;
+    }
+
+    /**
+     * Returns the number of events queued in all endpoints. Does not allocate, so it can be
+     * polled for flow control.
+     */
+    long getQueueDepth()
+    {
+        long queueDepth = 0L;
+        for (int i = 0; i < allEndpointArray.length; i++) {
+            queueDepth += Math.max(0, allEndpointArray[i].getQueueDepth());
+        }
+        return queueDepth;
+    }
+
+    /**
+     * Returns the endpoints that must be offered an event of the given type. The returned
+     * array must not be modified.
+     */
+    @Nonnull
+    ReceiverEndpoint [] getEndpoints(@Nonnull final NessEventType eventType)
+    {
+        final int ordinal = eventType.getOrdinal();
+        final ReceiverEndpoint [] endpoints = (ordinal < typedEndpoints.length) ? typedEndpoints[ordinal] : null;
+        return (endpoints == null) ? untypedEndpoints : endpoints;
+    }
+}
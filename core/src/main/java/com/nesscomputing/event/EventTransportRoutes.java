@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.apache.commons.configuration.Configuration;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import com.nesscomputing.config.Config;
+import com.nesscomputing.logging.Log;
+
+/**
+ * Maps event types to the transports that carry them. Rules are configured with
+ * <tt>ness.event.route.&lt;TYPE&gt;=transport[,transport...]</tt>. A name ending in <tt>*</tt> matches all
+ * types starting with the rest of the name; exact names win over patterns and longer patterns
+ * over shorter ones. Like event type names, rule names are not case sensitive. Types without a
+ * matching rule go to all transports.
+ */
+final class EventTransportRoutes
+{
+    private static final Log LOG = Log.findLog();
+
+    static final String ROUTE_PREFIX = "ness.event.route";
+
+    static final EventTransportRoutes NONE = new EventTransportRoutes(ImmutableMap.<String, List<String>>of());
+
+    private final Map<String, List<String>> exactRoutes;
+
+    /** Prefix routes, longest prefix first. */
+    private final List<Map.Entry<String, List<String>>> prefixRoutes;
+
+    EventTransportRoutes(@Nonnull final Map<String, List<String>> routes)
+    {
+        final ImmutableMap.Builder<String, List<String>> exactBuilder = ImmutableMap.builder();
+        final List<Map.Entry<String, List<String>>> prefixes = Lists.newArrayList();
+
+        for (final Map.Entry<String, List<String>> route : routes.entrySet()) {
+            final String name = route.getKey().toUpperCase(Locale.ENGLISH);
+            final List<String> transports = ImmutableList.copyOf(route.getValue());
+            if (name.endsWith("*")) {
+                prefixes.add(Maps.immutableEntry(name.substring(0, name.length() - 1), transports));
+            }
+            else {
+                exactBuilder.put(name, transports);
+            }
+        }
+
+        Collections.sort(prefixes, new Comparator<Map.Entry<String, List<String>>>() {
+            @Override
+            public int compare(final Map.Entry<String, List<String>> left, final Map.Entry<String, List<String>> right)
+            {
+                return right.getKey().length() - left.getKey().length();
+            }
+        });
+
+        this.exactRoutes = exactBuilder.build();
+        this.prefixRoutes = ImmutableList.copyOf(prefixes);
+    }
+
+    static EventTransportRoutes fromConfig(@Nonnull final Config config, @Nonnull final NessEventConfig eventConfig)
+    {
+        final Set<String> configuredTransports = Sets.newHashSet(eventConfig.getTransports());
+
+        final Map<String, List<String>> routes = Maps.newHashMap();
+        final Splitter splitter = Splitter.on(',').trimResults().omitEmptyStrings();
+
+        final Configuration routeConfig = config.getConfiguration(ROUTE_PREFIX);
+        for (final Iterator<?> it = routeConfig.getKeys(); it.hasNext(); ) {
+            final String typeName = it.next().toString();
+            // The configuration may or may not have split the list already.
+            final List<String> transports = Lists.newArrayList(splitter.split(Joiner.on(',').join(routeConfig.getStringArray(typeName))));
+            for (final String transport : transports) {
+                if (!configuredTransports.contains(transport)) {
+                    LOG.warn("Route for %s names transport %s, which is not configured. These events will not be sent to it!", typeName, transport);
+                }
+            }
+            routes.put(typeName, transports);
+        }
+
+        return routes.isEmpty() ? NONE : new EventTransportRoutes(routes);
+    }
+
+    boolean isEmpty()
+    {
+        return exactRoutes.isEmpty() && prefixRoutes.isEmpty();
+    }
+
+    /**
+     * Returns the names of the transports for an event type, or null if no rule matches.
+     */
+    @CheckForNull
+    List<String> getTransports(@Nonnull final NessEventType eventType)
+    {
+        final String name = eventType.getName();
+        if (name == null) {
+            return null;
+        }
+
+        final List<String> transports = exactRoutes.get(name);
+        if (transports != null) {
+            return transports;
+        }
+
+        for (final Map.Entry<String, List<String>> prefixRoute : prefixRoutes) {
+            if (name.startsWith(prefixRoute.getKey())) {
+                return prefixRoute.getValue();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+
+import com.nesscomputing.logging.Log;
+
+/**
+ * Endpoint that calls its receiver on a shared executor. A semaphore limits the number of
+ * concurrent calls of the receiver; if all permits are taken, the dispatching thread waits.
+ */
+class ExecutorReceiverEndpoint extends ReceiverEndpoint
+{
+    private static final Log LOG = Log.findLog();
+
+    private final ExecutorService executor;
+    private final int concurrency;
+    private final Semaphore permits;
+    private final AtomicLong droppedEvents = new AtomicLong(0L);
+
+    ExecutorReceiverEndpoint(@Nonnull final NessEventReceiver receiver,
+                             @Nullable final ReceiverCircuitBreaker circuitBreaker,
+                             @Nonnull final ExecutorService executor,
+                             final int concurrency)
+    {
+        super(receiver, circuitBreaker);
+
+        Preconditions.checkArgument(executor != null, "executor must not be null!");
+        Preconditions.checkArgument(concurrency > 0, "concurrency must be positive!");
+
+        this.executor = executor;
+        this.concurrency = concurrency;
+        this.permits = new Semaphore(concurrency);
+    }
+
+    @Override
+    void deliver(@Nonnull final NessEvent event)
+    {
+        try {
+            permits.acquire();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            droppedEvents.incrementAndGet();
+            return;
+        }
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run()
+                {
+                    try {
+                        invoke(event);
+                    }
+                    finally {
+                        permits.release();
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException ree) {
+            permits.release();
+            droppedEvents.incrementAndGet();
+            LOG.trace("Executor rejected event %s for %s", event, getReceiver());
+        }
+    }
+
+    /**
+     * Returns the number of calls currently in flight.
+     */
+    @Override
+    int getQueueDepth()
+    {
+        return concurrency - permits.availablePermits();
+    }
+
+    @Override
+    long getDroppedEventCount()
+    {
+        return droppedEvents.get();
+    }
+}
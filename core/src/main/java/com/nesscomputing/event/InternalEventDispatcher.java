@@ -17,14 +17,29 @@ package com.nesscomputing.event;
 
 import static com.nesscomputing.event.NessEventModule.EVENT_NAME;
 
+import com.nesscomputing.lifecycle.LifecycleStage;
+import com.nesscomputing.lifecycle.guice.OnStage;
 import com.nesscomputing.logging.Log;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 
-import com.google.common.collect.Sets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 
@@ -32,16 +47,190 @@ import com.google.inject.name.Named;
  * Accepts arbitrary events and dispatches them to the event system.
  */
 @Singleton
-class InternalEventDispatcher implements NessEventDispatcher
+class InternalEventDispatcher implements NessEventDispatcher, NessEventDispatcherStatistics, NessEventSubscriptions, NessEventFlowControl
 {
     private static final Log LOG = Log.findLog();
 
-    private final Set<NessEventReceiver> eventReceivers = Sets.newHashSet();
+    private final NessEventConfig eventConfig;
+    private final EventPriorities priorities;
+
+    private final List<BatchingEventReceiver> batchingReceivers = Lists.newArrayList();
+
+    /** Immutable snapshot of all endpoints. Replaced (copy-on-write) whenever receivers are added or removed. */
+    private volatile EventRoutingTable routingTable = EventRoutingTable.EMPTY;
+
+    private final EventLanes lanes;
+    private final EventRingBuffer ringBuffer;
+    private final ExecutorService receiverExecutor;
+
+    /** One flush timer per batch receiver, so a slow batch receiver does not hold up the linger flush of the others. */
+    private final List<ScheduledExecutorService> batchFlushExecutors = Lists.newArrayList();
+
+    /** Drained before this dispatcher stops, see {@link #stop()}. */
+    private Provider<NessEventSender> senderProvider = null;
+
+    private final int highWater;
+    private final int lowWater;
+    private volatile boolean saturated = false;
+
+    InternalEventDispatcher(final NessEventConfig eventConfig)
+    {
+        this(eventConfig, EventPriorities.NONE);
+    }
+
+    @Inject
+    InternalEventDispatcher(final NessEventConfig eventConfig, final EventPriorities priorities)
+    {
+        this.eventConfig = eventConfig;
+        this.priorities = priorities;
+
+        this.highWater = eventConfig.getFlowControlHighWater();
+        this.lowWater = eventConfig.getFlowControlLowWater() > 0 ? eventConfig.getFlowControlLowWater() : highWater / 2;
+        Preconditions.checkArgument(lowWater <= highWater, "low-water mark %s must not exceed high-water mark %s!", lowWater, highWater);
+
+        if (eventConfig.getDispatchMode() == NessEventDispatchMode.PARTITIONED) {
+            final int laneCount = eventConfig.getDispatchLanes() > 0 ? eventConfig.getDispatchLanes() : Runtime.getRuntime().availableProcessors();
+            this.lanes = new EventLanes(laneCount, eventConfig.getNullUserLane(), eventConfig.getDispatchQueueSize(), eventConfig.getDispatchOverflowPolicy(), priorities) {
+                @Override
+                protected void process(@Nonnull final NessEvent event)
+                {
+                    route(event);
+                }
+            };
+            lanes.start();
+        }
+        else {
+            this.lanes = null;
+        }
+
+        if (eventConfig.getDispatchMode() == NessEventDispatchMode.RING_BUFFER) {
+            this.ringBuffer = new EventRingBuffer(eventConfig.getDispatchRingSize(), eventConfig.getDispatchWaitStrategy());
+        }
+        else {
+            this.ringBuffer = null;
+        }
+
+        if (eventConfig.getDispatchMode() == NessEventDispatchMode.EXECUTOR) {
+            final ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("ness-event-executor-%d").setDaemon(true).build();
+            final int threads = eventConfig.getExecutorThreads();
+            this.receiverExecutor = (threads > 0) ? Executors.newFixedThreadPool(threads, threadFactory) : Executors.newCachedThreadPool(threadFactory);
+        }
+        else {
+            this.receiverExecutor = null;
+        }
+    }
 
     @Inject(optional=true)
     void injectEventReceivers(@Named(EVENT_NAME) final Set<NessEventReceiver> eventReceivers)
     {
-        this.eventReceivers.addAll(eventReceivers);
+        addEventReceivers(eventReceivers);
+    }
+
+    /**
+     * A provider, because the sender reaches this dispatcher through the local transport.
+     */
+    @Inject(optional=true)
+    void injectSender(final Provider<NessEventSender> senderProvider)
+    {
+        this.senderProvider = senderProvider;
+    }
+
+    @Inject(optional=true)
+    void injectEventBatchReceivers(@Named(EVENT_NAME) final Set<NessEventBatchReceiver> eventBatchReceivers)
+    {
+        final List<NessEventReceiver> eventReceivers = Lists.newArrayList();
+        for (final NessEventBatchReceiver batchReceiver : eventBatchReceivers) {
+            final ScheduledExecutorService batchFlushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("ness-event-batch-flusher-" + batchFlushExecutors.size()).setDaemon(true).build());
+            batchFlushExecutors.add(batchFlushExecutor);
+            final BatchingEventReceiver batchingReceiver = new BatchingEventReceiver(batchReceiver,
+                                                                                     eventConfig.getBatchMaxSize(),
+                                                                                     eventConfig.getBatchMaxLinger().getMillis(),
+                                                                                     batchFlushExecutor);
+            batchingReceivers.add(batchingReceiver);
+            eventReceivers.add(batchingReceiver);
+        }
+        addEventReceivers(eventReceivers);
+    }
+
+    @Override
+    public void subscribe(@Nonnull final NessEventReceiver receiver)
+    {
+        Preconditions.checkArgument(receiver != null, "receiver must not be null!");
+        addEventReceivers(Collections.singleton(receiver));
+    }
+
+    @Override
+    public synchronized void unsubscribe(@Nonnull final NessEventReceiver receiver)
+    {
+        final List<ReceiverEndpoint> endpoints = Lists.newArrayList(routingTable.getAllEndpoints());
+        final ReceiverEndpoint endpoint = findEndpoint(endpoints, receiver);
+        if (endpoint != null) {
+            endpoints.remove(endpoint);
+            routingTable = EventRoutingTable.build(endpoints);
+
+            if (ringBuffer != null) {
+                ringBuffer.removeConsumer(endpoint);
+            }
+            endpoint.shutdown();
+        }
+    }
+
+    private synchronized void addEventReceivers(final Collection<NessEventReceiver> eventReceivers)
+    {
+        final List<ReceiverEndpoint> endpoints = Lists.newArrayList(routingTable.getAllEndpoints());
+        for (final NessEventReceiver receiver : eventReceivers) {
+            if (findEndpoint(endpoints, receiver) != null) {
+                continue;
+            }
+            final ReceiverEndpoint endpoint = createEndpoint(receiver);
+            endpoint.start();
+            endpoints.add(endpoint);
+            if (ringBuffer != null) {
+                ringBuffer.addConsumer(endpoint);
+            }
+        }
+        routingTable = EventRoutingTable.build(endpoints);
+    }
+
+    private static ReceiverEndpoint findEndpoint(final List<ReceiverEndpoint> endpoints, final NessEventReceiver receiver)
+    {
+        for (final ReceiverEndpoint endpoint : endpoints) {
+            if (endpoint.getReceiver() == receiver) {
+                return endpoint;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The sender also stops in the STOP stage, in no defined order relative to this. Its queues
+     * may still hold events for the local transport, so it is drained first, explicitly.
+     */
+    @OnStage(LifecycleStage.STOP)
+    void stop()
+    {
+        if (senderProvider != null) {
+            senderProvider.get().stop();
+        }
+
+        if (lanes != null) {
+            lanes.shutdown();
+        }
+        if (ringBuffer != null) {
+            ringBuffer.shutdown();
+        }
+        for (final ReceiverEndpoint endpoint : routingTable.getAllEndpoints()) {
+            endpoint.shutdown();
+        }
+        for (final BatchingEventReceiver batchingReceiver : batchingReceivers) {
+            batchingReceiver.flush();
+        }
+        for (final ScheduledExecutorService batchFlushExecutor : batchFlushExecutors) {
+            batchFlushExecutor.shutdown();
+        }
+        if (receiverExecutor != null) {
+            receiverExecutor.shutdown();
+        }
     }
 
     /**
@@ -53,18 +242,178 @@ class InternalEventDispatcher implements NessEventDispatcher
         if (event == null) {
             LOG.trace("Dropping null event");
         }
+        else if (ringBuffer != null) {
+            ringBuffer.publish(event);
+        }
+        else if (lanes != null) {
+            lanes.offer(event);
+        }
         else {
+            route(event);
+        }
+    }
+
+    /**
+     * Dispatch events in order. Synchronous dispatch looks up the routing table once per batch.
+     */
+    void dispatchAll(@Nonnull final Collection<NessEvent> events)
+    {
+        if (ringBuffer != null || lanes != null) {
+            for (final NessEvent event : events) {
+                dispatch(event);
+            }
+        }
+        else {
+            final EventRoutingTable table = routingTable;
+            for (final NessEvent event : events) {
+                if (event != null) {
+                    route(table, event);
+                }
+            }
+        }
+    }
+
+    /**
+     * Offer an event to all receivers that subscribed to its type.
+     */
+    private void route(@Nonnull final NessEvent event)
+    {
+        route(routingTable, event);
+    }
+
+    private static void route(@Nonnull final EventRoutingTable table, @Nonnull final NessEvent event)
+    {
+        final ReceiverEndpoint [] candidates = table.getEndpoints(event.getType());
 
-            for (final NessEventReceiver receiver : eventReceivers) {
-                try {
-                    if (receiver.accept(event)) {
-                        receiver.receive(event);
-                    }
-                } catch (Exception e) {
-                    // don't reraise. We prefer to not disrupt event handling by other receievers
-                    LOG.error(e, "Exception during event handling by %s of event %s", receiver, event);
+        for (int i = 0; i < candidates.length; i++) {
+            final ReceiverEndpoint endpoint = candidates[i];
+            try {
+                if (endpoint.accept(event)) {
+                    endpoint.deliver(event);
                 }
+            } catch (Exception e) {
+                // don't reraise. We prefer to not disrupt event handling by other receievers
+                LOG.error(e, "Exception during event handling by %s of event %s", endpoint.getReceiver(), event);
+            }
+        }
+    }
+
+    @Override
+    public Map<NessEventReceiver, Integer> getQueueDepths()
+    {
+        if (ringBuffer != null) {
+            return ringBuffer.getQueueDepths();
+        }
+
+        final ImmutableMap.Builder<NessEventReceiver, Integer> builder = ImmutableMap.builder();
+        for (final ReceiverEndpoint endpoint : routingTable.getAllEndpoints()) {
+            final int queueDepth = endpoint.getQueueDepth();
+            if (queueDepth >= 0) {
+                builder.put(endpoint.getReceiver(), queueDepth);
+            }
+        }
+        return builder.build();
+    }
+
+    @Override
+    public List<Integer> getLaneQueueDepths()
+    {
+        return (lanes == null) ? Collections.<Integer>emptyList() : lanes.getQueueDepths();
+    }
+
+    @Override
+    public Map<NessEventReceiver, NessEventCircuitState> getCircuitStates()
+    {
+        final ImmutableMap.Builder<NessEventReceiver, NessEventCircuitState> builder = ImmutableMap.builder();
+        for (final ReceiverEndpoint endpoint : routingTable.getAllEndpoints()) {
+            final NessEventCircuitState circuitState = endpoint.getCircuitState();
+            if (circuitState != null) {
+                builder.put(endpoint.getReceiver(), circuitState);
             }
         }
+        return builder.build();
+    }
+
+    @Override
+    public long getShedEventCount()
+    {
+        long shedEvents = 0L;
+        for (final ReceiverEndpoint endpoint : routingTable.getAllEndpoints()) {
+            shedEvents += endpoint.getShedEventCount();
+        }
+        return shedEvents;
+    }
+
+    @Override
+    public long getDroppedEventCount()
+    {
+        long droppedEvents = (lanes == null) ? 0L : lanes.getDroppedEventCount();
+        for (final ReceiverEndpoint endpoint : routingTable.getAllEndpoints()) {
+            droppedEvents += endpoint.getDroppedEventCount();
+        }
+        return droppedEvents;
+    }
+
+    @Override
+    public long getBufferedEventCount()
+    {
+        // Polled by the transports for every received message, so this must not allocate.
+        long bufferedEvents = routingTable.getQueueDepth();
+        if (ringBuffer != null) {
+            bufferedEvents += ringBuffer.getMaxQueueDepth();
+        }
+        if (lanes != null) {
+            bufferedEvents += lanes.getTotalQueueDepth();
+        }
+        return bufferedEvents;
+    }
+
+    @Override
+    public boolean isSaturated()
+    {
+        if (highWater <= 0) {
+            return false;
+        }
+
+        final long bufferedEvents = getBufferedEventCount();
+        if (saturated && bufferedEvents <= lowWater) {
+            LOG.debug("Dispatcher drained to %d buffered events, resuming receivers", bufferedEvents);
+            saturated = false;
+        }
+        else if (!saturated && bufferedEvents >= highWater) {
+            LOG.debug("Dispatcher has %d buffered events, pausing receivers", bufferedEvents);
+            saturated = true;
+        }
+        return saturated;
+    }
+
+    @Override
+    public void awaitCapacity() throws InterruptedException
+    {
+        while (isSaturated()) {
+            Thread.sleep(eventConfig.getFlowControlPollInterval().getMillis());
+        }
+    }
+
+    private ReceiverEndpoint createEndpoint(final NessEventReceiver receiver)
+    {
+        final ReceiverCircuitBreaker circuitBreaker = eventConfig.isCircuitBreakerEnabled() ? createCircuitBreaker() : null;
+
+        switch (eventConfig.getDispatchMode()) {
+            case ASYNC:
+                return new QueuedReceiverEndpoint(receiver, circuitBreaker, eventConfig.getDispatchQueueSize(), eventConfig.getDispatchOverflowPolicy(), priorities);
+            case EXECUTOR:
+                return new ExecutorReceiverEndpoint(receiver, circuitBreaker, receiverExecutor, eventConfig.getExecutorReceiverConcurrency());
+            default:
+                return new ReceiverEndpoint(receiver, circuitBreaker);
+        }
+    }
+
+    private ReceiverCircuitBreaker createCircuitBreaker()
+    {
+        return new ReceiverCircuitBreaker(TimeUnit.MILLISECONDS.toNanos(eventConfig.getCircuitBreakerLatencyThreshold().getMillis()),
+                                          eventConfig.getCircuitBreakerWindowSize(),
+                                          TimeUnit.MILLISECONDS.toNanos(eventConfig.getCircuitBreakerProbeInterval().getMillis()),
+                                          eventConfig.getCircuitBreakerOverflowSize());
     }
 }
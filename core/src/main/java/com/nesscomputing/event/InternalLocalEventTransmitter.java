@@ -15,6 +15,8 @@
  */
 package com.nesscomputing.event;
 
+import java.util.Collection;
+
 import javax.annotation.Nonnull;
 
 import com.google.inject.Inject;
@@ -24,7 +26,7 @@ import com.google.inject.Singleton;
  * Direct transmitter that sends an event back into the local event system.
  */
 @Singleton
-class InternalLocalEventTransmitter implements NessEventTransmitter
+class InternalLocalEventTransmitter implements NessEventBatchTransmitter
 {
     private final InternalEventDispatcher eventDispatcher;
 
@@ -39,4 +41,10 @@ class InternalLocalEventTransmitter implements NessEventTransmitter
     {
         eventDispatcher.dispatch(event);
     }
+
+    @Override
+    public void transmitAll(@Nonnull final Collection<NessEvent> events)
+    {
+        eventDispatcher.dispatchAll(events);
+    }
 }
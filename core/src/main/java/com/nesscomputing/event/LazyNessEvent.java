@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * An event whose payload is kept as raw JSON and decoded on first access. The payload map
+ * and payload classes are both decoded from the raw JSON, so a payload class never hides
+ * fields from the map.
+ */
+final class LazyNessEvent extends NessEvent
+{
+    private final ObjectMapper mapper;
+
+    private byte [] rawBytes;
+    private int rawOffset;
+    private int rawLength;
+    private String rawText;
+
+    private volatile Map<String, ? extends Object> decodedPayload = null;
+
+    LazyNessEvent(@Nullable final UUID user,
+                  final long timestampMillis,
+                  @Nonnull final NessEventType type,
+                  @Nonnull final UUID id,
+                  @Nonnull final ObjectMapper mapper,
+                  @Nonnull final byte [] rawBytes,
+                  final int rawOffset,
+                  final int rawLength)
+    {
+        super(user, timestampMillis, type, null, id);
+        this.mapper = mapper;
+        this.rawBytes = rawBytes;
+        this.rawOffset = rawOffset;
+        this.rawLength = rawLength;
+    }
+
+    LazyNessEvent(@Nullable final UUID user,
+                  final long timestampMillis,
+                  @Nonnull final NessEventType type,
+                  @Nonnull final UUID id,
+                  @Nonnull final ObjectMapper mapper,
+                  @Nonnull final String rawText)
+    {
+        super(user, timestampMillis, type, null, id);
+        this.mapper = mapper;
+        this.rawText = rawText;
+    }
+
+    @Override
+    @Nonnull
+    public Map<String, ? extends Object> getPayload()
+    {
+        Map<String, ? extends Object> payload = decodedPayload;
+        if (payload == null) {
+            synchronized (this) {
+                payload = decodedPayload;
+                if (payload == null) {
+                    payload = decode();
+                    decodedPayload = payload;
+
+                    // The raw form is no longer needed, unless it may still be decoded into a payload class.
+                    if (NessEventPayloadSchemas.getPayloadClass(getType()) == null) {
+                        rawBytes = null;
+                        rawText = null;
+                    }
+                }
+            }
+        }
+        return payload;
+    }
+
+    /**
+     * Returns true if the payload has been decoded.
+     */
+    boolean isPayloadDecoded()
+    {
+        return decodedPayload != null;
+    }
+
+    /**
+     * Decode the payload into a class, straight from the raw JSON if it is still around.
+     * Unknown fields are ignored like for local events, so that a producer may add fields
+     * before all consumers know about them.
+     */
+    @Override
+    synchronized <T> T decodePayload(@Nonnull final Class<T> payloadClass)
+    {
+        if (rawBytes == null && rawText == null) {
+            return super.decodePayload(payloadClass);
+        }
+
+        try {
+            final ObjectReader reader = mapper.reader(payloadClass).without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+            return (rawBytes != null) ? reader.<T>readValue(rawBytes, rawOffset, rawLength) : reader.<T>readValue(rawText);
+        }
+        catch (IOException ioe) {
+            throw new IllegalArgumentException("Could not decode payload of event " + getId() + " into " + payloadClass, ioe);
+        }
+    }
+
+    private Map<String, ? extends Object> decode()
+    {
+        try {
+            final JsonParser parser = (rawBytes != null) ? mapper.getFactory().createParser(rawBytes, rawOffset, rawLength)
+                                                         : mapper.getFactory().createParser(rawText);
+            try {
+                return NessEventDecoder.readPayload(parser, mapper);
+            }
+            finally {
+                parser.close();
+            }
+        }
+        catch (IOException ioe) {
+            // The payload was syntax-checked when the envelope was decoded, so this is unexpected.
+            throw new IllegalStateException("Could not decode payload of event " + getId(), ioe);
+        }
+    }
+}
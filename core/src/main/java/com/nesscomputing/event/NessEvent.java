@@ -15,8 +15,6 @@
  */
 package com.nesscomputing.event;
 
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
 
@@ -26,14 +24,19 @@ import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
+import org.joda.time.ReadableInstant;
 
 /**
  * Describes an Event in the Ness platform.
@@ -41,15 +44,30 @@ import org.joda.time.DateTimeZone;
 @Immutable
 public class NessEvent
 {
-    public static final int EVENT_VERSION = 2;
+    /**
+     * Version 3 added the binary encoding, see {@link NessEventBinaryCodec}. JSON encoded events
+     * of all versions are still accepted.
+     */
+    public static final int EVENT_VERSION = 3;
+
+    private static volatile NessEventIdGenerator idGenerator = new TimeOrderedEventIdGenerator();
+
+    /** Converts map payloads of locally created events into payload classes. */
+    private static final ObjectMapper PAYLOAD_CONVERTER = new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
 
     private final Map<String, ? extends Object> payload;
     private final NessEventType type;
     private final UUID user;
     private final UUID id;
 
-    /** the time when this event entered the system */
-    private final DateTime timestamp;
+    /** the time when this event entered the system, in milliseconds since the epoch */
+    private final long timestampMillis;
+
+    /** Built on demand. Races are benign, DateTime is immutable. */
+    private transient DateTime timestamp = null;
+
+    /** The payload decoded into the class last asked for. */
+    private transient volatile Object typedPayload = null;
 
     /**
      * Create a new event from over-the-wire json.
@@ -62,12 +80,50 @@ public class NessEvent
      */
     @JsonCreator
     static NessEvent createEvent(@Nullable @JsonProperty("user") final UUID user,
-                                        @Nullable @JsonProperty("timestamp") final DateTime timestamp,
+                                        @Nullable @JsonProperty("timestamp") final Object timestamp,
                                         @Nonnull @JsonProperty("id") final UUID id,
                                         @Nonnull @JsonProperty("type") final NessEventType type,
                                         @Nullable @JsonProperty("payload") final Map<String, ? extends Object> payload)
     {
-        return new NessEvent(user, timestamp, type, payload, id);
+        return new NessEvent(user, (timestamp == null) ? System.currentTimeMillis() : parseTimestamp(timestamp), type, payload, id);
+    }
+
+    /**
+     * Timestamps are written as milliseconds since the epoch. Older writers may have sent
+     * ISO 8601 strings, which are still accepted.
+     */
+    static long parseTimestamp(@Nonnull final Object timestamp)
+    {
+        if (timestamp instanceof Number) {
+            return ((Number) timestamp).longValue();
+        }
+        if (timestamp instanceof ReadableInstant) {
+            return ((ReadableInstant) timestamp).getMillis();
+        }
+
+        final String timestampText = timestamp.toString().trim();
+        try {
+            return Long.parseLong(timestampText);
+        }
+        catch (NumberFormatException nfe) {
+            return new DateTime(timestampText, DateTimeZone.UTC).getMillis();
+        }
+    }
+
+    /**
+     * Create a new event.
+     *
+     * @param user            User that the event happened for. Can be null for a system level event.
+     * @param timestampMillis The time when this event entered the system, in milliseconds since the epoch.
+     * @param type            The Event type.
+     * @param payload         Arbitrary data describing the event.
+     */
+    public static NessEvent createEvent(@Nullable final UUID user,
+                                        final long timestampMillis,
+                                        @Nonnull final NessEventType type,
+                                        @Nullable final Map<String, ? extends Object> payload)
+    {
+        return new NessEvent(user, timestampMillis, type, payload, idGenerator.nextId());
     }
 
     /**
@@ -83,18 +139,18 @@ public class NessEvent
                                         @Nonnull final NessEventType type,
                                         @Nullable final Map<String, ? extends Object> payload)
     {
-        return new NessEvent(user, timestamp, type, payload, UUID.randomUUID());
+        return new NessEvent(user, timestamp, type, payload, idGenerator.nextId());
     }
 
 
     /**
-     * Convenience constructor that assigns the current time in UTC and a random UUID.
+     * Convenience constructor that assigns the current time in UTC and a new id.
      */
     public static NessEvent createEvent(@Nullable final UUID user,
                                         @Nonnull final NessEventType type,
                                         @Nullable final Map<String, ? extends Object> payload)
     {
-        return new NessEvent(user, new DateTime(DateTimeZone.UTC), type, payload, UUID.randomUUID());
+        return new NessEvent(user, System.currentTimeMillis(), type, payload, idGenerator.nextId());
     }
 
     /**
@@ -103,7 +159,23 @@ public class NessEvent
     public static NessEvent createEvent(@Nullable final UUID user,
                                         @Nonnull final NessEventType type)
     {
-        return new NessEvent(user, new DateTime(DateTimeZone.UTC), type, Collections.<String, Object>emptyMap(), UUID.randomUUID());
+        return new NessEvent(user, System.currentTimeMillis(), type, NessEventPayload.EMPTY, idGenerator.nextId());
+    }
+
+    /**
+     * Set the generator for the ids of new events. The default creates time-ordered ids,
+     * see {@link TimeOrderedEventIdGenerator}.
+     */
+    public static void setIdGenerator(@Nonnull final NessEventIdGenerator idGenerator)
+    {
+        Preconditions.checkArgument(idGenerator != null, "id generator must not be null!");
+        NessEvent.idGenerator = idGenerator;
+    }
+
+    @Nonnull
+    public static NessEventIdGenerator getIdGenerator()
+    {
+        return idGenerator;
     }
 
     /**
@@ -120,15 +192,36 @@ public class NessEvent
               @Nonnull final NessEventType type,
               @Nullable final Map<String, ? extends Object> payload,
               @Nonnull final UUID id)
+    {
+        this(user, (timestamp == null) ? System.currentTimeMillis() : timestamp.getMillis(), type, payload, id);
+    }
+
+    NessEvent(@Nullable final UUID user,
+              final long timestampMillis,
+              @Nonnull final NessEventType type,
+              @Nullable final Map<String, ? extends Object> payload,
+              @Nonnull final UUID id)
     {
         Preconditions.checkArgument(id != null, "id must not be null!");
         Preconditions.checkArgument(type != null, "type must not be null!");
 
         this.user = user;
-        this.timestamp = (timestamp == null) ? new DateTime(DateTimeZone.UTC) : timestamp;
+        this.timestampMillis = timestampMillis;
         this.type = type;
         this.id = id;
-        this.payload = (payload == null) ? Collections.<String, Object>emptyMap() : new HashMap<String, Object>(payload);
+        this.payload = immutablePayload(payload);
+    }
+
+    /**
+     * Payloads that are known to be immutable are used as is, all others are copied into a
+     * compact {@link NessEventPayload}.
+     */
+    private static Map<String, ? extends Object> immutablePayload(@Nullable final Map<String, ? extends Object> payload)
+    {
+        if (payload instanceof NessEventPayload || (payload instanceof ImmutableMap && !payload.isEmpty())) {
+            return payload;
+        }
+        return NessEventPayload.copyOf(payload);
     }
 
     @Nonnull
@@ -143,18 +236,124 @@ public class NessEvent
         return user;
     }
 
+    /**
+     * Returns the time when this event entered the system, in UTC.
+     */
     @Nonnull
+    @JsonIgnore
     public DateTime getTimestamp()
     {
+        if (timestamp == null) {
+            timestamp = new DateTime(timestampMillis, DateTimeZone.UTC);
+        }
         return timestamp;
     }
 
+    /**
+     * Returns the time when this event entered the system, in milliseconds since the epoch.
+     */
+    @JsonProperty("timestamp")
+    public long getTimestampMillis()
+    {
+        return timestampMillis;
+    }
+
     @Nonnull
     public Map<String, ? extends Object> getPayload()
     {
         return payload;
     }
 
+    /**
+     * Returns a numeric payload value as long, without boxing if the payload stores it unboxed.
+     *
+     * @throws IllegalArgumentException if there is no value for the key or it is not a number.
+     */
+    public long getLong(@Nullable final String key)
+    {
+        final Map<String, ? extends Object> payload = getPayload();
+        if (payload instanceof NessEventPayload) {
+            return ((NessEventPayload) payload).getLong(key);
+        }
+        return payloadNumber(payload, key).longValue();
+    }
+
+    /**
+     * Returns a numeric payload value as long, or the default if there is no value for the key.
+     *
+     * @throws IllegalArgumentException if the value is not a number.
+     */
+    public long getLong(@Nullable final String key, final long defaultValue)
+    {
+        final Map<String, ? extends Object> payload = getPayload();
+        if (payload instanceof NessEventPayload) {
+            return ((NessEventPayload) payload).getLong(key, defaultValue);
+        }
+        return (payload.get(key) == null) ? defaultValue : payloadNumber(payload, key).longValue();
+    }
+
+    /**
+     * Returns a numeric payload value as double, without boxing if the payload stores it unboxed.
+     *
+     * @throws IllegalArgumentException if there is no value for the key or it is not a number.
+     */
+    public double getDouble(@Nullable final String key)
+    {
+        final Map<String, ? extends Object> payload = getPayload();
+        if (payload instanceof NessEventPayload) {
+            return ((NessEventPayload) payload).getDouble(key);
+        }
+        return payloadNumber(payload, key).doubleValue();
+    }
+
+    /**
+     * Returns a numeric payload value as double, or the default if there is no value for the key.
+     *
+     * @throws IllegalArgumentException if the value is not a number.
+     */
+    public double getDouble(@Nullable final String key, final double defaultValue)
+    {
+        final Map<String, ? extends Object> payload = getPayload();
+        if (payload instanceof NessEventPayload) {
+            return ((NessEventPayload) payload).getDouble(key, defaultValue);
+        }
+        return (payload.get(key) == null) ? defaultValue : payloadNumber(payload, key).doubleValue();
+    }
+
+    private static Number payloadNumber(final Map<String, ? extends Object> payload, final String key)
+    {
+        final Object value = payload.get(key);
+        Preconditions.checkArgument(value != null, "no value for %s", key);
+        Preconditions.checkArgument(value instanceof Number, "value for %s is not a number", key);
+        return (Number) value;
+    }
+
+    /**
+     * Returns the payload decoded into the given class. Received events whose type is bound
+     * to this class in {@link NessEventPayloadSchemas} are decoded straight into it; all other
+     * payloads are converted from the payload map. The result is cached.
+     */
+    @Nonnull
+    public <T> T getPayload(@Nonnull final Class<T> payloadClass)
+    {
+        final Object payload = typedPayload;
+        if (payloadClass.isInstance(payload)) {
+            return payloadClass.cast(payload);
+        }
+
+        final T result = decodePayload(payloadClass);
+        typedPayload = result;
+        return result;
+    }
+
+    /**
+     * Decode the payload into a class. Subclasses that hold the payload in another form override this.
+     */
+    <T> T decodePayload(@Nonnull final Class<T> payloadClass)
+    {
+        return PAYLOAD_CONVERTER.convertValue(getPayload(), payloadClass);
+    }
+
     @Nonnull
     public UUID getId()
     {
@@ -174,7 +373,7 @@ public class NessEvent
             return false;
         }
         NessEvent castOther = (NessEvent) other;
-        return new EqualsBuilder().append(payload, castOther.payload).append(type, castOther.type).append(user, castOther.user).append(id, castOther.id).append(timestamp, castOther.timestamp).isEquals();
+        return new EqualsBuilder().append(getPayload(), castOther.getPayload()).append(type, castOther.type).append(user, castOther.user).append(id, castOther.id).append(timestampMillis, castOther.timestampMillis).isEquals();
     }
 
     private transient int hashCode;
@@ -183,7 +382,7 @@ public class NessEvent
     public int hashCode()
     {
         if (hashCode == 0) {
-            hashCode = new HashCodeBuilder().append(payload).append(type).append(user).append(id).append(timestamp).toHashCode();
+            hashCode = new HashCodeBuilder().append(getPayload()).append(type).append(user).append(id).append(timestampMillis).toHashCode();
         }
         return hashCode;
     }
@@ -194,7 +393,7 @@ public class NessEvent
     public String toString()
     {
         if (toString == null) {
-            toString = new ToStringBuilder(this).append("payload", payload).append("type", type).append("user", user).append("id", id).append("timestamp", timestamp).toString();
+            toString = new ToStringBuilder(this).append("payload", getPayload()).append("type", type).append("user", user).append("id", id).append("timestamp", getTimestamp()).toString();
         }
         return toString;
     }
@@ -0,0 +1,434 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.annotation.Nonnull;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteArrayDataInput;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Compact binary encoding of events, sent with the {@link #CONTENT_TYPE} content type.
+ * <p>
+ * Layout: two magic bytes, the event version, a flag byte, the 16 byte event id, the
+ * 16 byte user id (if present), the timestamp as zig-zag varint, the type name and the
+ * payload as a tagged map. Type ordinals are local to a process, so the name is sent.
+ * <p>
+ * Payload values that are not JSON primitives, lists or maps are converted with the
+ * object mapper first, so they decode to the same values as the JSON encoding. Byte arrays
+ * are written as base64 strings, like Jackson writes them.
+ * <p>
+ * The AMQP and JMS receivers accept this encoding next to JSON. The transmitters publish
+ * JSON unless binary transmission is enabled in their configuration; enable it only once all
+ * receivers understand it.
+ * <p>
+ * Nested lists and maps are read recursively, up to {@link #MAX_DEPTH} levels deep.
+ */
+public final class NessEventBinaryCodec
+{
+    public static final String CONTENT_TYPE = "application/x-ness-event";
+
+    /** The first version that has a binary encoding. */
+    public static final int MIN_BINARY_VERSION = 3;
+
+    static final byte MAGIC_0 = (byte) 0xce;
+    static final byte MAGIC_1 = (byte) 0x5e;
+
+    static final int FLAG_USER = 0x01;
+
+    /** Maximum nesting of lists and maps in a payload value. */
+    static final int MAX_DEPTH = 32;
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_FALSE = 1;
+    private static final int TAG_TRUE = 2;
+    private static final int TAG_INT = 3;
+    private static final int TAG_LONG = 4;
+    private static final int TAG_DOUBLE = 5;
+    private static final int TAG_STRING = 6;
+    private static final int TAG_BIG_INTEGER = 7;
+    private static final int TAG_BIG_DECIMAL = 8;
+    private static final int TAG_LIST = 9;
+    private static final int TAG_MAP = 10;
+
+    private final ObjectMapper mapper;
+
+    public NessEventBinaryCodec(@Nonnull final ObjectMapper mapper)
+    {
+        Preconditions.checkArgument(mapper != null, "mapper must not be null!");
+        this.mapper = mapper;
+    }
+
+    /**
+     * Returns true if the data starts with the magic bytes of the binary encoding. JSON
+     * text can never start with them.
+     */
+    public static boolean isBinary(@Nonnull final byte [] data)
+    {
+        return data.length >= 2 && data[0] == MAGIC_0 && data[1] == MAGIC_1;
+    }
+
+    @Nonnull
+    public byte [] encode(@Nonnull final NessEvent event)
+    {
+        Preconditions.checkArgument(event != null, "event must not be null!");
+
+        final ByteArrayDataOutput out = ByteStreams.newDataOutput(64);
+        out.writeByte(MAGIC_0);
+        out.writeByte(MAGIC_1);
+        out.writeByte(NessEvent.EVENT_VERSION);
+
+        final UUID user = event.getUser();
+        out.writeByte(user == null ? 0 : FLAG_USER);
+
+        writeUuid(out, event.getId());
+        if (user != null) {
+            writeUuid(out, user);
+        }
+        writeVarint(out, zigzag(event.getTimestampMillis()));
+        writeString(out, event.getType().getName());
+        writeMap(out, event.getPayload());
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Write an event into a buffer at its position, e.g. for reading it back with a
+     * {@link NessEventFlyweight}. The position moves past the event; it is left alone if
+     * the event does not fit.
+     *
+     * @return the number of bytes written.
+     * @throws java.nio.BufferOverflowException if the buffer has not enough room left.
+     */
+    public int encode(@Nonnull final NessEvent event, @Nonnull final ByteBuffer buffer)
+    {
+        Preconditions.checkArgument(buffer != null, "buffer must not be null!");
+
+        final byte [] data = encode(event);
+        buffer.put(data);
+        return data.length;
+    }
+
+    @Nonnull
+    public NessEvent decode(@Nonnull final byte [] data) throws IOException
+    {
+        return decodeEvent(data);
+    }
+
+    /**
+     * Decoding needs no mapper, this is shared with {@link NessEventFlyweight}.
+     */
+    static NessEvent decodeEvent(@Nonnull final byte [] data) throws IOException
+    {
+        if (!isBinary(data)) {
+            throw new IOException("not a binary encoded event");
+        }
+
+        try {
+            final ByteArrayDataInput in = ByteStreams.newDataInput(data, 2);
+            final int limit = data.length;
+            final int version = in.readUnsignedByte();
+            if (version < MIN_BINARY_VERSION || version > NessEvent.EVENT_VERSION) {
+                throw new IOException("unsupported event version " + version);
+            }
+
+            final int flags = in.readUnsignedByte();
+            final UUID id = readUuid(in);
+            final UUID user = ((flags & FLAG_USER) != 0) ? readUuid(in) : null;
+            final long timestampMillis = unzigzag(readVarint(in));
+            final NessEventType type = NessEventType.getForName(readString(in, limit));
+
+            final int size = readSize(in, limit);
+            final NessEventPayload.Builder payload = NessEventPayload.builder(size);
+            for (int i = 0; i < size; i++) {
+                readPayloadEntry(in, limit, payload);
+            }
+
+            return new NessEvent(user, timestampMillis, type, payload.build(), id);
+        }
+        catch (IllegalStateException ise) {
+            // ByteArrayDataInput reports truncated input this way.
+            throw new IOException("truncated binary event", ise);
+        }
+    }
+
+    private void writeValue(final ByteArrayDataOutput out, final Object value)
+    {
+        if (value == null) {
+            out.writeByte(TAG_NULL);
+        }
+        else if (value instanceof Boolean) {
+            out.writeByte(((Boolean) value).booleanValue() ? TAG_TRUE : TAG_FALSE);
+        }
+        else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.writeByte(TAG_INT);
+            writeVarint(out, zigzag(((Number) value).intValue()));
+        }
+        else if (value instanceof Long) {
+            out.writeByte(TAG_LONG);
+            writeVarint(out, zigzag(((Long) value).longValue()));
+        }
+        else if (value instanceof Double || value instanceof Float) {
+            out.writeByte(TAG_DOUBLE);
+            out.writeDouble(((Number) value).doubleValue());
+        }
+        else if (value instanceof String) {
+            out.writeByte(TAG_STRING);
+            writeString(out, (String) value);
+        }
+        else if (value instanceof BigInteger) {
+            out.writeByte(TAG_BIG_INTEGER);
+            writeString(out, value.toString());
+        }
+        else if (value instanceof BigDecimal) {
+            out.writeByte(TAG_BIG_DECIMAL);
+            writeString(out, value.toString());
+        }
+        else if (value instanceof Collection) {
+            final Collection<?> collection = (Collection<?>) value;
+            out.writeByte(TAG_LIST);
+            writeVarint(out, collection.size());
+            for (final Object element : collection) {
+                writeValue(out, element);
+            }
+        }
+        else if (value instanceof Map) {
+            out.writeByte(TAG_MAP);
+            writeMap(out, (Map<?, ?>) value);
+        }
+        else if (value instanceof byte []) {
+            out.writeByte(TAG_STRING);
+            writeString(out, BaseEncoding.base64().encode((byte []) value));
+        }
+        else {
+            // Must turn into one of the types above, otherwise this would recurse forever.
+            final Object converted = mapper.convertValue(value, Object.class);
+            Preconditions.checkArgument(converted == null || converted.getClass() != value.getClass(), "can not encode payload value of %s", value.getClass());
+            writeValue(out, converted);
+        }
+    }
+
+    private void writeMap(final ByteArrayDataOutput out, final Map<?, ?> map)
+    {
+        if (map instanceof NessEventPayload) {
+            writePayload(out, (NessEventPayload) map);
+            return;
+        }
+
+        writeVarint(out, map.size());
+        for (final Map.Entry<?, ?> entry : map.entrySet()) {
+            writeString(out, String.valueOf(entry.getKey()));
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    /**
+     * Writes unboxed payload values without boxing them.
+     */
+    private void writePayload(final ByteArrayDataOutput out, final NessEventPayload payload)
+    {
+        final int size = payload.size();
+        writeVarint(out, size);
+        for (int i = 0; i < size; i++) {
+            writeString(out, String.valueOf(payload.keyAt(i)));
+            switch (payload.kindAt(i)) {
+                case NessEventPayload.KIND_INT:
+                    out.writeByte(TAG_INT);
+                    writeVarint(out, zigzag(payload.longAt(i)));
+                    break;
+                case NessEventPayload.KIND_LONG:
+                    out.writeByte(TAG_LONG);
+                    writeVarint(out, zigzag(payload.longAt(i)));
+                    break;
+                case NessEventPayload.KIND_DOUBLE:
+                    out.writeByte(TAG_DOUBLE);
+                    out.writeDouble(payload.doubleAt(i));
+                    break;
+                default:
+                    writeValue(out, payload.valueAt(i));
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Reads a top level payload entry, numbers are stored unboxed.
+     */
+    private static void readPayloadEntry(final ByteArrayDataInput in, final int limit, final NessEventPayload.Builder payload) throws IOException
+    {
+        final String key = readString(in, limit);
+        final int tag = in.readUnsignedByte();
+        switch (tag) {
+            case TAG_INT:
+                payload.putInt(key, (int) unzigzag(readVarint(in)));
+                break;
+            case TAG_LONG:
+                payload.putLong(key, unzigzag(readVarint(in)));
+                break;
+            case TAG_DOUBLE:
+                payload.putDouble(key, in.readDouble());
+                break;
+            default:
+                payload.put(key, readValue(tag, in, limit, 1));
+                break;
+        }
+    }
+
+    private static Object readValue(final ByteArrayDataInput in, final int limit, final int depth) throws IOException
+    {
+        return readValue(in.readUnsignedByte(), in, limit, depth);
+    }
+
+    private static Object readValue(final int tag, final ByteArrayDataInput in, final int limit, final int depth) throws IOException
+    {
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            case TAG_INT:
+                return Integer.valueOf((int) unzigzag(readVarint(in)));
+            case TAG_LONG:
+                return Long.valueOf(unzigzag(readVarint(in)));
+            case TAG_DOUBLE:
+                return Double.valueOf(in.readDouble());
+            case TAG_STRING:
+                return readString(in, limit);
+            case TAG_BIG_INTEGER:
+                return new BigInteger(readString(in, limit));
+            case TAG_BIG_DECIMAL:
+                return new BigDecimal(readString(in, limit));
+            case TAG_LIST: {
+                checkDepth(depth);
+                final int size = readSize(in, limit);
+                final List<Object> list = new ArrayList<Object>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in, limit, depth + 1));
+                }
+                return list;
+            }
+            case TAG_MAP: {
+                checkDepth(depth);
+                final int size = readSize(in, limit);
+                final Map<String, Object> map = new LinkedHashMap<String, Object>();
+                for (int i = 0; i < size; i++) {
+                    final String key = readString(in, limit);
+                    map.put(key, readValue(in, limit, depth + 1));
+                }
+                return map;
+            }
+            default:
+                throw new IOException("unknown value tag " + tag);
+        }
+    }
+
+    private static void checkDepth(final int depth) throws IOException
+    {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("payload nested deeper than " + MAX_DEPTH + " levels");
+        }
+    }
+
+    private static void writeUuid(final ByteArrayDataOutput out, final UUID uuid)
+    {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private static UUID readUuid(final ByteArrayDataInput in)
+    {
+        final long msb = in.readLong();
+        return new UUID(msb, in.readLong());
+    }
+
+    private static void writeString(final ByteArrayDataOutput out, final String value)
+    {
+        final byte [] bytes = value.getBytes(Charsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final ByteArrayDataInput in, final int limit) throws IOException
+    {
+        final byte [] bytes = new byte[readSize(in, limit)];
+        in.readFully(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    /**
+     * Every element takes at least one byte, so no size can exceed the length of the input.
+     * This keeps corrupt data from allocating huge arrays.
+     */
+    private static int readSize(final ByteArrayDataInput in, final int limit) throws IOException
+    {
+        final long size = readVarint(in);
+        if (size < 0 || size > limit) {
+            throw new IOException("invalid size " + size);
+        }
+        return (int) size;
+    }
+
+    private static void writeVarint(final ByteArrayDataOutput out, final long value)
+    {
+        long remaining = value;
+        while ((remaining & ~0x7fL) != 0) {
+            out.writeByte((int) ((remaining & 0x7f) | 0x80));
+            remaining >>>= 7;
+        }
+        out.writeByte((int) remaining);
+    }
+
+    private static long readVarint(final ByteArrayDataInput in) throws IOException
+    {
+        long value = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    private static long zigzag(final long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(final long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
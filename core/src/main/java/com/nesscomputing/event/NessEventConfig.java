@@ -17,13 +17,325 @@ package com.nesscomputing.event;
 
 import org.skife.config.Config;
 import org.skife.config.Default;
+import org.skife.config.TimeSpan;
 
 public abstract class NessEventConfig
 {
+    /**
+     * The transports that events are sent to.
+     */
     @Config("ness.event.transport")
     @Default("local")
     public String [] getTransports()
     {
         return new String [] { "local" };
     }
+
+    /**
+     * How the local dispatcher calls the event receivers.
+     */
+    @Config("ness.event.dispatch.mode")
+    @Default("SYNC")
+    public NessEventDispatchMode getDispatchMode()
+    {
+        return NessEventDispatchMode.SYNC;
+    }
+
+    /**
+     * Maximum number of events queued per receiver in ASYNC dispatch mode or per lane in
+     * PARTITIONED dispatch mode.
+     */
+    @Config("ness.event.dispatch.queue-size")
+    @Default("1024")
+    public int getDispatchQueueSize()
+    {
+        return 1024;
+    }
+
+    /**
+     * What to do with an event when a receiver queue is full.
+     */
+    @Config("ness.event.dispatch.overflow-policy")
+    @Default("BLOCK")
+    public NessEventOverflowPolicy getDispatchOverflowPolicy()
+    {
+        return NessEventOverflowPolicy.BLOCK;
+    }
+
+    /**
+     * Number of dispatch lanes in PARTITIONED dispatch mode. 0 uses one lane per available processor.
+     */
+    @Config("ness.event.dispatch.lanes")
+    @Default("0")
+    public int getDispatchLanes()
+    {
+        return 0;
+    }
+
+    /**
+     * Lane for events without a user in PARTITIONED dispatch mode. A negative value
+     * distributes these events round-robin over all lanes.
+     */
+    @Config("ness.event.dispatch.null-user-lane")
+    @Default("-1")
+    public int getNullUserLane()
+    {
+        return -1;
+    }
+
+    /**
+     * Number of slots in the ring buffer in RING_BUFFER dispatch mode. Rounded up to the next power of two.
+     */
+    @Config("ness.event.dispatch.ring-size")
+    @Default("1024")
+    public int getDispatchRingSize()
+    {
+        return 1024;
+    }
+
+    /**
+     * How threads wait for events or free slots in RING_BUFFER dispatch mode.
+     */
+    @Config("ness.event.dispatch.wait-strategy")
+    @Default("PARK")
+    public NessEventWaitStrategy getDispatchWaitStrategy()
+    {
+        return NessEventWaitStrategy.PARK;
+    }
+
+    /**
+     * Maximum number of events handed to a batch receiver at once. Also the maximum number of
+     * queued events an asynchronous sender hands to a batch transmitter at once.
+     */
+    @Config("ness.event.batch.max-size")
+    @Default("100")
+    public int getBatchMaxSize()
+    {
+        return 100;
+    }
+
+    /**
+     * Maximum time an event waits for its batch to fill up before the batch is handed to a
+     * batch receiver anyway.
+     */
+    @Config("ness.event.batch.max-linger")
+    @Default("100ms")
+    public TimeSpan getBatchMaxLinger()
+    {
+        return new TimeSpan("100ms");
+    }
+
+    /**
+     * Guard every event receiver with a latency circuit breaker.
+     */
+    @Config("ness.event.breaker.enabled")
+    @Default("false")
+    public boolean isCircuitBreakerEnabled()
+    {
+        return false;
+    }
+
+    /**
+     * The circuit breaker opens if the 99th percentile of the receiver call time exceeds this threshold.
+     */
+    @Config("ness.event.breaker.latency-threshold")
+    @Default("1s")
+    public TimeSpan getCircuitBreakerLatencyThreshold()
+    {
+        return new TimeSpan("1s");
+    }
+
+    /**
+     * Number of receiver calls the latency percentile is computed over.
+     */
+    @Config("ness.event.breaker.window-size")
+    @Default("100")
+    public int getCircuitBreakerWindowSize()
+    {
+        return 100;
+    }
+
+    /**
+     * Time after which an open circuit breaker lets a probe event through.
+     */
+    @Config("ness.event.breaker.probe-interval")
+    @Default("10s")
+    public TimeSpan getCircuitBreakerProbeInterval()
+    {
+        return new TimeSpan("10s");
+    }
+
+    /**
+     * Number of events held back while a circuit breaker is open. They are delivered when
+     * the receiver recovers. 0 sheds all events while the breaker is open.
+     */
+    @Config("ness.event.breaker.overflow-size")
+    @Default("0")
+    public int getCircuitBreakerOverflowSize()
+    {
+        return 0;
+    }
+
+    /**
+     * Maximum number of threads in EXECUTOR dispatch mode. 0 uses a cached pool without a
+     * thread limit: it creates threads on demand, up to the receiver concurrency limit times
+     * the number of receivers, so many receivers can mean many threads. Set a limit in
+     * production.
+     */
+    @Config("ness.event.executor.threads")
+    @Default("0")
+    public int getExecutorThreads()
+    {
+        return 0;
+    }
+
+    /**
+     * Maximum number of concurrent calls per receiver in EXECUTOR dispatch mode. Above one,
+     * a receiver sees events out of order; set it to one to keep the order per receiver.
+     */
+    @Config("ness.event.executor.receiver-concurrency")
+    @Default("16")
+    public int getExecutorReceiverConcurrency()
+    {
+        return 16;
+    }
+
+    /**
+     * Drain weight of HIGH priority events. Priorities are assigned per event type with
+     * <tt>ness.event.priority.&lt;TYPE&gt;=high|normal|low</tt> and apply to the queues of
+     * the ASYNC and PARTITIONED dispatch modes.
+     */
+    @Config("ness.event.dispatch.priority-weight.high")
+    @Default("8")
+    public int getPriorityWeightHigh()
+    {
+        return 8;
+    }
+
+    /**
+     * Drain weight of NORMAL priority events.
+     */
+    @Config("ness.event.dispatch.priority-weight.normal")
+    @Default("4")
+    public int getPriorityWeightNormal()
+    {
+        return 4;
+    }
+
+    /**
+     * Drain weight of LOW priority events.
+     */
+    @Config("ness.event.dispatch.priority-weight.low")
+    @Default("1")
+    public int getPriorityWeightLow()
+    {
+        return 1;
+    }
+
+    /**
+     * Number of buffered events at which transport receivers stop pulling events. 0 disables flow control.
+     */
+    @Config("ness.event.flow-control.high-water")
+    @Default("0")
+    public int getFlowControlHighWater()
+    {
+        return 0;
+    }
+
+    /**
+     * Number of buffered events at which transport receivers resume pulling events. 0 uses half of the high-water mark.
+     */
+    @Config("ness.event.flow-control.low-water")
+    @Default("0")
+    public int getFlowControlLowWater()
+    {
+        return 0;
+    }
+
+    /**
+     * How often a paused transport receiver checks whether the dispatcher has drained.
+     */
+    @Config("ness.event.flow-control.poll-interval")
+    @Default("10ms")
+    public TimeSpan getFlowControlPollInterval()
+    {
+        return new TimeSpan("10ms");
+    }
+
+    /**
+     * If true, the sender hands events to a bounded queue per transport and returns immediately.
+     * Every transport is fed by its own worker thread.
+     */
+    @Config("ness.event.sender.async")
+    @Default("false")
+    public boolean isSenderAsync()
+    {
+        return false;
+    }
+
+    /**
+     * Maximum number of events queued per transport by an asynchronous sender.
+     */
+    @Config("ness.event.sender.queue-size")
+    @Default("1024")
+    public int getSenderQueueSize()
+    {
+        return 1024;
+    }
+
+    /**
+     * What an asynchronous sender does with an event when a transport queue is full. The default
+     * never blocks the sending thread.
+     */
+    @Config("ness.event.sender.overflow-policy")
+    @Default("DROP_NEWEST")
+    public NessEventOverflowPolicy getSenderOverflowPolicy()
+    {
+        return NessEventOverflowPolicy.DROP_NEWEST;
+    }
+
+    /**
+     * How long an asynchronous sender keeps sending queued events after it was stopped. Events
+     * still queued after that, and events sent after stop, are dropped and counted.
+     */
+    @Config("ness.event.sender.drain-timeout")
+    @Default("5s")
+    public TimeSpan getSenderDrainTimeout()
+    {
+        return new TimeSpan("5s");
+    }
+
+    /**
+     * Window in which the sender merges events of the same type and user into one. Applies to
+     * the event types selected with <tt>ness.event.coalesce.&lt;TYPE&gt;=first|last</tt>.
+     */
+    @Config("ness.event.sender.coalesce-window")
+    @Default("1s")
+    public TimeSpan getSenderCoalesceWindow()
+    {
+        return new TimeSpan("1s");
+    }
+
+    /**
+     * If true, the sender lowers the sample rate of the sampled event types as its transport
+     * queues fill up. Sample rates are set per type with <tt>ness.event.sample.&lt;TYPE&gt;=&lt;0..1&gt;</tt>.
+     * Only has an effect with <tt>ness.event.sender.async</tt>, a synchronous sender has no queues.
+     */
+    @Config("ness.event.sender.adaptive-sampling")
+    @Default("false")
+    public boolean isAdaptiveSampling()
+    {
+        return false;
+    }
+
+    /**
+     * Fill level of the fullest transport queue, from 0 to 1, above which adaptive sampling
+     * starts to drop events. At a full queue, all events of sampled types are dropped.
+     */
+    @Config("ness.event.sender.adaptive-sampling-threshold")
+    @Default("0.5")
+    public double getAdaptiveSamplingThreshold()
+    {
+        return 0.5;
+    }
 }
@@ -0,0 +1,233 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.io.IOException;
+import java.util.UUID;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
+
+/**
+ * Decodes events received from a transport. Only the envelope (id, type, user, timestamp)
+ * is parsed eagerly; the payload is checked for well-formedness and kept as raw JSON until
+ * {@link NessEvent#getPayload()} is first called. Receivers that filter on type or user
+ * never pay for building the payload map.
+ * <p>
+ * If the event type is bound to a payload class in {@link NessEventPayloadSchemas}, the raw
+ * JSON is kept after the payload map was built, so that {@link NessEvent#getPayload(Class)}
+ * can decode straight from it. A payload that does not match its class never fails the
+ * decoding of the event.
+ * <p>
+ * Byte arrays may also hold the binary encoding (see {@link NessEventBinaryCodec}), which is
+ * recognized by its content type or its magic bytes.
+ */
+public final class NessEventDecoder
+{
+    private final ObjectMapper mapper;
+    private final NessEventBinaryCodec binaryCodec;
+
+    public NessEventDecoder(@Nonnull final ObjectMapper mapper)
+    {
+        Preconditions.checkArgument(mapper != null, "mapper must not be null!");
+        this.mapper = mapper;
+        this.binaryCodec = new NessEventBinaryCodec(mapper);
+    }
+
+    @Nonnull
+    public NessEvent decode(@Nonnull final byte [] data) throws IOException
+    {
+        return decode(data, null);
+    }
+
+    /**
+     * Decode an event that was received with the given content type. Binary events sent
+     * without a content type are recognized by their magic bytes.
+     */
+    @Nonnull
+    public NessEvent decode(@Nonnull final byte [] data, @Nullable final String contentType) throws IOException
+    {
+        if (NessEventBinaryCodec.CONTENT_TYPE.equals(contentType) || NessEventBinaryCodec.isBinary(data)) {
+            return binaryCodec.decode(data);
+        }
+
+        final JsonParser parser = mapper.getFactory().createParser(data);
+        try {
+            return decode(parser, data, null);
+        }
+        finally {
+            parser.close();
+        }
+    }
+
+    @Nonnull
+    public NessEvent decode(@Nonnull final String text) throws IOException
+    {
+        final JsonParser parser = mapper.getFactory().createParser(text);
+        try {
+            return decode(parser, null, text);
+        }
+        finally {
+            parser.close();
+        }
+    }
+
+    private NessEvent decode(final JsonParser parser, final byte [] data, final String text) throws IOException
+    {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException("event must be a JSON object", parser.getCurrentLocation());
+        }
+
+        UUID user = null;
+        UUID id = null;
+        long timestampMillis = Long.MIN_VALUE;
+        NessEventType type = null;
+        int payloadStart = -1;
+        int payloadEnd = -1;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String fieldName = parser.getCurrentName();
+            final JsonToken token = parser.nextToken();
+
+            if (token == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            else if ("user".equals(fieldName)) {
+                user = UUID.fromString(parser.getText());
+            }
+            else if ("id".equals(fieldName)) {
+                id = UUID.fromString(parser.getText());
+            }
+            else if ("type".equals(fieldName)) {
+                type = NessEventType.getForName(parser.getText());
+            }
+            else if ("timestamp".equals(fieldName)) {
+                timestampMillis = (token == JsonToken.VALUE_NUMBER_INT) ? parser.getLongValue() : NessEvent.parseTimestamp(parser.getText());
+            }
+            else if ("payload".equals(fieldName)) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new JsonParseException("payload must be a JSON object", parser.getTokenLocation());
+                }
+
+                // The current location is the last character consumed, i.e. the opening and closing brace.
+                payloadStart = offset(parser.getCurrentLocation());
+                parser.skipChildren();
+                payloadEnd = offset(parser.getCurrentLocation()) + 1;
+            }
+            else {
+                // "v" and anything unknown.
+                parser.skipChildren();
+            }
+        }
+
+        if (id == null || type == null) {
+            throw new JsonParseException("event must have an id and a type", parser.getCurrentLocation());
+        }
+        if (timestampMillis == Long.MIN_VALUE) {
+            timestampMillis = System.currentTimeMillis();
+        }
+
+        if (payloadStart < 0) {
+            return new NessEvent(user, timestampMillis, type, null, id);
+        }
+        else if (!isObjectRange(data, text, payloadStart, payloadEnd)) {
+            // Parser did not report usable offsets, decode the event in full.
+            return (data != null) ? mapper.readValue(data, NessEvent.class) : mapper.readValue(text, NessEvent.class);
+        }
+        else if (data != null) {
+            return new LazyNessEvent(user, timestampMillis, type, id, mapper, data, payloadStart, payloadEnd - payloadStart);
+        }
+        else {
+            return new LazyNessEvent(user, timestampMillis, type, id, mapper, text.substring(payloadStart, payloadEnd));
+        }
+    }
+
+    private static int offset(final JsonLocation location)
+    {
+        // Byte based parsers report their position either as byte or as char offset, depending on the version.
+        return (int) (location.getByteOffset() >= 0 ? location.getByteOffset() : location.getCharOffset());
+    }
+
+    private static boolean isObjectRange(final byte [] data, final String text, final int start, final int end)
+    {
+        if (data != null) {
+            return start >= 0 && end <= data.length && start < end && data[start] == '{' && data[end - 1] == '}';
+        }
+        else {
+            return start >= 0 && end <= text.length() && start < end && text.charAt(start) == '{' && text.charAt(end - 1) == '}';
+        }
+    }
+
+    /**
+     * Read a JSON object from the parser straight into a payload. The parser may be positioned
+     * on the opening brace or just before it.
+     */
+    static NessEventPayload readPayload(@Nonnull final JsonParser parser, @Nonnull final ObjectCodec codec) throws IOException
+    {
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT && parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException("payload must be a JSON object", parser.getCurrentLocation());
+        }
+
+        final NessEventPayload.Builder builder = NessEventPayload.builder();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String key = parser.getCurrentName();
+            final JsonToken token = parser.nextToken();
+            switch (token) {
+                case VALUE_NULL:
+                    builder.put(key, null);
+                    break;
+                case VALUE_STRING:
+                    builder.put(key, parser.getText());
+                    break;
+                case VALUE_TRUE:
+                    builder.put(key, Boolean.TRUE);
+                    break;
+                case VALUE_FALSE:
+                    builder.put(key, Boolean.FALSE);
+                    break;
+                case VALUE_NUMBER_INT:
+                    // Integer, Long or BigInteger, whatever fits; same as the untyped deserializer.
+                    switch (parser.getNumberType()) {
+                        case INT:
+                            builder.putInt(key, parser.getIntValue());
+                            break;
+                        case LONG:
+                            builder.putLong(key, parser.getLongValue());
+                            break;
+                        default:
+                            builder.put(key, parser.getNumberValue());
+                            break;
+                    }
+                    break;
+                case VALUE_NUMBER_FLOAT:
+                    builder.putDouble(key, parser.getDoubleValue());
+                    break;
+                default:
+                    builder.put(key, codec.readValue(parser, Object.class));
+                    break;
+            }
+        }
+        return builder.build();
+    }
+}
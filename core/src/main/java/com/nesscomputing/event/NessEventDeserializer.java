@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+/**
+ * Reads an event token by token. The payload is read straight into a {@link NessEventPayload};
+ * payload classes are converted from it on demand, see {@link NessEvent#getPayload(Class)}.
+ */
+final class NessEventDeserializer extends StdDeserializer<NessEvent>
+{
+    private static final long serialVersionUID = 1L;
+
+    NessEventDeserializer()
+    {
+        super(NessEvent.class);
+    }
+
+    @Override
+    public NessEvent deserialize(final JsonParser jp, final DeserializationContext ctxt) throws IOException
+    {
+        JsonToken token = jp.getCurrentToken();
+        if (token == JsonToken.START_OBJECT) {
+            token = jp.nextToken();
+        }
+
+        UUID user = null;
+        UUID id = null;
+        long timestampMillis = Long.MIN_VALUE;
+        NessEventType type = null;
+        Map<String, ? extends Object> payload = null;
+
+        for (; token == JsonToken.FIELD_NAME; token = jp.nextToken()) {
+            final String fieldName = jp.getCurrentName();
+            final JsonToken valueToken = jp.nextToken();
+
+            if (valueToken == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            else if ("user".equals(fieldName)) {
+                user = UUID.fromString(jp.getText());
+            }
+            else if ("id".equals(fieldName)) {
+                id = UUID.fromString(jp.getText());
+            }
+            else if ("type".equals(fieldName)) {
+                type = NessEventType.getForName(jp.getText());
+            }
+            else if ("timestamp".equals(fieldName)) {
+                timestampMillis = (valueToken == JsonToken.VALUE_NUMBER_INT) ? jp.getLongValue() : NessEvent.parseTimestamp(jp.getText());
+            }
+            else if ("payload".equals(fieldName)) {
+                if (valueToken != JsonToken.START_OBJECT) {
+                    throw ctxt.mappingException("payload must be a JSON object");
+                }
+                payload = NessEventDecoder.readPayload(jp, jp.getCodec());
+            }
+            else {
+                // "v" and anything unknown.
+                jp.skipChildren();
+            }
+        }
+
+        if (id == null || type == null) {
+            throw ctxt.mappingException("event must have an id and a type");
+        }
+        if (timestampMillis == Long.MIN_VALUE) {
+            timestampMillis = System.currentTimeMillis();
+        }
+
+        return new NessEvent(user, timestampMillis, type, payload, id);
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+/**
+ * Controls how the local event dispatcher hands events to the event receivers.
+ */
+public enum NessEventDispatchMode
+{
+    /** Every receiver is called on the thread that dispatches the event. */
+    SYNC,
+
+    /** Every receiver gets its own bounded queue and worker thread. */
+    ASYNC,
+
+    /**
+     * Events are spread by user over a fixed number of lanes. Each lane calls the receivers
+     * serially, so events for the same user are delivered in order.
+     */
+    PARTITIONED,
+
+    /**
+     * Events are published into a preallocated ring buffer. Every receiver consumes the
+     * ring on its own thread, in publishing order.
+     */
+    RING_BUFFER,
+
+    /**
+     * Every receiver call runs on a shared thread pool. The number of concurrent calls per
+     * receiver is limited; the dispatching thread waits if a receiver has no capacity left.
+     * <p>
+     * Events are no longer delivered to a receiver in order: with a receiver concurrency
+     * above one, calls for the same receiver run in parallel and may complete in any order.
+     * The default pool has no thread limit, see {@link NessEventConfig#getExecutorThreads()}.
+     * Pool threads are regular platform threads; the code base targets Java 6.
+     */
+    EXECUTOR;
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exposes runtime statistics of the local event dispatcher.
+ */
+public interface NessEventDispatcherStatistics
+{
+    /**
+     * Returns the number of events currently queued for each event receiver. In EXECUTOR
+     * dispatch mode, this is the number of calls in flight. Empty if the dispatcher does not
+     * queue events per receiver.
+     */
+    Map<NessEventReceiver, Integer> getQueueDepths();
+
+    /**
+     * Returns the number of events currently queued in each dispatch lane. Empty unless
+     * the dispatcher runs in PARTITIONED mode.
+     */
+    List<Integer> getLaneQueueDepths();
+
+    /**
+     * Returns the number of events that were dropped because a queue was full.
+     */
+    long getDroppedEventCount();
+
+    /**
+     * Returns the circuit breaker state of each event receiver. Empty if circuit breakers are disabled.
+     */
+    Map<NessEventReceiver, NessEventCircuitState> getCircuitStates();
+
+    /**
+     * Returns the number of events that were shed because a circuit breaker was open.
+     */
+    long getShedEventCount();
+}
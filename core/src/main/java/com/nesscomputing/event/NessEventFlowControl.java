@@ -0,0 +1,40 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+/**
+ * Backpressure contract between the local event dispatcher and the transport receivers.
+ * When the events buffered by the dispatcher pass the high-water mark, receivers should
+ * stop pulling events from the broker until the buffers have drained to the low-water mark.
+ */
+public interface NessEventFlowControl
+{
+    /**
+     * Returns the number of events currently buffered by the dispatcher.
+     */
+    long getBufferedEventCount();
+
+    /**
+     * Returns true while the dispatcher is above its high-water mark and has not yet drained
+     * to its low-water mark.
+     */
+    boolean isSaturated();
+
+    /**
+     * Wait until the dispatcher is no longer saturated. Returns immediately if it is not.
+     */
+    void awaitCapacity() throws InterruptedException;
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+
+/**
+ * Reads a binary encoded event (see {@link NessEventBinaryCodec}) in place from a heap or direct
+ * {@link ByteBuffer}. Envelope fields are read on demand, nothing is allocated for the timestamp,
+ * the user flag or type checks. A flyweight is rebound to the next event with
+ * {@link #wrap(ByteBuffer, int, int)}; call {@link #toEvent()} to get an event that can be kept.
+ * Events are written into a buffer with {@link NessEventBinaryCodec#encode(NessEvent, ByteBuffer)}.
+ * <p>
+ * {@link #wrap(ByteBuffer, int, int)} checks that the whole envelope fits into the range, so the
+ * envelope accessors never read past it. The payload is only checked by {@link #toEvent()}.
+ * <p>
+ * Instances are not thread safe. The buffer's position and limit are never changed.
+ */
+public final class NessEventFlyweight
+{
+    private static final int HEADER_SIZE = 4;
+    private static final int UUID_SIZE = 16;
+
+    private ByteBuffer buffer = null;
+    private int offset;
+    private int length;
+    private int flags;
+
+    /** Position of the type name length, found on first use. */
+    private int typeOffset = -1;
+
+    /** Position after the varint read last. */
+    private int varintEnd;
+
+    /** The type last checked by {@link #isType(NessEventType)} and its encoded name. */
+    private NessEventType checkedType = null;
+    private byte [] checkedTypeName = null;
+
+    /**
+     * Bind to the event held in the buffer at the given absolute offset.
+     *
+     * @throws IllegalArgumentException if the range does not hold a binary encoded event of a known
+     *         version, or if it is too short for the event's envelope.
+     */
+    @Nonnull
+    public NessEventFlyweight wrap(@Nonnull final ByteBuffer buffer, final int offset, final int length)
+    {
+        Preconditions.checkArgument(buffer != null, "buffer must not be null!");
+        Preconditions.checkArgument(offset >= 0 && length >= 0 && offset + length <= buffer.capacity(), "invalid event range %s+%s", offset, length);
+        Preconditions.checkArgument(length >= HEADER_SIZE, "truncated event at %s, %s bytes are too short for the header", offset, length);
+        Preconditions.checkArgument(buffer.get(offset) == NessEventBinaryCodec.MAGIC_0 && buffer.get(offset + 1) == NessEventBinaryCodec.MAGIC_1, "not a binary encoded event at %s", offset);
+
+        final int version = buffer.get(offset + 2) & 0xff;
+        Preconditions.checkArgument(version >= NessEventBinaryCodec.MIN_BINARY_VERSION && version <= NessEvent.EVENT_VERSION, "unsupported event version %s", version);
+
+        final int flags = buffer.get(offset + 3) & 0xff;
+        final int idsSize = ((flags & NessEventBinaryCodec.FLAG_USER) != 0) ? 2 * UUID_SIZE : UUID_SIZE;
+        Preconditions.checkArgument(length >= HEADER_SIZE + idsSize, "truncated event at %s, %s bytes are too short for the ids", offset, length);
+
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        this.flags = flags;
+        this.typeOffset = -1;
+
+        // Reads the timestamp and the type name length, and checks that the name fits.
+        try {
+            typeNameLength();
+        }
+        catch (IllegalStateException ise) {
+            this.buffer = null;
+            throw new IllegalArgumentException(String.format("truncated event at %s, %s bytes are too short for the timestamp and type", offset, length), ise);
+        }
+        return this;
+    }
+
+    public int getOffset()
+    {
+        return offset;
+    }
+
+    public int getLength()
+    {
+        return length;
+    }
+
+    @Nonnull
+    public UUID getId()
+    {
+        checkBound();
+        return new UUID(buffer.getLong(offset + HEADER_SIZE), buffer.getLong(offset + HEADER_SIZE + 8));
+    }
+
+    public boolean hasUser()
+    {
+        checkBound();
+        return (flags & NessEventBinaryCodec.FLAG_USER) != 0;
+    }
+
+    @CheckForNull
+    public UUID getUser()
+    {
+        if (!hasUser()) {
+            return null;
+        }
+        final int userOffset = offset + HEADER_SIZE + UUID_SIZE;
+        return new UUID(buffer.getLong(userOffset), buffer.getLong(userOffset + 8));
+    }
+
+    public long getTimestampMillis()
+    {
+        checkBound();
+        return NessEventBinaryCodec.unzigzag(readVarint(timestampOffset()));
+    }
+
+    @Nonnull
+    public NessEventType getType()
+    {
+        final int nameLength = typeNameLength();
+        final byte [] name = new byte[nameLength];
+        for (int i = 0; i < nameLength; i++) {
+            name[i] = buffer.get(varintEnd + i);
+        }
+        return NessEventType.getForName(new String(name, Charsets.UTF_8));
+    }
+
+    /**
+     * Returns true if the event has the given type. Compares the encoded name in place.
+     */
+    public boolean isType(@Nonnull final NessEventType eventType)
+    {
+        if (eventType != checkedType) {
+            checkedTypeName = eventType.getName().getBytes(Charsets.UTF_8);
+            checkedType = eventType;
+        }
+
+        final int nameLength = typeNameLength();
+        if (nameLength != checkedTypeName.length) {
+            return false;
+        }
+        for (int i = 0; i < nameLength; i++) {
+            if (buffer.get(varintEnd + i) != checkedTypeName[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decode the full event, e.g. to hand it to a receiver that keeps it.
+     */
+    @Nonnull
+    public NessEvent toEvent() throws IOException
+    {
+        checkBound();
+        final byte [] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = buffer.get(offset + i);
+        }
+        return NessEventBinaryCodec.decodeEvent(data);
+    }
+
+    private void checkBound()
+    {
+        Preconditions.checkState(buffer != null, "flyweight is not bound to an event!");
+    }
+
+    private int timestampOffset()
+    {
+        return offset + HEADER_SIZE + (hasUser() ? 2 * UUID_SIZE : UUID_SIZE);
+    }
+
+    /**
+     * Returns the length of the type name, which starts at {@link #varintEnd}.
+     */
+    private int typeNameLength()
+    {
+        final long nameLength = readVarint(typeOffset());
+        Preconditions.checkState(nameLength <= offset + length - varintEnd, "type name exceeds the event");
+        return (int) nameLength;
+    }
+
+    private int typeOffset()
+    {
+        if (typeOffset < 0) {
+            readVarint(timestampOffset());
+            typeOffset = varintEnd;
+        }
+        return typeOffset;
+    }
+
+    private long readVarint(final int position)
+    {
+        final int end = offset + length;
+        long value = 0L;
+        int current = position;
+        for (int shift = 0; shift < 64 && current < end; shift += 7) {
+            final int b = buffer.get(current++);
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                varintEnd = current;
+                return value;
+            }
+        }
+        throw new IllegalStateException("malformed varint at " + position);
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import com.fasterxml.jackson.core.Version;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+
+/**
+ * Jackson module with a streaming serializer and deserializer for {@link NessEvent}. Mappers
+ * without it fall back to the annotated factory method, which is slower until the JIT has
+ * warmed up. {@link NessEventModule} binds it into the set of Jackson modules that the
+ * injected ObjectMapper registers; other mappers register it by hand:
+ *
+ * <pre>
+ * mapper.registerModule(new NessEventJacksonModule());
+ * </pre>
+ */
+public class NessEventJacksonModule extends SimpleModule
+{
+    private static final long serialVersionUID = 1L;
+
+    public NessEventJacksonModule()
+    {
+        super("NessEventJacksonModule", Version.unknownVersion());
+
+        addSerializer(NessEvent.class, new NessEventSerializer());
+        addDeserializer(NessEvent.class, new NessEventDeserializer());
+    }
+}
@@ -17,12 +17,15 @@ package com.nesscomputing.event;
 
 import com.google.inject.AbstractModule;
 import com.google.inject.Binder;
+import com.google.inject.Provides;
 import com.google.inject.Scopes;
+import com.google.inject.Singleton;
 import com.google.inject.binder.LinkedBindingBuilder;
 import com.google.inject.multibindings.MapBinder;
 import com.google.inject.multibindings.Multibinder;
 import com.google.inject.name.Named;
 import com.google.inject.name.Names;
+import com.nesscomputing.config.Config;
 import com.nesscomputing.config.ConfigProvider;
 
 public class NessEventModule extends AbstractModule
@@ -36,11 +39,45 @@ public class NessEventModule extends AbstractModule
         bind(NessEventConfig.class).toProvider(ConfigProvider.of(NessEventConfig.class)).in(Scopes.SINGLETON);
 
         bind(NessEventDispatcher.class).to(InternalEventDispatcher.class).in(Scopes.SINGLETON);
+        bind(NessEventDispatcherStatistics.class).to(InternalEventDispatcher.class).in(Scopes.SINGLETON);
+        bind(NessEventSubscriptions.class).to(InternalEventDispatcher.class).in(Scopes.SINGLETON);
+        bind(NessEventFlowControl.class).to(InternalEventDispatcher.class).in(Scopes.SINGLETON);
         bind(NessEventSender.class).in(Scopes.SINGLETON);
 
         bind(InternalEventDispatcher.class).in(Scopes.SINGLETON);
         bind(InternalLocalEventTransmitter.class).in(Scopes.SINGLETON);
         NessEventModule.bindEventTransmitter(binder(), "local").to(InternalLocalEventTransmitter.class).in(Scopes.SINGLETON);
+
+        // Picked up by the ObjectMapper provider of ness-jackson, which registers all bound Jackson modules.
+        Multibinder.newSetBinder(binder(), com.fasterxml.jackson.databind.Module.class).addBinding().toInstance(new NessEventJacksonModule());
+    }
+
+    @Provides
+    @Singleton
+    EventPriorities getEventPriorities(final Config config, final NessEventConfig eventConfig)
+    {
+        return EventPriorities.fromConfig(config, eventConfig);
+    }
+
+    @Provides
+    @Singleton
+    EventTransportRoutes getEventTransportRoutes(final Config config, final NessEventConfig eventConfig)
+    {
+        return EventTransportRoutes.fromConfig(config, eventConfig);
+    }
+
+    @Provides
+    @Singleton
+    EventCoalescing getEventCoalescing(final Config config, final NessEventConfig eventConfig)
+    {
+        return EventCoalescing.fromConfig(config, eventConfig);
+    }
+
+    @Provides
+    @Singleton
+    EventAdmission getEventAdmission(final Config config, final NessEventConfig eventConfig)
+    {
+        return EventAdmission.fromConfig(config, eventConfig);
     }
 
     public static LinkedBindingBuilder<NessEventReceiver> bindEventReceiver(final Binder binder)
@@ -49,6 +86,12 @@ public class NessEventModule extends AbstractModule
         return eventReceivers.addBinding();
     }
 
+    public static LinkedBindingBuilder<NessEventBatchReceiver> bindEventBatchReceiver(final Binder binder)
+    {
+        final Multibinder<NessEventBatchReceiver> eventBatchReceivers = Multibinder.newSetBinder(binder, NessEventBatchReceiver.class, EVENT_NAMED);
+        return eventBatchReceivers.addBinding();
+    }
+
     public static LinkedBindingBuilder<NessEventTransmitter> bindEventTransmitter(final Binder binder, final String key)
     {
         final MapBinder<String, NessEventTransmitter> eventTransmitters = MapBinder.newMapBinder(binder, String.class, NessEventTransmitter.class, EVENT_NAMED);
@@ -0,0 +1,31 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+/**
+ * Decides what happens when an event is offered to a bounded event queue that is full.
+ */
+public enum NessEventOverflowPolicy
+{
+    /** Block the offering thread until space is available. */
+    BLOCK,
+
+    /** Drop the oldest queued event to make room for the new one. */
+    DROP_OLDEST,
+
+    /** Drop the new event. */
+    DROP_NEWEST;
+}
@@ -0,0 +1,524 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+/**
+ * Compact, immutable event payload. Keys and values are stored interleaved in a single flat
+ * array; small payloads are searched linearly, larger ones get an open addressing index with
+ * linear probing. Iteration order is insertion order. Unlike most immutable maps, null values
+ * are allowed, matching the maps that were used for payloads before.
+ * <p>
+ * Numbers put with {@link Builder#putInt}, {@link Builder#putLong} or {@link Builder#putDouble}
+ * are stored unboxed and can be read without boxing with {@link #getLong(String)} and
+ * {@link #getDouble(String)}. The map view boxes them on access.
+ */
+@Immutable
+public final class NessEventPayload extends AbstractMap<String, Object>
+{
+    /** Payloads up to this size are searched linearly, larger ones are indexed. */
+    static final int LINEAR_SCAN_LIMIT = 8;
+
+    /** Kinds of stored values, see {@link #kindAt(int)}. */
+    static final int KIND_OBJECT = 0;
+    static final int KIND_INT = 1;
+    static final int KIND_LONG = 2;
+    static final int KIND_DOUBLE = 3;
+
+    /** Stored in place of unboxed values, the value itself is in the primitives array. */
+    private static final Object INT_VALUE = new Object();
+    private static final Object LONG_VALUE = new Object();
+    private static final Object DOUBLE_VALUE = new Object();
+
+    private static final Object [] NO_ENTRIES = new Object[0];
+
+    public static final NessEventPayload EMPTY = new NessEventPayload(NO_ENTRIES, null, 0);
+
+    /** Keys at even, values at odd positions. */
+    private final Object [] entries;
+    private final int size;
+
+    /** Unboxed values by entry position (doubles as raw bits), null if there are none. */
+    private final long [] primitives;
+
+    /** Open addressing table holding entry position + 1, null for small payloads. */
+    private final int [] index;
+
+    private transient Set<Map.Entry<String, Object>> entrySet = null;
+
+    private NessEventPayload(final Object [] entries, final long [] primitives, final int size)
+    {
+        this.entries = entries;
+        this.primitives = primitives;
+        this.size = size;
+        this.index = (size > LINEAR_SCAN_LIMIT) ? buildIndex(entries, size) : null;
+    }
+
+    /**
+     * Returns an immutable payload with the entries of the given map. Returns the map itself
+     * if it already is a payload.
+     */
+    @Nonnull
+    public static NessEventPayload copyOf(@Nullable final Map<String, ? extends Object> map)
+    {
+        if (map == null || map.isEmpty()) {
+            return EMPTY;
+        }
+        if (map instanceof NessEventPayload) {
+            return (NessEventPayload) map;
+        }
+
+        final Object [] entries = new Object[map.size() << 1];
+        int pos = 0;
+        for (final Map.Entry<String, ? extends Object> entry : map.entrySet()) {
+            entries[pos++] = entry.getKey();
+            entries[pos++] = entry.getValue();
+        }
+        return new NessEventPayload(entries, null, pos >> 1);
+    }
+
+    @Nonnull
+    public static Builder builder()
+    {
+        return new Builder(4);
+    }
+
+    @Nonnull
+    public static Builder builder(final int expectedSize)
+    {
+        return new Builder(expectedSize);
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    @Override
+    public boolean containsKey(@Nullable final Object key)
+    {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    @CheckForNull
+    public Object get(@Nullable final Object key)
+    {
+        final int i = indexOf(key);
+        return (i < 0) ? null : valueAt(i);
+    }
+
+    /**
+     * Returns a numeric value as long, without boxing if it is stored unboxed. Doubles are truncated.
+     *
+     * @throws IllegalArgumentException if there is no value for the key or it is not a number.
+     */
+    public long getLong(@Nullable final String key)
+    {
+        final int i = numberIndexOf(key);
+        switch (kindAt(i)) {
+            case KIND_INT:
+            case KIND_LONG:
+                return longAt(i);
+            case KIND_DOUBLE:
+                return (long) doubleAt(i);
+            default:
+                return ((Number) entries[(i << 1) + 1]).longValue();
+        }
+    }
+
+    /**
+     * Returns a numeric value as long, or the default if there is no value for the key.
+     *
+     * @throws IllegalArgumentException if the value is not a number.
+     */
+    public long getLong(@Nullable final String key, final long defaultValue)
+    {
+        return hasValue(key) ? getLong(key) : defaultValue;
+    }
+
+    /**
+     * Returns a numeric value as double, without boxing if it is stored unboxed.
+     *
+     * @throws IllegalArgumentException if there is no value for the key or it is not a number.
+     */
+    public double getDouble(@Nullable final String key)
+    {
+        final int i = numberIndexOf(key);
+        switch (kindAt(i)) {
+            case KIND_INT:
+            case KIND_LONG:
+                return longAt(i);
+            case KIND_DOUBLE:
+                return doubleAt(i);
+            default:
+                return ((Number) entries[(i << 1) + 1]).doubleValue();
+        }
+    }
+
+    /**
+     * Returns a numeric value as double, or the default if there is no value for the key.
+     *
+     * @throws IllegalArgumentException if the value is not a number.
+     */
+    public double getDouble(@Nullable final String key, final double defaultValue)
+    {
+        return hasValue(key) ? getDouble(key) : defaultValue;
+    }
+
+    private boolean hasValue(final String key)
+    {
+        final int i = indexOf(key);
+        return i >= 0 && entries[(i << 1) + 1] != null;
+    }
+
+    private int numberIndexOf(final String key)
+    {
+        final int i = indexOf(key);
+        Preconditions.checkArgument(i >= 0 && entries[(i << 1) + 1] != null, "no value for %s", key);
+        Preconditions.checkArgument(kindAt(i) != KIND_OBJECT || entries[(i << 1) + 1] instanceof Number, "value for %s is not a number", key);
+        return i;
+    }
+
+    /**
+     * Returns the key of the entry at the given position.
+     */
+    String keyAt(final int i)
+    {
+        return (String) entries[i << 1];
+    }
+
+    /**
+     * Returns how the value at the given position is stored. Only {@link #KIND_OBJECT} values may
+     * be read with {@link #valueAt(int)} without boxing.
+     */
+    int kindAt(final int i)
+    {
+        final Object value = entries[(i << 1) + 1];
+        return (value == INT_VALUE) ? KIND_INT : (value == LONG_VALUE) ? KIND_LONG : (value == DOUBLE_VALUE) ? KIND_DOUBLE : KIND_OBJECT;
+    }
+
+    long longAt(final int i)
+    {
+        return primitives[i];
+    }
+
+    double doubleAt(final int i)
+    {
+        return Double.longBitsToDouble(primitives[i]);
+    }
+
+    /**
+     * Returns the value at the given position, boxing it if it is stored unboxed.
+     */
+    Object valueAt(final int i)
+    {
+        switch (kindAt(i)) {
+            case KIND_INT:
+                return Integer.valueOf((int) primitives[i]);
+            case KIND_LONG:
+                return Long.valueOf(primitives[i]);
+            case KIND_DOUBLE:
+                return Double.valueOf(doubleAt(i));
+            default:
+                return entries[(i << 1) + 1];
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet()
+    {
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+
+    private int indexOf(final Object key)
+    {
+        if (index == null) {
+            for (int i = 0; i < size; i++) {
+                final Object entryKey = entries[i << 1];
+                if (entryKey == key || (key != null && key.equals(entryKey))) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        final int mask = index.length - 1;
+        for (int slot = hash(key) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+            final int i = index[slot] - 1;
+            final Object entryKey = entries[i << 1];
+            if (entryKey == key || (key != null && key.equals(entryKey))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int [] buildIndex(final Object [] entries, final int size)
+    {
+        // Load factor of at most 0.5.
+        final int [] index = new int[Integer.highestOneBit(size) << 2];
+        final int mask = index.length - 1;
+
+        for (int i = 0; i < size; i++) {
+            int slot = hash(entries[i << 1]) & mask;
+            while (index[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            index[slot] = i + 1;
+        }
+        return index;
+    }
+
+    private static int hash(final Object key)
+    {
+        if (key == null) {
+            return 0;
+        }
+        final int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<String, Object>>
+    {
+        @Override
+        public int size()
+        {
+            return size;
+        }
+
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator()
+        {
+            return new Iterator<Map.Entry<String, Object>>() {
+                private int pos = 0;
+
+                @Override
+                public boolean hasNext()
+                {
+                    return pos < size;
+                }
+
+                @Override
+                public Map.Entry<String, Object> next()
+                {
+                    if (pos >= size) {
+                        throw new NoSuchElementException();
+                    }
+                    final int i = pos++;
+                    return Maps.immutableEntry(keyAt(i), valueAt(i));
+                }
+
+                @Override
+                public void remove()
+                {
+                    throw new UnsupportedOperationException("payload is immutable!");
+                }
+            };
+        }
+    }
+
+    /**
+     * Collects payload entries. Putting a key twice replaces the earlier value.
+     */
+    public static final class Builder
+    {
+        private Object [] entries;
+        private long [] primitives = null;
+        private int size = 0;
+
+        /** Positions of the keys, only used once the builder exceeds the linear scan limit. */
+        private Map<Object, Integer> positions = null;
+
+        private Builder(final int expectedSize)
+        {
+            this.entries = new Object[Math.max(expectedSize, 1) << 1];
+        }
+
+        @Nonnull
+        public Builder put(@Nullable final String key, @Nullable final Object value)
+        {
+            final int i = position(key);
+            entries[(i << 1) + 1] = value;
+            return this;
+        }
+
+        /**
+         * Add an int value that is stored unboxed. It reads back as {@link Integer} from the map view.
+         */
+        @Nonnull
+        public Builder putInt(@Nullable final String key, final int value)
+        {
+            return putPrimitive(key, INT_VALUE, value);
+        }
+
+        /**
+         * Add a long value that is stored unboxed. It reads back as {@link Long} from the map view.
+         */
+        @Nonnull
+        public Builder putLong(@Nullable final String key, final long value)
+        {
+            return putPrimitive(key, LONG_VALUE, value);
+        }
+
+        /**
+         * Add a double value that is stored unboxed. It reads back as {@link Double} from the map view.
+         */
+        @Nonnull
+        public Builder putDouble(@Nullable final String key, final double value)
+        {
+            return putPrimitive(key, DOUBLE_VALUE, Double.doubleToRawLongBits(value));
+        }
+
+        private Builder putPrimitive(final String key, final Object marker, final long value)
+        {
+            final int i = position(key);
+            if (primitives == null) {
+                primitives = new long[entries.length >> 1];
+            }
+            entries[(i << 1) + 1] = marker;
+            primitives[i] = value;
+            return this;
+        }
+
+        /**
+         * Returns the position of the key, adding it if it is new.
+         */
+        private int position(final String key)
+        {
+            final int existing = find(key);
+            if (existing >= 0) {
+                return existing;
+            }
+
+            if ((size << 1) == entries.length) {
+                entries = Arrays.copyOf(entries, entries.length << 1);
+                if (primitives != null) {
+                    primitives = Arrays.copyOf(primitives, entries.length >> 1);
+                }
+            }
+            entries[size << 1] = key;
+            if (positions != null) {
+                positions.put(key, size);
+            }
+            return size++;
+        }
+
+        /**
+         * Add all entries of a map. Integer, Long and Double values are stored unboxed.
+         */
+        @Nonnull
+        public Builder putAll(@Nonnull final Map<String, ? extends Object> map)
+        {
+            if (map instanceof NessEventPayload) {
+                final NessEventPayload payload = (NessEventPayload) map;
+                for (int i = 0; i < payload.size(); i++) {
+                    switch (payload.kindAt(i)) {
+                        case KIND_INT:
+                            putInt(payload.keyAt(i), (int) payload.longAt(i));
+                            break;
+                        case KIND_LONG:
+                            putLong(payload.keyAt(i), payload.longAt(i));
+                            break;
+                        case KIND_DOUBLE:
+                            putDouble(payload.keyAt(i), payload.doubleAt(i));
+                            break;
+                        default:
+                            putValue(payload.keyAt(i), payload.valueAt(i));
+                            break;
+                    }
+                }
+            }
+            else {
+                for (final Map.Entry<String, ? extends Object> entry : map.entrySet()) {
+                    putValue(entry.getKey(), entry.getValue());
+                }
+            }
+            return this;
+        }
+
+        private void putValue(final String key, final Object value)
+        {
+            if (value instanceof Integer) {
+                putInt(key, ((Integer) value).intValue());
+            }
+            else if (value instanceof Long) {
+                putLong(key, ((Long) value).longValue());
+            }
+            else if (value instanceof Double) {
+                putDouble(key, ((Double) value).doubleValue());
+            }
+            else {
+                put(key, value);
+            }
+        }
+
+        @Nonnull
+        public NessEventPayload build()
+        {
+            return (size == 0) ? EMPTY : new NessEventPayload(Arrays.copyOf(entries, size << 1), (primitives == null) ? null : Arrays.copyOf(primitives, size), size);
+        }
+
+        private int find(final String key)
+        {
+            if (positions == null) {
+                for (int i = 0; i < size; i++) {
+                    final Object entryKey = entries[i << 1];
+                    if (entryKey == key || (key != null && key.equals(entryKey))) {
+                        return i;
+                    }
+                }
+                if (size < LINEAR_SCAN_LIMIT) {
+                    return -1;
+                }
+
+                positions = Maps.newHashMapWithExpectedSize(size << 1);
+                for (int i = 0; i < size; i++) {
+                    positions.put(entries[i << 1], i);
+                }
+                return -1;
+            }
+
+            final Integer position = positions.get(key);
+            return (position == null) ? -1 : position;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.Arrays;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Binds event types to payload classes. The payload of a received event whose type has a
+ * payload class is decoded straight from the received JSON into that class on first access
+ * through {@link NessEvent#getPayload(Class)}, without building a map first. Fields the
+ * class does not know are ignored; {@link NessEvent#getPayload()} still returns all of
+ * them. Like event types, the bindings are process-wide.
+ */
+public final class NessEventPayloadSchemas
+{
+    private static final Class<?> [] NO_CLASSES = new Class<?>[0];
+
+    /** Payload classes by type ordinal, replaced on every registration. */
+    private static volatile Class<?> [] payloadClasses = NO_CLASSES;
+
+    private NessEventPayloadSchemas()
+    {
+    }
+
+    /**
+     * Bind a payload class to an event type. The class must be deserializable by the mapper
+     * used by the event receivers.
+     *
+     * @throws IllegalStateException if a different class is already bound to the type.
+     */
+    public static synchronized void register(@Nonnull final NessEventType eventType, @Nonnull final Class<?> payloadClass)
+    {
+        Preconditions.checkArgument(eventType != null, "event type must not be null!");
+        Preconditions.checkArgument(payloadClass != null, "payload class must not be null!");
+
+        final int ordinal = eventType.getOrdinal();
+        final Class<?> [] oldClasses = payloadClasses;
+        if (ordinal < oldClasses.length && oldClasses[ordinal] != null) {
+            Preconditions.checkState(oldClasses[ordinal] == payloadClass, "event type %s is already bound to %s", eventType.getName(), oldClasses[ordinal]);
+            return;
+        }
+
+        final Class<?> [] newClasses = Arrays.copyOf(oldClasses, Math.max(oldClasses.length, ordinal + 1));
+        newClasses[ordinal] = payloadClass;
+        payloadClasses = newClasses;
+    }
+
+    /**
+     * Returns the payload class bound to an event type, or null.
+     */
+    @CheckForNull
+    public static Class<?> getPayloadClass(@Nonnull final NessEventType eventType)
+    {
+        final Class<?> [] classes = payloadClasses;
+        final int ordinal = eventType.getOrdinal();
+        return (ordinal < classes.length) ? classes[ordinal] : null;
+    }
+}
@@ -17,32 +17,93 @@ package com.nesscomputing.event;
 
 import static com.nesscomputing.event.NessEventModule.EVENT_NAME;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 
+import com.nesscomputing.lifecycle.LifecycleStage;
+import com.nesscomputing.lifecycle.guice.OnStage;
 import com.nesscomputing.logging.Log;
 
+/**
+ * Sends events to the configured transports. By default, every transport is called in turn on
+ * the sending thread. With <tt>ness.event.sender.async</tt>, events are handed to a bounded
+ * queue per transport instead and transmitted by a worker thread per transport, so the sending
+ * thread never waits for a transport.
+ * <p>
+ * Event types can be routed to a subset of the transports with <tt>ness.event.route.&lt;TYPE&gt;</tt>
+ * (see {@link EventTransportRoutes}). Routes are resolved once per event type. Transmitters
+ * added without a name through {@link #addEventTransmitter(NessEventTransmitter)} get all events.
+ * <p>
+ * Bursty event types can be coalesced with <tt>ness.event.coalesce.&lt;TYPE&gt;=first|last</tt>. Only
+ * the first or last event of a type and user within {@link NessEventConfig#getSenderCoalesceWindow()}
+ * is sent, at the end of the window.
+ * <p>
+ * Event types can be rate limited and sampled, see {@link #setRateLimit(NessEventType, double)} and
+ * {@link #setSampleRate(NessEventType, double)}. Events dropped that way are counted per type.
+ */
 @Singleton
 public class NessEventSender
 {
     private static final Log LOG = Log.findLog();
 
+    /**
+     * Payload key of a coalesced event that holds the number of events merged into it.
+     */
+    public static final String COALESCED_EVENTS_KEY = "coalesced-events";
+
+    private static final NessEventTransmitter [][] NO_ROUTES = new NessEventTransmitter[0][];
+
     private final NessEventConfig eventConfig;
 
     private final Set<NessEventTransmitter> eventTransmitters = Sets.newHashSet();
 
+    /**
+     * What events are actually handed to: the transmitters themselves, or their handoff queues
+     * for an asynchronous sender. In the order they were added.
+     */
+    private final List<NessEventTransmitter> channels = Lists.newArrayList();
+    private final Map<String, NessEventTransmitter> namedChannels = Maps.newHashMap();
+    private final Set<NessEventTransmitter> unnamedChannels = Sets.newHashSet();
+
+    /** Handoff queues by transport, only used by an asynchronous sender. */
+    private final Map<NessEventTransmitter, EventQueueWorker> transmitterWorkers = Maps.newHashMap();
+    private volatile EventQueueWorker [] queueWorkers = new EventQueueWorker[0];
+
+    private EventTransportRoutes routes = EventTransportRoutes.NONE;
+
+    /** Resolved channels by event type ordinal, null for types not seen yet. */
+    private volatile NessEventTransmitter [][] channelsByOrdinal = NO_ROUTES;
+
+    private volatile EventCoalescer coalescer = null;
+    private ScheduledExecutorService coalesceExecutor = null;
+
+    private volatile EventAdmission admission;
+
+    private final AtomicBoolean stopped = new AtomicBoolean(false);
+
     @Inject
     public NessEventSender(@Nullable final NessEventConfig eventConfig)
     {
         this.eventConfig = eventConfig;
+        this.admission = (eventConfig == null) ? new EventAdmission(false, 0.5) : new EventAdmission(eventConfig.isAdaptiveSampling(), eventConfig.getAdaptiveSamplingThreshold());
     }
 
     @Inject(optional=true)
@@ -53,7 +114,7 @@ public class NessEventSender
 
             for (int i = 0; i < transports.length; i++) {
                 if (availableTransmitters.containsKey(transports[i])) {
-                    addEventTransmitter(availableTransmitters.get(transports[i]));
+                    addEventTransmitter(transports[i], availableTransmitters.get(transports[i]));
                     LOG.trace("Added %s as an event transport.", transports[i]);
                 }
                 else {
@@ -66,12 +127,126 @@ public class NessEventSender
         }
     }
 
+    @Inject(optional=true)
+    synchronized void injectRoutes(final EventTransportRoutes routes)
+    {
+        this.routes = routes;
+        channelsByOrdinal = NO_ROUTES;
+    }
+
+    @Inject(optional=true)
+    void injectAdmission(final EventAdmission admission)
+    {
+        this.admission = admission;
+    }
+
+    @Inject(optional=true)
+    synchronized void injectCoalescing(final EventCoalescing coalescing)
+    {
+        if (coalescing.isEmpty() || coalescer != null) {
+            return;
+        }
+
+        coalesceExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("ness-event-coalescer").setDaemon(true).build());
+        coalescer = new EventCoalescer(coalescing, new NessEventTransmitter() {
+            @Override
+            public void transmit(@Nonnull final NessEvent event)
+            {
+                send(event);
+            }
+        }, coalesceExecutor);
+    }
+
     /**
      * Add a new transmitter to this sender.
      */
     public void addEventTransmitter(final NessEventTransmitter eventTransmitter)
     {
-        this.eventTransmitters.add(eventTransmitter);
+        addEventTransmitter(null, eventTransmitter);
+    }
+
+    private synchronized void addEventTransmitter(@Nullable final String transport, final NessEventTransmitter eventTransmitter)
+    {
+        if (!this.eventTransmitters.add(eventTransmitter)) {
+            return;
+        }
+
+        final NessEventTransmitter channel;
+        if (eventConfig == null || !eventConfig.isSenderAsync()) {
+            channel = eventTransmitter;
+        }
+        else {
+            final EventQueueWorker worker = new EventQueueWorker("ness-event-sender-" + eventTransmitter.getClass().getSimpleName(),
+                                                                 eventConfig.getSenderQueueSize(),
+                                                                 eventConfig.getSenderOverflowPolicy()) {
+                @Override
+                protected void process(@Nonnull final NessEvent event)
+                {
+                    eventTransmitter.transmit(event);
+                }
+
+                @Override
+                protected void process(@Nonnull final List<NessEvent> events)
+                {
+                    ((NessEventBatchTransmitter) eventTransmitter).transmitAll(events);
+                }
+
+                @Override
+                protected int getMaxBatchSize()
+                {
+                    return (eventTransmitter instanceof NessEventBatchTransmitter) ? eventConfig.getBatchMaxSize() : 1;
+                }
+            };
+            worker.start();
+            transmitterWorkers.put(eventTransmitter, worker);
+            queueWorkers = transmitterWorkers.values().toArray(new EventQueueWorker[transmitterWorkers.size()]);
+            channel = new QueuedTransmitter(worker);
+        }
+
+        channels.add(channel);
+        if (transport == null) {
+            unnamedChannels.add(channel);
+        }
+        else {
+            namedChannels.put(transport, channel);
+        }
+        channelsByOrdinal = NO_ROUTES;
+    }
+
+    /**
+     * Drain all queues. Also called by the dispatcher before it stops, whatever runs first;
+     * only the first call has an effect.
+     */
+    @OnStage(LifecycleStage.STOP)
+    void stop()
+    {
+        if (!stopped.compareAndSet(false, true)) {
+            return;
+        }
+
+        final EventCoalescer coalescer = this.coalescer;
+        if (coalescer != null) {
+            // Before the queues shut down, so that the held events are drained with them.
+            coalesceExecutor.shutdownNow();
+            coalescer.flush();
+        }
+
+        if (transmitterWorkers.isEmpty()) {
+            return;
+        }
+
+        // Give the transports a chance to send what is still queued.
+        final long drainMillis = eventConfig.getSenderDrainTimeout().getMillis();
+        for (final EventQueueWorker worker : transmitterWorkers.values()) {
+            worker.shutdown(drainMillis);
+        }
+
+        final long deadline = System.currentTimeMillis() + drainMillis;
+        for (final EventQueueWorker worker : transmitterWorkers.values()) {
+            if (!worker.awaitTermination(deadline - System.currentTimeMillis())) {
+                LOG.warn("Event sender queue did not drain in %dms, remaining events are dropped.", drainMillis);
+            }
+        }
     }
 
     /**
@@ -79,8 +254,247 @@ public class NessEventSender
      */
     public void enqueue(@Nonnull NessEvent event)
     {
-        for (NessEventTransmitter transport : eventTransmitters) {
-            transport.transmit(event);
+        if (!admit(event)) {
+            return;
+        }
+
+        final EventCoalescer coalescer = this.coalescer;
+        if (coalescer == null || !coalescer.offer(event)) {
+            send(event);
+        }
+    }
+
+    private void send(final NessEvent event)
+    {
+        final NessEventTransmitter [] targets = getChannels(event.getType());
+        for (int i = 0; i < targets.length; i++) {
+            targets[i].transmit(event);
+        }
+    }
+
+    /**
+     * Enqueue many events into the messaging system, in order. Transmitters that implement
+     * {@link NessEventBatchTransmitter} get all of their events in one call.
+     */
+    public void enqueueAll(@Nonnull final Collection<NessEvent> events)
+    {
+        final EventCoalescer coalescer = this.coalescer;
+
+        final Map<NessEventTransmitter, List<NessEvent>> batches = Maps.newLinkedHashMap();
+        for (final NessEvent event : events) {
+            if (!admit(event) || (coalescer != null && coalescer.offer(event))) {
+                continue;
+            }
+            final NessEventTransmitter [] targets = getChannels(event.getType());
+            for (int i = 0; i < targets.length; i++) {
+                List<NessEvent> batch = batches.get(targets[i]);
+                if (batch == null) {
+                    batch = Lists.newArrayListWithCapacity(events.size());
+                    batches.put(targets[i], batch);
+                }
+                batch.add(event);
+            }
+        }
+
+        for (final Map.Entry<NessEventTransmitter, List<NessEvent>> batch : batches.entrySet()) {
+            final NessEventTransmitter transport = batch.getKey();
+            if (transport instanceof NessEventBatchTransmitter) {
+                ((NessEventBatchTransmitter) transport).transmitAll(batch.getValue());
+            }
+            else {
+                for (final NessEvent event : batch.getValue()) {
+                    transport.transmit(event);
+                }
+            }
+        }
+    }
+
+    private boolean admit(final NessEvent event)
+    {
+        final EventAdmission admission = this.admission;
+        final EventAdmission.TypePolicy policy = admission.getPolicy(event.getType());
+        return policy == null || policy.admit((policy.isSampled() && admission.isAdaptiveSampling()) ? getQueueFill() : 0.0);
+    }
+
+    /**
+     * Returns the fill level of the fullest transport queue, from 0 to 1.
+     */
+    private double getQueueFill()
+    {
+        final EventQueueWorker [] workers = queueWorkers;
+        if (workers.length == 0) {
+            return 0.0;
+        }
+
+        int maxDepth = 0;
+        for (int i = 0; i < workers.length; i++) {
+            maxDepth = Math.max(maxDepth, workers[i].getQueueDepth());
+        }
+        return Math.min(1.0, (double) maxDepth / eventConfig.getSenderQueueSize());
+    }
+
+    private NessEventTransmitter [] getChannels(final NessEventType eventType)
+    {
+        final NessEventTransmitter [][] resolved = channelsByOrdinal;
+        final int ordinal = eventType.getOrdinal();
+        if (ordinal < resolved.length && resolved[ordinal] != null) {
+            return resolved[ordinal];
+        }
+        return resolveChannels(eventType);
+    }
+
+    private synchronized NessEventTransmitter [] resolveChannels(final NessEventType eventType)
+    {
+        final List<String> transports = routes.getTransports(eventType);
+
+        final List<NessEventTransmitter> targets = Lists.newArrayList();
+        for (final NessEventTransmitter channel : channels) {
+            if (transports == null || unnamedChannels.contains(channel)) {
+                targets.add(channel);
+            }
+        }
+        if (transports != null) {
+            for (final String transport : transports) {
+                final NessEventTransmitter channel = namedChannels.get(transport);
+                if (channel == null) {
+                    LOG.warn("Events of type %s are routed to transport %s, which is not available!", eventType, transport);
+                }
+                else if (!targets.contains(channel)) {
+                    targets.add(channel);
+                }
+            }
+            LOG.debug("Routing events of type %s to %s", eventType, transports);
+        }
+
+        final NessEventTransmitter [] result = targets.toArray(new NessEventTransmitter[targets.size()]);
+        final int ordinal = eventType.getOrdinal();
+        final NessEventTransmitter [][] resolved = Arrays.copyOf(channelsByOrdinal, Math.max(channelsByOrdinal.length, Math.max(ordinal + 1, NessEventType.getRegisteredTypeCount())));
+        resolved[ordinal] = result;
+        channelsByOrdinal = resolved;
+        return result;
+    }
+
+    /**
+     * Returns the number of events waiting for each transport. Empty unless the sender is asynchronous.
+     */
+    public Map<NessEventTransmitter, Integer> getQueueDepths()
+    {
+        final ImmutableMap.Builder<NessEventTransmitter, Integer> builder = ImmutableMap.builder();
+        for (final Map.Entry<NessEventTransmitter, EventQueueWorker> entry : transmitterWorkers.entrySet()) {
+            builder.put(entry.getKey(), entry.getValue().getQueueDepth());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the number of events dropped because a transport queue was full.
+     */
+    public long getDroppedEventCount()
+    {
+        long droppedEvents = 0L;
+        for (final EventQueueWorker worker : transmitterWorkers.values()) {
+            droppedEvents += worker.getDroppedEventCount();
+        }
+        return droppedEvents;
+    }
+
+    /**
+     * Limit the number of events of a type that are sent per second. Up to one second worth
+     * of events can be sent in a burst. Replaces the limit from <tt>ness.event.rate-limit.&lt;TYPE&gt;</tt>.
+     */
+    public void setRateLimit(@Nonnull final NessEventType eventType, final double eventsPerSecond)
+    {
+        admission.setRateLimit(eventType, eventsPerSecond);
+    }
+
+    public void removeRateLimit(@Nonnull final NessEventType eventType)
+    {
+        admission.removeRateLimit(eventType);
+    }
+
+    /**
+     * Send only the given fraction, from 0 to 1, of the events of a type. Replaces the sample rate
+     * from <tt>ness.event.sample.&lt;TYPE&gt;</tt>.
+     */
+    public void setSampleRate(@Nonnull final NessEventType eventType, final double sampleRate)
+    {
+        admission.setSampleRate(eventType, sampleRate);
+    }
+
+    public void removeSampleRate(@Nonnull final NessEventType eventType)
+    {
+        admission.removeSampleRate(eventType);
+    }
+
+    /**
+     * Returns the number of events dropped by rate limits, by event type.
+     */
+    public Map<NessEventType, Long> getRateLimitedEventCounts()
+    {
+        return admission.getRateLimitedEventCounts();
+    }
+
+    /**
+     * Returns the number of events dropped by sampling, by event type. Together with the number
+     * of events received, this allows re-weighting sampled events.
+     */
+    public Map<NessEventType, Long> getSampledEventCounts()
+    {
+        return admission.getSampledEventCounts();
+    }
+
+    public long getRateLimitedEventCount()
+    {
+        long count = 0L;
+        for (final Long typeCount : getRateLimitedEventCounts().values()) {
+            count += typeCount;
+        }
+        return count;
+    }
+
+    public long getSampledEventCount()
+    {
+        long count = 0L;
+        for (final Long typeCount : getSampledEventCounts().values()) {
+            count += typeCount;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of events that were merged into other events by coalescing.
+     */
+    public long getCoalescedEventCount()
+    {
+        final EventCoalescer coalescer = this.coalescer;
+        return (coalescer == null) ? 0L : coalescer.getCoalescedEventCount();
+    }
+
+    /**
+     * Hands events to the queue of an asynchronous transport. The queue worker passes queued
+     * events on to batch transmitters in batches.
+     */
+    private static final class QueuedTransmitter implements NessEventBatchTransmitter
+    {
+        private final EventQueueWorker worker;
+
+        QueuedTransmitter(final EventQueueWorker worker)
+        {
+            this.worker = worker;
+        }
+
+        @Override
+        public void transmit(@Nonnull final NessEvent event)
+        {
+            worker.offer(event);
+        }
+
+        @Override
+        public void transmitAll(@Nonnull final Collection<NessEvent> events)
+        {
+            for (final NessEvent event : events) {
+                worker.offer(event);
+            }
         }
     }
 }
@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+/**
+ * Writes an event field by field. Payload values other than JSON primitives are handed to
+ * the serializer provider, so modules registered on the mapper still apply to them.
+ */
+final class NessEventSerializer extends StdSerializer<NessEvent>
+{
+    NessEventSerializer()
+    {
+        super(NessEvent.class);
+    }
+
+    @Override
+    public void serialize(final NessEvent event, final JsonGenerator jgen, final SerializerProvider provider) throws IOException
+    {
+        jgen.writeStartObject();
+        jgen.writeNumberField("v", event.getVersion());
+        jgen.writeStringField("id", event.getId().toString());
+
+        final UUID user = event.getUser();
+        if (user == null) {
+            jgen.writeNullField("user");
+        }
+        else {
+            jgen.writeStringField("user", user.toString());
+        }
+
+        jgen.writeNumberField("timestamp", event.getTimestampMillis());
+        jgen.writeStringField("type", event.getType().getName());
+
+        jgen.writeFieldName("payload");
+        jgen.writeStartObject();
+        final Map<String, ? extends Object> payload = event.getPayload();
+        if (payload instanceof NessEventPayload) {
+            writePayload((NessEventPayload) payload, jgen, provider);
+        }
+        else {
+            for (final Map.Entry<String, ? extends Object> entry : payload.entrySet()) {
+                writeField(entry.getKey(), entry.getValue(), jgen, provider);
+            }
+        }
+        jgen.writeEndObject();
+
+        jgen.writeEndObject();
+    }
+
+    /**
+     * Writes unboxed payload values without boxing them.
+     */
+    private static void writePayload(final NessEventPayload payload, final JsonGenerator jgen, final SerializerProvider provider) throws IOException
+    {
+        final int size = payload.size();
+        for (int i = 0; i < size; i++) {
+            switch (payload.kindAt(i)) {
+                case NessEventPayload.KIND_INT:
+                case NessEventPayload.KIND_LONG:
+                    jgen.writeNumberField(checkKey(payload.keyAt(i)), payload.longAt(i));
+                    break;
+                case NessEventPayload.KIND_DOUBLE:
+                    jgen.writeNumberField(checkKey(payload.keyAt(i)), payload.doubleAt(i));
+                    break;
+                default:
+                    writeField(payload.keyAt(i), payload.valueAt(i), jgen, provider);
+                    break;
+            }
+        }
+    }
+
+    private static void writeField(final String key, final Object value, final JsonGenerator jgen, final SerializerProvider provider) throws IOException
+    {
+        checkKey(key);
+        if (value == null) {
+            jgen.writeNullField(key);
+        }
+        else if (value instanceof String) {
+            jgen.writeStringField(key, (String) value);
+        }
+        else if (value instanceof Integer) {
+            jgen.writeNumberField(key, ((Integer) value).intValue());
+        }
+        else if (value instanceof Long) {
+            jgen.writeNumberField(key, ((Long) value).longValue());
+        }
+        else if (value instanceof Double) {
+            jgen.writeNumberField(key, ((Double) value).doubleValue());
+        }
+        else if (value instanceof Boolean) {
+            jgen.writeBooleanField(key, ((Boolean) value).booleanValue());
+        }
+        else {
+            provider.defaultSerializeField(key, value, jgen);
+        }
+    }
+
+    private static String checkKey(final String key) throws JsonMappingException
+    {
+        if (key == null) {
+            throw new JsonMappingException("Null key for a Map not allowed in JSON");
+        }
+        return key;
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+/**
+ * Attaches and detaches event receivers at runtime, e.g. for debugging taps or short-lived
+ * listeners. Both calls are safe while events are being dispatched; dispatch itself never
+ * blocks on them.
+ */
+public interface NessEventSubscriptions
+{
+    /**
+     * Start delivering events to a receiver. Events dispatched concurrently with this call
+     * may or may not be seen by the receiver. Subscribing a receiver twice has no effect.
+     */
+    void subscribe(NessEventReceiver receiver);
+
+    /**
+     * Stop delivering events to a receiver. Events dispatched concurrently with this call
+     * may still be delivered. Unsubscribing an unknown receiver has no effect.
+     */
+    void unsubscribe(NessEventReceiver receiver);
+}
@@ -16,6 +16,8 @@
 package com.nesscomputing.event;
 
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -25,28 +27,113 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonValue;
 import com.google.common.base.Preconditions;
 
-import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 
+import com.nesscomputing.logging.Log;
 
+
+/**
+ * The type of an event. Every distinct type name is interned in a registry and gets a dense
+ * integer ordinal, so types can be compared by reference and used to index arrays and bit
+ * sets. Types are never removed from the registry.
+ * <p>
+ * Type names arrive from the wire, so the registry is bounded: only canonical (upper case)
+ * names are kept, and once {@link #MAX_REGISTERED_TYPES} types exist, further names are no
+ * longer interned. Such a type keeps its name, so it still round-trips, but it is a new instance
+ * every time and shares the ordinal of the unknown (empty) type, so it is routed like an
+ * unknown type. Compare types with {@link #equals(Object)}, not by reference.
+ */
 @Immutable
 public final class NessEventType
 {
-    private static final NessEventType UNKNOWN = new NessEventType("");
+    private static final Log LOG = Log.findLog();
+
+    /** Upper bound on the number of distinct types. */
+    static final int MAX_REGISTERED_TYPES = 10000;
+
+    /** Canonical types by canonical name. */
+    private static final ConcurrentMap<String, NessEventType> REGISTRY = new ConcurrentHashMap<String, NessEventType>();
+
+    /** Guards ordinal assignment, so that ordinals stay dense. */
+    private static final Object REGISTRY_LOCK = new Object();
+
+    private static int nextOrdinal = 0;
+    private static boolean overflowLogged = false;
+
+    /** Registration limit, only lowered by tests. */
+    static volatile int maxRegisteredTypes = MAX_REGISTERED_TYPES;
+
+    private static final NessEventType UNKNOWN = getForName("");
 
     private final String name;
+    private final int ordinal;
 
+    /**
+     * Creates a type that is equal to, but not the same instance as, the canonical type of
+     * that name. Use {@link NessEventType#getForName(String)} instead.
+     */
     NessEventType(@Nonnull final String name)
     {
         Preconditions.checkArgument(name != null, "event name can not be null!");
-        this.name = name.toUpperCase(Locale.ENGLISH);
+        final NessEventType canonical = getForName(name);
+        this.name = canonical.name;
+        this.ordinal = canonical.ordinal;
+    }
+
+    private NessEventType(@Nonnull final String name, final int ordinal)
+    {
+        this.name = name;
+        this.ordinal = ordinal;
     }
 
     @JsonCreator
     public static NessEventType getForName(@Nullable final String name)
     {
-        return (name == null) ? UNKNOWN : new NessEventType(name);
+        if (name == null) {
+            return UNKNOWN;
+        }
+
+        // Names are usually sent in canonical form, so try that before converting.
+        NessEventType eventType = REGISTRY.get(name);
+        if (eventType != null) {
+            return eventType;
+        }
+
+        final String canonicalName = name.toUpperCase(Locale.ENGLISH);
+        eventType = REGISTRY.get(canonicalName);
+        return (eventType != null) ? eventType : register(canonicalName);
+    }
+
+    private static NessEventType register(@Nonnull final String canonicalName)
+    {
+        synchronized (REGISTRY_LOCK) {
+            NessEventType eventType = REGISTRY.get(canonicalName);
+            if (eventType == null) {
+                if (nextOrdinal >= maxRegisteredTypes && UNKNOWN != null) {
+                    if (!overflowLogged) {
+                        overflowLogged = true;
+                        LOG.warn("Too many event types registered (%d), no longer interning %s and any further new types!", nextOrdinal, canonicalName);
+                    }
+                    else {
+                        LOG.trace("Not interning event type %s", canonicalName);
+                    }
+                    return new NessEventType(canonicalName, UNKNOWN.ordinal);
+                }
+                eventType = new NessEventType(canonicalName, nextOrdinal++);
+                REGISTRY.put(canonicalName, eventType);
+            }
+            return eventType;
+        }
+    }
+
+    /**
+     * Returns the number of types registered so far. All ordinals are smaller than this.
+     */
+    public static int getRegisteredTypeCount()
+    {
+        synchronized (REGISTRY_LOCK) {
+            return nextOrdinal;
+        }
     }
 
     @JsonValue
@@ -55,25 +142,33 @@ public final class NessEventType
         return name;
     }
 
+    /**
+     * Returns the dense, process-local ordinal of this type. Ordinals are assigned in
+     * registration order and differ between processes; never persist or transmit them.
+     */
+    public int getOrdinal()
+    {
+        return ordinal;
+    }
+
     @Override
     public boolean equals(final Object other)
     {
+        if (this == other) {
+            return true;
+        }
         if (!(other instanceof NessEventType)) {
             return false;
         }
-        NessEventType castOther = (NessEventType) other;
-        return new EqualsBuilder().append(name, castOther.name).isEquals();
+        final NessEventType that = (NessEventType) other;
+        // Types that were not interned share the unknown ordinal and only differ by name.
+        return ordinal == that.ordinal && (ordinal != UNKNOWN.ordinal || name.equals(that.name));
     }
 
-    private transient int hashCode;
-
     @Override
     public int hashCode()
     {
-        if (hashCode == 0) {
-            hashCode = new HashCodeBuilder().append(name).toHashCode();
-        }
-        return hashCode;
+        return (ordinal != UNKNOWN.ordinal) ? ordinal : name.hashCode();
     }
 
     private transient String toString;
@@ -86,6 +181,4 @@ public final class NessEventType
         }
         return toString;
     }
-
-
 }
@@ -22,15 +22,15 @@ public final class NessEventTypes
     }
 
     /* Client actions */
-    public static final NessEventType WAKE = new NessEventType("WAKE");
-    public static final NessEventType SEARCH = new NessEventType("SEARCH");
-    public static final NessEventType RATED = new NessEventType("RATED");
-    public static final NessEventType COMMENTED = new NessEventType("COMMENTED");
+    public static final NessEventType WAKE = NessEventType.getForName("WAKE");
+    public static final NessEventType SEARCH = NessEventType.getForName("SEARCH");
+    public static final NessEventType RATED = NessEventType.getForName("RATED");
+    public static final NessEventType COMMENTED = NessEventType.getForName("COMMENTED");
 
     /* User lifecycle */
-    public static final NessEventType USER_REGISTERED = new NessEventType("USER_REGISTERED");
-    public static final NessEventType USER_USING_UDID = new NessEventType("USER_USING_UDID");
+    public static final NessEventType USER_REGISTERED = NessEventType.getForName("USER_REGISTERED");
+    public static final NessEventType USER_USING_UDID = NessEventType.getForName("USER_USING_UDID");
 
     /* Changes to user data */
-    public static final NessEventType FRIENDSHIP_CHANGED = new NessEventType("FRIENDSHIP_CHANGED");
+    public static final NessEventType FRIENDSHIP_CHANGED = NessEventType.getForName("FRIENDSHIP_CHANGED");
 }
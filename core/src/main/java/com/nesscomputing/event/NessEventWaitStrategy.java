@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+/**
+ * How the threads of the ring buffer dispatcher wait for events or for free slots.
+ */
+public enum NessEventWaitStrategy
+{
+    /** Spin on the CPU. Lowest latency, burns a core per waiting thread. */
+    BUSY_SPIN,
+
+    /** Yield the CPU between checks. */
+    YIELD,
+
+    /**
+     * Park the thread for a short, growing time between checks. Idle consumers then sleep until
+     * an event is published. Highest latency, least CPU.
+     */
+    PARK;
+}
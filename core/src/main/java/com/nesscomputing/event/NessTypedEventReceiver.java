@@ -0,0 +1,35 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+/**
+ * An event receiver that declares the event types it is interested in. The dispatcher
+ * only offers events of these types to the receiver, so {@link #accept(NessEvent)} is
+ * never called for any other event type.
+ */
+public interface NessTypedEventReceiver extends NessEventReceiver
+{
+    /**
+     * Returns the event types this receiver subscribes to. Called once when the receiver
+     * is registered with the dispatcher.
+     */
+    @Nonnull
+    Set<NessEventType> getEventTypes();
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Endpoint that queues events for its receiver and calls it from a dedicated worker thread.
+ */
+class QueuedReceiverEndpoint extends ReceiverEndpoint
+{
+    private final EventQueueWorker worker;
+
+    QueuedReceiverEndpoint(@Nonnull final NessEventReceiver receiver,
+                           @Nullable final ReceiverCircuitBreaker circuitBreaker,
+                           final int queueSize,
+                           @Nonnull final NessEventOverflowPolicy overflowPolicy,
+                           @Nonnull final EventPriorities priorities)
+    {
+        super(receiver, circuitBreaker);
+
+        this.worker = new EventQueueWorker("ness-event-receiver-" + receiver.getClass().getName(), queueSize, overflowPolicy, priorities) {
+            @Override
+            protected void process(@Nonnull final NessEvent event)
+            {
+                invoke(event);
+            }
+        };
+    }
+
+    @Override
+    void deliver(@Nonnull final NessEvent event)
+    {
+        worker.offer(event);
+    }
+
+    @Override
+    void start()
+    {
+        worker.start();
+    }
+
+    @Override
+    void shutdown()
+    {
+        worker.shutdown();
+    }
+
+    @Override
+    int getQueueDepth()
+    {
+        return worker.getQueueDepth();
+    }
+
+    @Override
+    long getDroppedEventCount()
+    {
+        return worker.getDroppedEventCount();
+    }
+}
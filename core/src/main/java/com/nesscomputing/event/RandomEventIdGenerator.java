@@ -0,0 +1,33 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.UUID;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Creates random (version 4) UUIDs. All threads share the random source of the JDK.
+ */
+public final class RandomEventIdGenerator implements NessEventIdGenerator
+{
+    @Override
+    @Nonnull
+    public UUID nextId()
+    {
+        return UUID.randomUUID();
+    }
+}
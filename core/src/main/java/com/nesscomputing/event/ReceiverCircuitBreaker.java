@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Tracks the latency of an event receiver over a sliding window of calls. The breaker
+ * opens when the 99th percentile of the window exceeds the latency threshold. While open,
+ * events are held in a bounded overflow queue or shed. After the probe interval, a single
+ * event is let through; if it completes within the threshold, the breaker closes again.
+ */
+class ReceiverCircuitBreaker
+{
+    private final long thresholdNanos;
+    private final long probeIntervalNanos;
+
+    /** The number of slow calls in a full window that still keeps the 99th percentile within the threshold. */
+    private final int allowedSlowCalls;
+
+    private final boolean [] window;
+    private int windowIndex = 0;
+    private int windowCount = 0;
+    private int slowCount = 0;
+
+    private NessEventCircuitState state = NessEventCircuitState.CLOSED;
+    private long openedAt = 0L;
+
+    private final BlockingQueue<NessEvent> overflow;
+    private final AtomicLong shedEvents = new AtomicLong(0L);
+
+    ReceiverCircuitBreaker(final long thresholdNanos, final int windowSize, final long probeIntervalNanos, final int overflowSize)
+    {
+        Preconditions.checkArgument(windowSize > 0, "window size must be positive!");
+        Preconditions.checkArgument(overflowSize >= 0, "overflow size must not be negative!");
+
+        this.thresholdNanos = thresholdNanos;
+        this.probeIntervalNanos = probeIntervalNanos;
+        this.window = new boolean[windowSize];
+        this.allowedSlowCalls = windowSize - (99 * windowSize + 99) / 100;
+        this.overflow = (overflowSize > 0) ? new ArrayBlockingQueue<NessEvent>(overflowSize) : null;
+    }
+
+    /**
+     * Returns true if the receiver may be called now.
+     */
+    synchronized boolean allowRequest()
+    {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - openedAt >= probeIntervalNanos) {
+                    state = NessEventCircuitState.HALF_OPEN;
+                    return true;
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Record the duration of a receiver call.
+     *
+     * @return true if this call was a successful probe and the breaker closed again.
+     */
+    synchronized boolean record(final long durationNanos)
+    {
+        final boolean slow = durationNanos > thresholdNanos;
+
+        switch (state) {
+            case HALF_OPEN:
+                if (slow) {
+                    open();
+                    return false;
+                }
+                state = NessEventCircuitState.CLOSED;
+                return true;
+
+            case CLOSED:
+                if (windowCount == window.length) {
+                    if (window[windowIndex]) {
+                        slowCount--;
+                    }
+                }
+                else {
+                    windowCount++;
+                }
+                window[windowIndex] = slow;
+                windowIndex = (windowIndex + 1) % window.length;
+                if (slow) {
+                    slowCount++;
+                }
+
+                if (windowCount == window.length && slowCount > allowedSlowCalls) {
+                    open();
+                }
+                return false;
+
+            default:
+                // A call that started before the breaker opened.
+                return false;
+        }
+    }
+
+    /**
+     * Hold back or shed an event that was not allowed through.
+     */
+    void divert(@Nonnull final NessEvent event)
+    {
+        if (overflow == null || !overflow.offer(event)) {
+            shedEvents.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the next held back event if the breaker is closed.
+     */
+    @CheckForNull
+    NessEvent pollOverflow()
+    {
+        return (overflow != null && getState() == NessEventCircuitState.CLOSED) ? overflow.poll() : null;
+    }
+
+    synchronized NessEventCircuitState getState()
+    {
+        return state;
+    }
+
+    long getShedEventCount()
+    {
+        return shedEvents.get();
+    }
+
+    private void open()
+    {
+        state = NessEventCircuitState.OPEN;
+        openedAt = System.nanoTime();
+
+        windowIndex = 0;
+        windowCount = 0;
+        slowCount = 0;
+    }
+}
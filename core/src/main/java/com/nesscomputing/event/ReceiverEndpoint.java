@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.BitSet;
+import java.util.Set;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableSet;
+
+import com.nesscomputing.logging.Log;
+
+/**
+ * Connects an event receiver to the dispatcher. The base endpoint delivers events
+ * synchronously on the dispatching thread.
+ */
+class ReceiverEndpoint
+{
+    private static final Log LOG = Log.findLog();
+
+    private final NessEventReceiver receiver;
+    private final Set<NessEventType> eventTypes;
+    private final BitSet eventTypeOrdinals;
+    private final ReceiverCircuitBreaker circuitBreaker;
+
+    ReceiverEndpoint(@Nonnull final NessEventReceiver receiver)
+    {
+        this(receiver, null);
+    }
+
+    ReceiverEndpoint(@Nonnull final NessEventReceiver receiver, @Nullable final ReceiverCircuitBreaker circuitBreaker)
+    {
+        this.receiver = receiver;
+        this.circuitBreaker = circuitBreaker;
+        this.eventTypes = (receiver instanceof NessTypedEventReceiver) ? ImmutableSet.copyOf(((NessTypedEventReceiver) receiver).getEventTypes()) : null;
+
+        if (eventTypes == null) {
+            this.eventTypeOrdinals = null;
+        }
+        else {
+            this.eventTypeOrdinals = new BitSet();
+            for (final NessEventType eventType : eventTypes) {
+                eventTypeOrdinals.set(eventType.getOrdinal());
+            }
+        }
+    }
+
+    NessEventReceiver getReceiver()
+    {
+        return receiver;
+    }
+
+    /**
+     * Returns the event types the receiver subscribed to, or null if it wants to see all events.
+     */
+    @CheckForNull
+    Set<NessEventType> getEventTypes()
+    {
+        return eventTypes;
+    }
+
+    /**
+     * Returns true if the receiver subscribed to events of the given type.
+     */
+    boolean subscribes(@Nonnull final NessEventType eventType)
+    {
+        return eventTypeOrdinals == null || eventTypeOrdinals.get(eventType.getOrdinal());
+    }
+
+    boolean accept(@Nonnull final NessEvent event)
+    {
+        return receiver.accept(event);
+    }
+
+    /**
+     * Hand an accepted event to the receiver.
+     */
+    void deliver(@Nonnull final NessEvent event)
+    {
+        invoke(event);
+    }
+
+    /**
+     * Call the receiver, unless its circuit breaker is open.
+     */
+    final void invoke(@Nonnull final NessEvent event)
+    {
+        if (circuitBreaker == null) {
+            call(event);
+        }
+        else if (!circuitBreaker.allowRequest()) {
+            circuitBreaker.divert(event);
+        }
+        else {
+            final long startTime = System.nanoTime();
+            call(event);
+            if (circuitBreaker.record(System.nanoTime() - startTime)) {
+                LOG.info("Receiver %s recovered, closing circuit breaker", receiver);
+                NessEvent heldEvent;
+                while ((heldEvent = circuitBreaker.pollOverflow()) != null) {
+                    invoke(heldEvent);
+                }
+            }
+            else if (circuitBreaker.getState() == NessEventCircuitState.OPEN) {
+                LOG.trace("Receiver %s is too slow, circuit breaker is open", receiver);
+            }
+        }
+    }
+
+    /**
+     * Call the receiver. Exceptions are logged and swallowed.
+     */
+    private void call(@Nonnull final NessEvent event)
+    {
+        try {
+            receiver.receive(event);
+        }
+        catch (Exception e) {
+            // don't reraise. We prefer to not disrupt event handling by other receievers
+            LOG.error(e, "Exception during event handling by %s of event %s", receiver, event);
+        }
+    }
+
+    void start()
+    {
+    }
+
+    void shutdown()
+    {
+    }
+
+    /**
+     * Returns the number of events queued for this receiver, or -1 if events are not queued.
+     */
+    int getQueueDepth()
+    {
+        return -1;
+    }
+
+    long getDroppedEventCount()
+    {
+        return 0L;
+    }
+
+    /**
+     * Returns the state of the circuit breaker, or null if the receiver is not guarded by one.
+     */
+    @CheckForNull
+    NessEventCircuitState getCircuitState()
+    {
+        return (circuitBreaker == null) ? null : circuitBreaker.getState();
+    }
+
+    long getShedEventCount()
+    {
+        return (circuitBreaker == null) ? 0L : circuitBreaker.getShedEventCount();
+    }
+
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + "[" + receiver + "]";
+    }
+}
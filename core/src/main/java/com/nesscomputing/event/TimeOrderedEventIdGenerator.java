@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.security.SecureRandom;
+import java.util.UUID;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Creates time-ordered (version 7 layout) UUIDs: 48 bits of milliseconds since the epoch, a
+ * 12 bit sequence and 62 random bits. Every thread keeps its own sequence and random
+ * generator, so no locks are taken after the first id of a thread. Ids created by the same
+ * thread are strictly increasing; ids from different threads are ordered by millisecond.
+ */
+public final class TimeOrderedEventIdGenerator implements NessEventIdGenerator
+{
+    private static final long MAX_SEQUENCE = 0xfffL;
+
+    /** Only used to seed the per-thread generators. */
+    private static final SecureRandom SEED_SOURCE = new SecureRandom();
+
+    private static final ThreadLocal<State> STATE = new ThreadLocal<State>() {
+        @Override
+        protected State initialValue()
+        {
+            synchronized (SEED_SOURCE) {
+                return new State(SEED_SOURCE.nextLong());
+            }
+        }
+    };
+
+    @Override
+    @Nonnull
+    public UUID nextId()
+    {
+        final State state = STATE.get();
+
+        long millis = System.currentTimeMillis();
+        if (millis > state.lastMillis) {
+            // Start each millisecond at a random point in the lower half, leaving room to count up.
+            state.lastMillis = millis;
+            state.sequence = state.nextRandom() & (MAX_SEQUENCE >> 1);
+        }
+        else {
+            // Same millisecond, or the clock went backwards: keep counting.
+            millis = state.lastMillis;
+            if (++state.sequence > MAX_SEQUENCE) {
+                millis = ++state.lastMillis;
+                state.sequence = 0L;
+            }
+        }
+
+        final long mostSigBits = ((millis & 0xffffffffffffL) << 16) | 0x7000L | state.sequence;
+        final long leastSigBits = (state.nextRandom() & 0x3fffffffffffffffL) | 0x8000000000000000L;
+        return new UUID(mostSigBits, leastSigBits);
+    }
+
+    private static final class State
+    {
+        private long seed;
+        private long lastMillis = Long.MIN_VALUE;
+        private long sequence = 0L;
+
+        State(final long seed)
+        {
+            this.seed = (seed == 0L) ? 0x9e3779b97f4a7c15L : seed;
+        }
+
+        /** xorshift64*. */
+        long nextRandom()
+        {
+            seed ^= seed >>> 12;
+            seed ^= seed << 25;
+            seed ^= seed >>> 27;
+            return seed * 0x2545f4914f6cdd1dL;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.joda.JodaModule;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+/**
+ * Compares serializing and deserializing events with and without {@link NessEventJacksonModule}.
+ * Not a unit test, run it from the IDE or with
+ *
+ * <pre>
+ * java -cp ... com.nesscomputing.event.NessEventJacksonBenchmark [forks] [warmup iterations] [measurement iterations]
+ * </pre>
+ *
+ * Works like a JMH average time benchmark: every benchmark runs in freshly forked JVMs
+ * (default 3), each fork runs timed warm-up iterations (default 5 x 1s) that are thrown
+ * away, then timed measurement iterations (default 10 x 1s). Results go into a sink so the
+ * JIT can not drop the work. The report is the mean over all measurement iterations of all
+ * forks, with the 99.9% confidence interval.
+ */
+public final class NessEventJacksonBenchmark
+{
+    private static final String FORK = "--fork";
+    private static final long ITERATION_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final String RESULT = "RESULT ";
+
+    /** z value for a two-sided 99.9% interval; the sample count is large enough for a normal approximation. */
+    private static final double Z_999 = 3.29;
+
+    private static final List<String> BENCHMARKS = ImmutableList.of("reflective-serialize", "streaming-serialize", "reflective-deserialize", "streaming-deserialize");
+
+    /** Keeps the results alive. */
+    public static volatile int sink;
+
+    private NessEventJacksonBenchmark()
+    {
+    }
+
+    public static void main(final String [] args) throws Exception
+    {
+        if (args.length > 0 && FORK.equals(args[0])) {
+            runFork(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+            return;
+        }
+
+        final int forks = (args.length > 0) ? Integer.parseInt(args[0]) : 3;
+        final int warmupIterations = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+        final int measurementIterations = (args.length > 2) ? Integer.parseInt(args[2]) : 10;
+
+        for (final String benchmark : BENCHMARKS) {
+            final List<Double> results = Lists.newArrayList();
+            for (int fork = 0; fork < forks; fork++) {
+                results.addAll(fork(benchmark, warmupIterations, measurementIterations));
+            }
+            report(benchmark, results);
+        }
+    }
+
+    private static List<Double> fork(final String benchmark, final int warmupIterations, final int measurementIterations) throws Exception
+    {
+        final String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        final Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), NessEventJacksonBenchmark.class.getName(),
+                                                   FORK, benchmark, Integer.toString(warmupIterations), Integer.toString(measurementIterations))
+            .redirectErrorStream(true)
+            .start();
+
+        final List<Double> results = Lists.newArrayList();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), Charsets.UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(RESULT)) {
+                    results.add(Double.parseDouble(line.substring(RESULT.length())));
+                }
+                else {
+                    System.out.println(line);
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+
+        if (process.waitFor() != 0 || results.size() != measurementIterations) {
+            throw new IllegalStateException("fork for " + benchmark + " failed");
+        }
+        return results;
+    }
+
+    private static void runFork(final String benchmark, final int warmupIterations, final int measurementIterations) throws Exception
+    {
+        final NessEvent event = NessEvent.createEvent(UUID.randomUUID(), NessEventTypes.SEARCH, ImmutableMap.<String, Object>of("searchStr", "mac and cheese",
+                                                                                                                               "udid", "wizbang",
+                                                                                                                               "lat", 43.60727603742065,
+                                                                                                                               "lon", -83.85103888690809,
+                                                                                                                               "results", 25));
+
+        final ObjectMapper mapper = createMapper(benchmark.startsWith("streaming"));
+        final boolean serialize = benchmark.endsWith("-serialize");
+        final byte [] data = mapper.writeValueAsBytes(event);
+
+        for (int i = 0; i < warmupIterations; i++) {
+            iteration(mapper, event, data, serialize);
+        }
+        for (int i = 0; i < measurementIterations; i++) {
+            System.out.println(RESULT + iteration(mapper, event, data, serialize));
+        }
+    }
+
+    /**
+     * Runs operations for one iteration time and returns the average nanoseconds per operation.
+     */
+    private static double iteration(final ObjectMapper mapper, final NessEvent event, final byte [] data, final boolean serialize) throws Exception
+    {
+        int result = 0;
+        long operations = 0;
+        final long startTime = System.nanoTime();
+        long elapsed;
+        do {
+            // Check the clock every 1000 operations only.
+            for (int i = 0; i < 1000; i++) {
+                if (serialize) {
+                    result += mapper.writeValueAsBytes(event).length;
+                }
+                else {
+                    result += mapper.readValue(data, NessEvent.class).getPayload().size();
+                }
+            }
+            operations += 1000;
+            elapsed = System.nanoTime() - startTime;
+        } while (elapsed < ITERATION_NANOS);
+
+        sink += result;
+        return (double) elapsed / operations;
+    }
+
+    private static ObjectMapper createMapper(final boolean streaming)
+    {
+        final ObjectMapper mapper = new ObjectMapper();
+        mapper.registerModule(new JodaModule());
+        if (streaming) {
+            mapper.registerModule(new NessEventJacksonModule());
+        }
+        mapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        return mapper;
+    }
+
+    private static void report(final String benchmark, final List<Double> results)
+    {
+        double sum = 0.0;
+        for (final double result : results) {
+            sum += result;
+        }
+        final double mean = sum / results.size();
+
+        double squares = 0.0;
+        for (final double result : results) {
+            squares += (result - mean) * (result - mean);
+        }
+        final double stddev = Math.sqrt(squares / Math.max(1, results.size() - 1));
+        final double error = Z_999 * stddev / Math.sqrt(results.size());
+
+        System.out.printf("%-24s %8.1f +- %6.1f ns/op (stddev %.1f, n=%d)%n", benchmark, mean, error, stddev, results.size());
+    }
+}
@@ -98,6 +98,19 @@ public class NessEventTest
         Assert.assertTrue(StringUtils.contains(serialized, "\"test\":null"));
 	}
 
+	@Test
+	public void testDeserializeTimestamps() throws IOException
+	{
+		final String numeric = "{\"id\":\"5ad87404-9c14-4edd-ae52-7c26eb472f03\",\"type\":\"SEARCH\",\"timestamp\":" + ENTRY_TIMESTAMP.getMillis() + "}";
+		Assert.assertEquals(ENTRY_TIMESTAMP.getMillis(), mapper.readValue(numeric, NessEvent.class).getTimestampMillis());
+
+		final String iso = "{\"id\":\"5ad87404-9c14-4edd-ae52-7c26eb472f03\",\"type\":\"SEARCH\",\"timestamp\":\"2011-03-03T14:41:56.279Z\"}";
+		Assert.assertEquals(ENTRY_TIMESTAMP, mapper.readValue(iso, NessEvent.class).getTimestamp());
+
+		final String serialized = mapper.writeValueAsString(NessEvent.createEvent(USER, ENTRY_TIMESTAMP, NessEventTypes.SEARCH, payload));
+		Assert.assertTrue(StringUtils.contains(serialized, "\"timestamp\":" + ENTRY_TIMESTAMP.getMillis()));
+	}
+
 	private String loadJson(String path) throws IOException
 	{
 		return IOUtils.toString(this.getClass().getResourceAsStream(path), Charsets.UTF_8);
@@ -0,0 +1,228 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.inject.Binder;
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Module;
+import com.google.inject.Stage;
+import com.nesscomputing.config.ConfigModule;
+
+public class TestAsyncEventDispatch
+{
+    private static final NessEventType TEST_EVENT_TYPE = NessEventType.getForName("TEST_EVENT");
+    private static final UUID USER = UUID.randomUUID();
+
+    @Inject
+    private NessEventDispatcher dispatcher;
+
+    @Inject
+    private NessEventDispatcherStatistics statistics;
+
+    private BlockingEventReceiver blockingReceiver;
+
+    @Before
+    public void setUp()
+    {
+        Assert.assertNull(dispatcher);
+        Assert.assertNull(statistics);
+        blockingReceiver = new BlockingEventReceiver();
+    }
+
+    @After
+    public void tearDown()
+    {
+        blockingReceiver.release();
+
+        Assert.assertNotNull(dispatcher);
+        dispatcher = null;
+
+        Assert.assertNotNull(statistics);
+        statistics = null;
+    }
+
+    @Test
+    public void testSlowReceiverDoesNotBlockOthers() throws Exception
+    {
+        final BlockingEventReceiver fastReceiver = new BlockingEventReceiver();
+        fastReceiver.release();
+
+        createInjector(fastReceiver, "ness.event.dispatch.mode", "ASYNC",
+                                     "ness.event.dispatch.queue-size", "100");
+
+        final int maxCount = 50;
+        for (int i = 0; i < maxCount; i++) {
+            dispatcher.dispatch(NessEvent.createEvent(USER, TEST_EVENT_TYPE));
+        }
+
+        Assert.assertTrue(fastReceiver.awaitCount(maxCount));
+        Assert.assertTrue(blockingReceiver.awaitEntered());
+        Assert.assertEquals(1, blockingReceiver.getEvents().size());
+
+        blockingReceiver.release();
+        Assert.assertTrue(blockingReceiver.awaitCount(maxCount));
+        Assert.assertEquals(0L, statistics.getDroppedEventCount());
+    }
+
+    @Test
+    public void testDropNewest() throws Exception
+    {
+        createInjector(null, "ness.event.dispatch.mode", "ASYNC",
+                             "ness.event.dispatch.queue-size", "2",
+                             "ness.event.dispatch.overflow-policy", "DROP_NEWEST");
+
+        final List<NessEvent> events = fillQueue(5);
+
+        Assert.assertEquals(Integer.valueOf(2), statistics.getQueueDepths().get(blockingReceiver));
+        Assert.assertEquals(2L, statistics.getDroppedEventCount());
+
+        blockingReceiver.release();
+        Assert.assertTrue(blockingReceiver.awaitCount(3));
+        Assert.assertEquals(events.subList(0, 3), blockingReceiver.getEvents());
+    }
+
+    @Test
+    public void testDropOldest() throws Exception
+    {
+        createInjector(null, "ness.event.dispatch.mode", "ASYNC",
+                             "ness.event.dispatch.queue-size", "2",
+                             "ness.event.dispatch.overflow-policy", "DROP_OLDEST");
+
+        final List<NessEvent> events = fillQueue(5);
+
+        Assert.assertEquals(Integer.valueOf(2), statistics.getQueueDepths().get(blockingReceiver));
+        Assert.assertEquals(2L, statistics.getDroppedEventCount());
+
+        blockingReceiver.release();
+        Assert.assertTrue(blockingReceiver.awaitCount(3));
+        Assert.assertEquals(events.get(0), blockingReceiver.getEvents().get(0));
+        Assert.assertEquals(events.subList(3, 5), blockingReceiver.getEvents().subList(1, 3));
+    }
+
+    @Test
+    public void testSyncHasNoQueues()
+    {
+        blockingReceiver.release();
+        createInjector(null);
+
+        dispatcher.dispatch(NessEvent.createEvent(USER, TEST_EVENT_TYPE));
+
+        Assert.assertEquals(1, blockingReceiver.getEvents().size());
+        Assert.assertTrue(statistics.getQueueDepths().isEmpty());
+    }
+
+    /**
+     * Dispatches one event and waits until the receiver blocks on it, then dispatches the rest.
+     */
+    private List<NessEvent> fillQueue(final int count) throws InterruptedException
+    {
+        final List<NessEvent> events = new CopyOnWriteArrayList<NessEvent>();
+        for (int i = 0; i < count; i++) {
+            final NessEvent event = NessEvent.createEvent(USER, TEST_EVENT_TYPE);
+            events.add(event);
+            dispatcher.dispatch(event);
+            if (i == 0) {
+                Assert.assertTrue(blockingReceiver.awaitEntered());
+            }
+        }
+        return events;
+    }
+
+    private void createInjector(final NessEventReceiver otherReceiver, final String ... config)
+    {
+        final Injector injector = Guice.createInjector(Stage.PRODUCTION,
+                                                       ConfigModule.forTesting(config),
+                                                       new Module() {
+                                                           @Override
+                                                           public void configure(final Binder binder) {
+                                                               NessEventModule.bindEventReceiver(binder).toInstance(blockingReceiver);
+                                                               if (otherReceiver != null) {
+                                                                   NessEventModule.bindEventReceiver(binder).toInstance(otherReceiver);
+                                                               }
+                                                               binder.disableCircularProxies();
+                                                               binder.requireExplicitBindings();
+                                                           }},
+                                                       new NessEventModule());
+
+        injector.injectMembers(this);
+    }
+
+    public static class BlockingEventReceiver implements NessEventReceiver
+    {
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+        private final List<NessEvent> events = new CopyOnWriteArrayList<NessEvent>();
+
+        @Override
+        public boolean accept(final NessEvent event)
+        {
+            return true;
+        }
+
+        @Override
+        public void receive(final NessEvent event)
+        {
+            events.add(event);
+            entered.countDown();
+            try {
+                released.await();
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public void release()
+        {
+            released.countDown();
+        }
+
+        public boolean awaitEntered() throws InterruptedException
+        {
+            return entered.await(5, TimeUnit.SECONDS);
+        }
+
+        public boolean awaitCount(final int count) throws InterruptedException
+        {
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (events.size() < count) {
+                if (System.nanoTime() > deadline) {
+                    return false;
+                }
+                Thread.sleep(5L);
+            }
+            return true;
+        }
+
+        public List<NessEvent> getEvents()
+        {
+            return events;
+        }
+    }
+}
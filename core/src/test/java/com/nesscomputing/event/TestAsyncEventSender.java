@@ -0,0 +1,302 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.inject.Binder;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Module;
+import com.google.inject.Stage;
+import com.nesscomputing.config.Config;
+import com.nesscomputing.config.ConfigModule;
+import com.nesscomputing.event.TestBatchingEventReceiver.RecordingBatchReceiver;
+
+public class TestAsyncEventSender
+{
+    private static final NessEventType TEST_EVENT_TYPE = NessEventType.getForName("TEST_EVENT");
+
+    @Test
+    public void testSyncByDefault()
+    {
+        final RecordingTransmitter transmitter = new RecordingTransmitter(null);
+        final NessEventSender sender = new NessEventSender(Config.getEmptyConfig().getBean(NessEventConfig.class));
+        sender.addEventTransmitter(transmitter);
+
+        sender.enqueue(NessEvent.createEvent(UUID.randomUUID(), TEST_EVENT_TYPE));
+        Assert.assertEquals(1, transmitter.getEvents().size());
+        Assert.assertTrue(sender.getQueueDepths().isEmpty());
+    }
+
+    @Test
+    public void testSlowTransportDoesNotBlock() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingTransmitter slowTransmitter = new RecordingTransmitter(release);
+        final RecordingTransmitter fastTransmitter = new RecordingTransmitter(null);
+
+        final NessEventSender sender = new NessEventSender(Config.getFixedConfig(ImmutableMap.of("ness.event.sender.async", "true")).getBean(NessEventConfig.class));
+        sender.addEventTransmitter(slowTransmitter);
+        sender.addEventTransmitter(fastTransmitter);
+
+        final List<NessEvent> events = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            final NessEvent event = NessEvent.createEvent(UUID.randomUUID(), TEST_EVENT_TYPE, ImmutableMap.of("seq", i));
+            events.add(event);
+            sender.enqueue(event);
+        }
+
+        // The slow transport holds its first event, everything else waits in its queue.
+        fastTransmitter.awaitCount(100);
+        Assert.assertEquals(events, fastTransmitter.getEvents());
+        Assert.assertTrue(sender.getQueueDepths().get(slowTransmitter) >= 99);
+
+        release.countDown();
+        slowTransmitter.awaitCount(100);
+        Assert.assertEquals(events, slowTransmitter.getEvents());
+        Assert.assertEquals(0L, sender.getDroppedEventCount());
+
+        sender.stop();
+    }
+
+    @Test
+    public void testFullQueueDrops() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingTransmitter slowTransmitter = new RecordingTransmitter(release);
+
+        final NessEventSender sender = new NessEventSender(Config.getFixedConfig(ImmutableMap.of("ness.event.sender.async", "true",
+                                                                                               "ness.event.sender.queue-size", "10")).getBean(NessEventConfig.class));
+        sender.addEventTransmitter(slowTransmitter);
+
+        sender.enqueue(NessEvent.createEvent(UUID.randomUUID(), TEST_EVENT_TYPE));
+        slowTransmitter.awaitCalls(1);
+        for (int i = 0; i < 20; i++) {
+            sender.enqueue(NessEvent.createEvent(UUID.randomUUID(), TEST_EVENT_TYPE));
+        }
+
+        Assert.assertEquals(10L, sender.getDroppedEventCount());
+        Assert.assertEquals(Integer.valueOf(10), sender.getQueueDepths().get(slowTransmitter));
+
+        release.countDown();
+        slowTransmitter.awaitCount(11);
+        sender.stop();
+    }
+
+    @Test
+    public void testStopDrainsQueue() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingTransmitter slowTransmitter = new RecordingTransmitter(release);
+
+        final NessEventSender sender = new NessEventSender(Config.getFixedConfig(ImmutableMap.of("ness.event.sender.async", "true")).getBean(NessEventConfig.class));
+        sender.addEventTransmitter(slowTransmitter);
+
+        for (int i = 0; i < 20; i++) {
+            sender.enqueue(NessEvent.createEvent(UUID.randomUUID(), TEST_EVENT_TYPE));
+        }
+        slowTransmitter.awaitCalls(1);
+
+        final Thread releaser = new Thread() {
+            @Override
+            public void run()
+            {
+                try {
+                    Thread.sleep(50L);
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                release.countDown();
+            }
+        };
+        releaser.start();
+
+        sender.stop();
+        Assert.assertEquals(20, slowTransmitter.getEvents().size());
+        Assert.assertEquals(0L, sender.getDroppedEventCount());
+
+        sender.enqueue(NessEvent.createEvent(UUID.randomUUID(), TEST_EVENT_TYPE));
+        Assert.assertEquals(1L, sender.getDroppedEventCount());
+        Assert.assertEquals(20, slowTransmitter.getEvents().size());
+    }
+
+    @Test
+    public void testStopDrainTimeout() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingTransmitter slowTransmitter = new RecordingTransmitter(release);
+
+        final NessEventSender sender = new NessEventSender(Config.getFixedConfig(ImmutableMap.of("ness.event.sender.async", "true",
+                                                                                               "ness.event.sender.drain-timeout", "50ms")).getBean(NessEventConfig.class));
+        sender.addEventTransmitter(slowTransmitter);
+
+        for (int i = 0; i < 20; i++) {
+            sender.enqueue(NessEvent.createEvent(UUID.randomUUID(), TEST_EVENT_TYPE));
+        }
+        slowTransmitter.awaitCalls(1);
+
+        sender.stop();
+        release.countDown();
+
+        // The event held by the transport is sent, the rest is dropped.
+        slowTransmitter.awaitCount(1);
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (sender.getDroppedEventCount() < 19L && System.nanoTime() < deadline) {
+            Thread.sleep(10L);
+        }
+        Assert.assertEquals(19L, sender.getDroppedEventCount());
+        Assert.assertEquals(1, slowTransmitter.getEvents().size());
+    }
+
+    @Test
+    public void testDispatcherStopDrainsSenderFirst() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final NessEventReceiver slowReceiver = new NessEventReceiver() {
+            @Override
+            public boolean accept(final NessEvent event)
+            {
+                return true;
+            }
+
+            @Override
+            public void receive(final NessEvent event)
+            {
+                try {
+                    release.await();
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        final RecordingBatchReceiver batchReceiver = new RecordingBatchReceiver(TEST_EVENT_TYPE);
+
+        final Injector injector = Guice.createInjector(Stage.PRODUCTION,
+                                                       ConfigModule.forTesting("ness.event.sender.async", "true",
+                                                                               "ness.event.batch.max-size", "100",
+                                                                               "ness.event.batch.max-linger", "1h"),
+                                                       new Module() {
+                                                           @Override
+                                                           public void configure(final Binder binder) {
+                                                               NessEventModule.bindEventReceiver(binder).toInstance(slowReceiver);
+                                                               NessEventModule.bindEventBatchReceiver(binder).toInstance(batchReceiver);
+                                                               binder.disableCircularProxies();
+                                                               binder.requireExplicitBindings();
+                                                           }},
+                                                       new NessEventModule());
+
+        final NessEventSender sender = injector.getInstance(NessEventSender.class);
+        final InternalEventDispatcher dispatcher = injector.getInstance(InternalEventDispatcher.class);
+
+        // The first event holds up the sender queue in the slow receiver, the rest stays queued.
+        for (int i = 0; i < 20; i++) {
+            sender.enqueue(NessEvent.createEvent(UUID.randomUUID(), TEST_EVENT_TYPE));
+        }
+
+        final Thread releaser = new Thread() {
+            @Override
+            public void run()
+            {
+                try {
+                    Thread.sleep(50L);
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                release.countDown();
+            }
+        };
+        releaser.start();
+
+        // Stopping the dispatcher first must not lose what the sender still holds.
+        dispatcher.stop();
+        sender.stop();
+
+        Assert.assertEquals(0L, sender.getDroppedEventCount());
+        Assert.assertEquals(1, batchReceiver.getBatches().size());
+        Assert.assertEquals(20, batchReceiver.getBatches().get(0).size());
+    }
+
+    private static class RecordingTransmitter implements NessEventTransmitter
+    {
+        private final CountDownLatch release;
+        private final List<NessEvent> events = Lists.newArrayList();
+        private int calls = 0;
+
+        RecordingTransmitter(final CountDownLatch release)
+        {
+            this.release = release;
+        }
+
+        @Override
+        public void transmit(@Nonnull final NessEvent event)
+        {
+            synchronized (this) {
+                calls++;
+                notifyAll();
+            }
+            if (release != null) {
+                try {
+                    release.await();
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            synchronized (this) {
+                events.add(event);
+                notifyAll();
+            }
+        }
+
+        synchronized List<NessEvent> getEvents()
+        {
+            return Lists.newArrayList(events);
+        }
+
+        synchronized void awaitCount(final int count) throws InterruptedException
+        {
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (events.size() < count && System.nanoTime() < deadline) {
+                wait(10L);
+            }
+            Assert.assertEquals(count, events.size());
+        }
+
+        synchronized void awaitCalls(final int count) throws InterruptedException
+        {
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (calls < count && System.nanoTime() < deadline) {
+                wait(10L);
+            }
+            Assert.assertEquals(count, calls);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.inject.Binder;
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Module;
+import com.google.inject.Stage;
+import com.nesscomputing.config.ConfigModule;
+import com.nesscomputing.event.util.CountingEventReceiver;
+
+public class TestBatchingEventReceiver
+{
+    private static final NessEventType TEST_EVENT_TYPE = NessEventType.getForName("TEST_EVENT");
+    private static final NessEventType IGNORE_EVENT_TYPE = NessEventType.getForName("IGNORE_EVENT");
+    private static final UUID USER = UUID.randomUUID();
+
+    private ScheduledExecutorService executor;
+
+    @Inject
+    private NessEventSender sender;
+
+    @Before
+    public void setUp()
+    {
+        executor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testFlushOnSize()
+    {
+        final RecordingBatchReceiver batchReceiver = new RecordingBatchReceiver(TEST_EVENT_TYPE);
+        final BatchingEventReceiver receiver = new BatchingEventReceiver(batchReceiver, 3, TimeUnit.HOURS.toMillis(1), executor);
+
+        for (int i = 0; i < 7; i++) {
+            receiver.receive(NessEvent.createEvent(USER, TEST_EVENT_TYPE));
+        }
+
+        Assert.assertEquals(2, batchReceiver.getBatches().size());
+        Assert.assertEquals(3, batchReceiver.getBatches().get(0).size());
+        Assert.assertEquals(3, batchReceiver.getBatches().get(1).size());
+
+        receiver.flush();
+        Assert.assertEquals(3, batchReceiver.getBatches().size());
+        Assert.assertEquals(1, batchReceiver.getBatches().get(2).size());
+
+        receiver.flush();
+        Assert.assertEquals(3, batchReceiver.getBatches().size());
+    }
+
+    @Test
+    public void testFlushOnLinger() throws Exception
+    {
+        final RecordingBatchReceiver batchReceiver = new RecordingBatchReceiver(TEST_EVENT_TYPE);
+        final BatchingEventReceiver receiver = new BatchingEventReceiver(batchReceiver, 100, 20L, executor);
+
+        receiver.receive(NessEvent.createEvent(USER, TEST_EVENT_TYPE));
+        receiver.receive(NessEvent.createEvent(USER, TEST_EVENT_TYPE));
+        Assert.assertTrue(batchReceiver.getBatches().isEmpty());
+
+        Assert.assertTrue(batchReceiver.awaitBatches(1));
+        Assert.assertEquals(2, batchReceiver.getBatches().get(0).size());
+    }
+
+    @Test
+    public void testSlowBatchReceiverDoesNotBlockAdd() throws Exception
+    {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingBatchReceiver batchReceiver = new RecordingBatchReceiver(TEST_EVENT_TYPE) {
+            @Override
+            public void receive(final List<NessEvent> events)
+            {
+                entered.countDown();
+                try {
+                    release.await();
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                super.receive(events);
+            }
+        };
+        final BatchingEventReceiver receiver = new BatchingEventReceiver(batchReceiver, 2, TimeUnit.HOURS.toMillis(1), executor);
+
+        final Thread deliveryThread = new Thread() {
+            @Override
+            public void run()
+            {
+                receiver.receive(NessEvent.createEvent(USER, TEST_EVENT_TYPE));
+                receiver.receive(NessEvent.createEvent(USER, TEST_EVENT_TYPE));
+            }
+        };
+        deliveryThread.start();
+        Assert.assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        // The batch receiver is blocked, adding to the next batch must still go through.
+        final Thread addThread = new Thread() {
+            @Override
+            public void run()
+            {
+                receiver.receive(NessEvent.createEvent(USER, TEST_EVENT_TYPE));
+            }
+        };
+        addThread.start();
+        addThread.join(TimeUnit.SECONDS.toMillis(5));
+        Assert.assertFalse(addThread.isAlive());
+
+        release.countDown();
+        deliveryThread.join(TimeUnit.SECONDS.toMillis(5));
+        receiver.flush();
+
+        Assert.assertEquals(2, batchReceiver.getBatches().size());
+        Assert.assertEquals(2, batchReceiver.getBatches().get(0).size());
+        Assert.assertEquals(1, batchReceiver.getBatches().get(1).size());
+    }
+
+    @Test
+    public void testSlowBatchReceiverDoesNotDelayOthers() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingBatchReceiver slowReceiver = new RecordingBatchReceiver(TEST_EVENT_TYPE) {
+            @Override
+            public void receive(final List<NessEvent> events)
+            {
+                try {
+                    release.await();
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                super.receive(events);
+            }
+        };
+        final RecordingBatchReceiver fastReceiver = new RecordingBatchReceiver(TEST_EVENT_TYPE);
+
+        final Injector injector = Guice.createInjector(Stage.PRODUCTION,
+                                                       ConfigModule.forTesting("ness.event.batch.max-size", "10",
+                                                                               "ness.event.batch.max-linger", "20ms"),
+                                                       new Module() {
+                                                           @Override
+                                                           public void configure(final Binder binder) {
+                                                               NessEventModule.bindEventBatchReceiver(binder).toInstance(slowReceiver);
+                                                               NessEventModule.bindEventBatchReceiver(binder).toInstance(fastReceiver);
+                                                               binder.disableCircularProxies();
+                                                               binder.requireExplicitBindings();
+                                                           }},
+                                                       new NessEventModule());
+
+        injector.injectMembers(this);
+
+        try {
+            sender.enqueue(NessEvent.createEvent(USER, TEST_EVENT_TYPE));
+
+            // The slow receiver holds its own flush timer, the fast one still gets its batch on linger.
+            Assert.assertTrue(fastReceiver.awaitBatches(1));
+            Assert.assertTrue(slowReceiver.getBatches().isEmpty());
+        }
+        finally {
+            release.countDown();
+        }
+        Assert.assertTrue(slowReceiver.awaitBatches(1));
+    }
+
+    @Test
+    public void testBatchAndSingleReceivers() throws Exception
+    {
+        final RecordingBatchReceiver batchReceiver = new RecordingBatchReceiver(TEST_EVENT_TYPE);
+        final CountingEventReceiver eventReceiver = new CountingEventReceiver(TEST_EVENT_TYPE);
+
+        final Injector injector = Guice.createInjector(Stage.PRODUCTION,
+                                                       ConfigModule.forTesting("ness.event.batch.max-size", "10",
+                                                                               "ness.event.batch.max-linger", "20ms"),
+                                                       new Module() {
+                                                           @Override
+                                                           public void configure(final Binder binder) {
+                                                               NessEventModule.bindEventBatchReceiver(binder).toInstance(batchReceiver);
+                                                               NessEventModule.bindEventReceiver(binder).toInstance(eventReceiver);
+                                                               binder.disableCircularProxies();
+                                                               binder.requireExplicitBindings();
+                                                           }},
+                                                       new NessEventModule());
+
+        injector.injectMembers(this);
+
+        for (int i = 0; i < 25; i++) {
+            sender.enqueue(NessEvent.createEvent(USER, TEST_EVENT_TYPE));
+            sender.enqueue(NessEvent.createEvent(USER, IGNORE_EVENT_TYPE));
+        }
+
+        Assert.assertEquals(25, eventReceiver.getCount());
+        Assert.assertTrue(batchReceiver.awaitBatches(3));
+        Assert.assertEquals(10, batchReceiver.getBatches().get(0).size());
+        Assert.assertEquals(10, batchReceiver.getBatches().get(1).size());
+        Assert.assertEquals(5, batchReceiver.getBatches().get(2).size());
+    }
+
+    public static class RecordingBatchReceiver implements NessEventBatchReceiver
+    {
+        private final NessEventType eventType;
+        private final List<List<NessEvent>> batches = new CopyOnWriteArrayList<List<NessEvent>>();
+
+        public RecordingBatchReceiver(final NessEventType eventType)
+        {
+            this.eventType = eventType;
+        }
+
+        @Override
+        public boolean accept(final NessEvent event)
+        {
+            return eventType.equals(event.getType());
+        }
+
+        @Override
+        public void receive(final List<NessEvent> events)
+        {
+            batches.add(events);
+        }
+
+        public List<List<NessEvent>> getBatches()
+        {
+            return batches;
+        }
+
+        public boolean awaitBatches(final int count) throws InterruptedException
+        {
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (batches.size() < count) {
+                if (System.nanoTime() > deadline) {
+                    return false;
+                }
+                Thread.sleep(5L);
+            }
+            return true;
+        }
+    }
+}
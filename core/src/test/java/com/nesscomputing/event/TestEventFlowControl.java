@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Stage;
+import com.nesscomputing.config.Config;
+import com.nesscomputing.config.ConfigModule;
+import com.nesscomputing.event.TestExecutorEventDispatch.BlockingReceiver;
+
+public class TestEventFlowControl
+{
+    private static final NessEventType TEST_EVENT_TYPE = NessEventType.getForName("TEST_EVENT");
+    private static final UUID USER = UUID.randomUUID();
+
+    @Test
+    public void testDisabledByDefault()
+    {
+        final InternalEventDispatcher dispatcher = new InternalEventDispatcher(Config.getEmptyConfig().getBean(NessEventConfig.class));
+        Assert.assertFalse(dispatcher.isSaturated());
+    }
+
+    @Test
+    public void testHysteresis() throws Exception
+    {
+        final BlockingReceiver receiver = new BlockingReceiver(1);
+        final InternalEventDispatcher dispatcher = new InternalEventDispatcher(Config.getFixedConfig(ImmutableMap.of("ness.event.dispatch.mode", "ASYNC",
+                                                                                                                     "ness.event.flow-control.high-water", "10",
+                                                                                                                     "ness.event.flow-control.low-water", "4",
+                                                                                                                     "ness.event.flow-control.poll-interval", "1ms")).getBean(NessEventConfig.class));
+        dispatcher.injectEventReceivers(ImmutableSet.<NessEventReceiver>of(receiver));
+
+        // One event is stuck in the receiver, the rest stays queued.
+        for (int i = 0; i < 11; i++) {
+            dispatcher.dispatch(NessEvent.createEvent(USER, TEST_EVENT_TYPE));
+        }
+        Assert.assertTrue(receiver.awaitArrivals());
+        Assert.assertEquals(10L, dispatcher.getBufferedEventCount());
+        Assert.assertTrue(dispatcher.isSaturated());
+
+        final CountDownLatch resumed = new CountDownLatch(1);
+        final Thread consumerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    dispatcher.awaitCapacity();
+                    resumed.countDown();
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        consumerThread.start();
+        Assert.assertFalse(resumed.await(50L, TimeUnit.MILLISECONDS));
+
+        receiver.release();
+        Assert.assertTrue(resumed.await(5L, TimeUnit.SECONDS));
+        consumerThread.join();
+        Assert.assertFalse(dispatcher.isSaturated());
+
+        dispatcher.stop();
+    }
+
+    @Test
+    public void testModuleBinding()
+    {
+        final Injector injector = Guice.createInjector(Stage.PRODUCTION, ConfigModule.forTesting(), new NessEventModule());
+        Assert.assertSame(injector.getInstance(NessEventDispatcher.class), injector.getInstance(NessEventFlowControl.class));
+    }
+}
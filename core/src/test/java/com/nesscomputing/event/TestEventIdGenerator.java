@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+public class TestEventIdGenerator
+{
+    private static final NessEventType TYPE = NessEventType.getForName("TestEventIdGenerator");
+
+    @Test
+    public void testLayout()
+    {
+        final long before = System.currentTimeMillis();
+        final UUID id = new TimeOrderedEventIdGenerator().nextId();
+        final long after = System.currentTimeMillis();
+
+        Assert.assertEquals(7, id.version());
+        Assert.assertEquals(2, id.variant());
+
+        // The clock may have been borrowed from by earlier ids of this thread, so allow a little slack.
+        final long millis = id.getMostSignificantBits() >>> 16;
+        Assert.assertTrue(millis >= before);
+        Assert.assertTrue(millis <= after + 10L);
+    }
+
+    @Test
+    public void testMonotonicPerThread()
+    {
+        final NessEventIdGenerator generator = new TimeOrderedEventIdGenerator();
+        UUID last = generator.nextId();
+        for (int i = 0; i < 100000; i++) {
+            final UUID next = generator.nextId();
+            Assert.assertTrue(next.getMostSignificantBits() > last.getMostSignificantBits());
+            last = next;
+        }
+    }
+
+    @Test
+    public void testUniqueAcrossThreads() throws Exception
+    {
+        final NessEventIdGenerator generator = new TimeOrderedEventIdGenerator();
+        final Set<UUID> ids = Sets.newSetFromMap(new ConcurrentHashMap<UUID, Boolean>());
+
+        final int threadCount = 4;
+        final int idCount = 20000;
+        final Thread [] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < idCount; j++) {
+                        ids.add(generator.nextId());
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (int i = 0; i < threadCount; i++) {
+            threads[i].join();
+        }
+
+        Assert.assertEquals(threadCount * idCount, ids.size());
+    }
+
+    @Test
+    public void testPluggable()
+    {
+        final UUID fixedId = UUID.randomUUID();
+        final NessEventIdGenerator oldGenerator = NessEvent.getIdGenerator();
+        try {
+            NessEvent.setIdGenerator(new NessEventIdGenerator() {
+                @Override
+                public UUID nextId()
+                {
+                    return fixedId;
+                }
+            });
+            Assert.assertEquals(fixedId, NessEvent.createEvent(null, TYPE).getId());
+        }
+        finally {
+            NessEvent.setIdGenerator(oldGenerator);
+        }
+
+        Assert.assertTrue(NessEvent.getIdGenerator() instanceof TimeOrderedEventIdGenerator);
+        Assert.assertEquals(7, NessEvent.createEvent(null, TYPE).getId().version());
+        Assert.assertEquals(4, new RandomEventIdGenerator().nextId().version());
+    }
+}
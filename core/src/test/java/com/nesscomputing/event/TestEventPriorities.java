@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Stage;
+import com.nesscomputing.config.Config;
+import com.nesscomputing.config.ConfigModule;
+
+public class TestEventPriorities
+{
+    private static final NessEventType HIGH_TYPE = NessEventType.getForName("USER_REGISTERED");
+    private static final NessEventType NORMAL_TYPE = NessEventType.getForName("WAKE");
+    private static final NessEventType LOW_TYPE = NessEventType.getForName("SEARCH");
+    private static final UUID USER = UUID.randomUUID();
+
+    @Test
+    public void testSchedule()
+    {
+        final EventPriorities priorities = new EventPriorities(ImmutableMap.of(HIGH_TYPE, NessEventPriority.HIGH), new int [] { 8, 4, 1 });
+        final int [] schedule = priorities.getSchedule();
+
+        final int [] counts = new int[3];
+        for (final int priority : schedule) {
+            counts[priority]++;
+        }
+        Assert.assertEquals(13, schedule.length);
+        Assert.assertArrayEquals(new int [] { 8, 4, 1 }, counts);
+
+        // The high class is never starved for more than one slot.
+        for (int i = 0; i < schedule.length - 1; i++) {
+            Assert.assertTrue(schedule[i] == 0 || schedule[i + 1] == 0);
+        }
+    }
+
+    @Test
+    public void testFromConfig()
+    {
+        final Config config = Config.getFixedConfig(ImmutableMap.of("ness.event.priority.USER_REGISTERED", "high",
+                                                                    "ness.event.priority.SEARCH", "LOW"));
+        final EventPriorities priorities = EventPriorities.fromConfig(config, config.getBean(NessEventConfig.class));
+
+        Assert.assertFalse(priorities.isEmpty());
+        Assert.assertEquals(NessEventPriority.HIGH, priorities.getPriority(HIGH_TYPE));
+        Assert.assertEquals(NessEventPriority.LOW, priorities.getPriority(LOW_TYPE));
+        Assert.assertEquals(NessEventPriority.NORMAL, priorities.getPriority(NORMAL_TYPE));
+
+        Assert.assertTrue(EventPriorities.fromConfig(Config.getEmptyConfig(), Config.getEmptyConfig().getBean(NessEventConfig.class)).isEmpty());
+    }
+
+    @Test
+    public void testModuleBinding()
+    {
+        final Injector injector = Guice.createInjector(Stage.PRODUCTION,
+                                                       ConfigModule.forTesting("ness.event.priority.USER_REGISTERED", "high"),
+                                                       new NessEventModule());
+
+        Assert.assertEquals(NessEventPriority.HIGH, injector.getInstance(EventPriorities.class).getPriority(HIGH_TYPE));
+    }
+
+    @Test
+    public void testWeightedDrain() throws Exception
+    {
+        final EventPriorities priorities = new EventPriorities(ImmutableMap.of(HIGH_TYPE, NessEventPriority.HIGH, LOW_TYPE, NessEventPriority.LOW), new int [] { 8, 4, 1 });
+        final List<NessEvent> processed = new CopyOnWriteArrayList<NessEvent>();
+
+        final EventQueueWorker worker = new EventQueueWorker("test-worker", 105, NessEventOverflowPolicy.BLOCK, priorities) {
+            @Override
+            protected void process(@Nonnull final NessEvent event)
+            {
+                processed.add(event);
+            }
+        };
+
+        // Flood of low and normal events in front of a few high priority ones.
+        for (int i = 0; i < 50; i++) {
+            worker.offer(NessEvent.createEvent(USER, LOW_TYPE, ImmutableMap.of("seq", i)));
+            worker.offer(NessEvent.createEvent(USER, NORMAL_TYPE, ImmutableMap.of("seq", i)));
+        }
+        for (int i = 0; i < 5; i++) {
+            worker.offer(NessEvent.createEvent(USER, HIGH_TYPE, ImmutableMap.of("seq", i)));
+        }
+        Assert.assertEquals(105, worker.getQueueDepth());
+
+        worker.start();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (processed.size() < 105 && System.nanoTime() < deadline) {
+            Thread.sleep(5L);
+        }
+        worker.shutdown();
+
+        Assert.assertEquals(105, processed.size());
+
+        int highSeen = 0;
+        for (int i = 0; i < 8; i++) {
+            if (HIGH_TYPE.equals(processed.get(i).getType())) {
+                highSeen++;
+            }
+        }
+        Assert.assertEquals(5, highSeen);
+
+        // Order is kept within each class.
+        final int [] nextSeq = new int[3];
+        for (final NessEvent event : processed) {
+            final int priority = priorities.getPriority(event.getType()).ordinal();
+            Assert.assertEquals(nextSeq[priority]++, ((Number) event.getPayload().get("seq")).intValue());
+        }
+    }
+
+    @Test
+    public void testSharedCapacityDropNewest()
+    {
+        final EventPriorities priorities = new EventPriorities(ImmutableMap.of(HIGH_TYPE, NessEventPriority.HIGH, LOW_TYPE, NessEventPriority.LOW), new int [] { 8, 4, 1 });
+        final EventQueueWorker worker = createIdleWorker(10, NessEventOverflowPolicy.DROP_NEWEST, priorities);
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(worker.offer(NessEvent.createEvent(USER, LOW_TYPE)));
+        }
+        for (int i = 0; i < 5; i++) {
+            Assert.assertFalse(worker.offer(NessEvent.createEvent(USER, HIGH_TYPE)));
+        }
+        Assert.assertEquals(10, worker.getQueueDepth());
+        Assert.assertEquals(5L, worker.getDroppedEventCount());
+    }
+
+    @Test
+    public void testSharedCapacityDropOldest()
+    {
+        final EventPriorities priorities = new EventPriorities(ImmutableMap.of(HIGH_TYPE, NessEventPriority.HIGH, LOW_TYPE, NessEventPriority.LOW), new int [] { 8, 4, 1 });
+        final List<NessEvent> processed = new CopyOnWriteArrayList<NessEvent>();
+        final EventQueueWorker worker = new EventQueueWorker("test-worker", 10, NessEventOverflowPolicy.DROP_OLDEST, priorities) {
+            @Override
+            protected void process(@Nonnull final NessEvent event)
+            {
+                processed.add(event);
+            }
+        };
+
+        for (int i = 0; i < 5; i++) {
+            worker.offer(NessEvent.createEvent(USER, NORMAL_TYPE));
+            worker.offer(NessEvent.createEvent(USER, LOW_TYPE));
+        }
+        for (int i = 0; i < 7; i++) {
+            Assert.assertTrue(worker.offer(NessEvent.createEvent(USER, HIGH_TYPE)));
+        }
+        Assert.assertEquals(10, worker.getQueueDepth());
+        Assert.assertEquals(7L, worker.getDroppedEventCount());
+
+        // All low events went first, then the oldest normal events.
+        worker.start();
+        worker.shutdown(5000L);
+        Assert.assertTrue(worker.awaitTermination(5000L));
+
+        int high = 0;
+        int normal = 0;
+        for (final NessEvent event : processed) {
+            Assert.assertFalse(LOW_TYPE.equals(event.getType()));
+            high += HIGH_TYPE.equals(event.getType()) ? 1 : 0;
+            normal += NORMAL_TYPE.equals(event.getType()) ? 1 : 0;
+        }
+        Assert.assertEquals(7, high);
+        Assert.assertEquals(3, normal);
+    }
+
+    private static EventQueueWorker createIdleWorker(final int queueSize, final NessEventOverflowPolicy overflowPolicy, final EventPriorities priorities)
+    {
+        return new EventQueueWorker("test-worker", queueSize, overflowPolicy, priorities) {
+            @Override
+            protected void process(@Nonnull final NessEvent event)
+            {
+            }
+        };
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.nesscomputing.config.Config;
+import com.nesscomputing.event.TestPartitionedEventDispatch.OrderRecordingReceiver;
+
+public class TestEventRingBuffer
+{
+    private static final NessEventType TEST_EVENT_TYPE = NessEventType.getForName("TEST_EVENT");
+
+    @Test
+    public void testCapacity()
+    {
+        Assert.assertEquals(8, new EventRingBuffer(8, NessEventWaitStrategy.PARK).getCapacity());
+        Assert.assertEquals(16, new EventRingBuffer(9, NessEventWaitStrategy.PARK).getCapacity());
+        Assert.assertEquals(1, new EventRingBuffer(1, NessEventWaitStrategy.PARK).getCapacity());
+    }
+
+    @Test
+    public void testIdleConsumersWakeUpAndReleaseEvents() throws Exception
+    {
+        final EventRingBuffer ringBuffer = new EventRingBuffer(8, NessEventWaitStrategy.PARK);
+        final OrderRecordingReceiver receiver1 = new OrderRecordingReceiver();
+        final OrderRecordingReceiver receiver2 = new OrderRecordingReceiver();
+        ringBuffer.addConsumer(new ReceiverEndpoint(receiver1));
+        ringBuffer.addConsumer(new ReceiverEndpoint(receiver2));
+
+        final UUID user = UUID.randomUUID();
+        for (int i = 0; i < 5; i++) {
+            // Long enough for the consumers to go to sleep.
+            Thread.sleep(20L);
+            ringBuffer.publish(NessEvent.createEvent(user, TEST_EVENT_TYPE, ImmutableMap.of("seq", i)));
+        }
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((receiver1.getCount() < 5 || receiver2.getCount() < 5 || ringBuffer.getRetainedEventCount() > 0) && System.nanoTime() < deadline) {
+            Thread.sleep(5L);
+        }
+        ringBuffer.shutdown();
+
+        Assert.assertEquals(5, receiver1.getCount());
+        Assert.assertEquals(5, receiver2.getCount());
+        Assert.assertEquals(0, ringBuffer.getRetainedEventCount());
+    }
+
+    @Test
+    public void testRemoveConsumerReleasesSlots() throws Exception
+    {
+        final EventRingBuffer ringBuffer = new EventRingBuffer(8, NessEventWaitStrategy.PARK);
+        final OrderRecordingReceiver receiver = new OrderRecordingReceiver();
+        final NessEventReceiver stalled = new NessEventReceiver() {
+            @Override
+            public boolean accept(final NessEvent event)
+            {
+                return true;
+            }
+
+            @Override
+            public void receive(final NessEvent event)
+            {
+                try {
+                    Thread.sleep(TimeUnit.HOURS.toMillis(1));
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        final ReceiverEndpoint stalledEndpoint = new ReceiverEndpoint(stalled);
+        ringBuffer.addConsumer(new ReceiverEndpoint(receiver));
+        ringBuffer.addConsumer(stalledEndpoint);
+
+        final UUID user = UUID.randomUUID();
+        for (int i = 0; i < 3; i++) {
+            ringBuffer.publish(NessEvent.createEvent(user, TEST_EVENT_TYPE, ImmutableMap.of("seq", i)));
+        }
+        ringBuffer.removeConsumer(stalledEndpoint);
+        Assert.assertFalse(ringBuffer.getQueueDepths().containsKey(stalled));
+
+        // Fewer than a full ring, so no slot is cleared by being overwritten.
+        for (int i = 3; i < 5; i++) {
+            ringBuffer.publish(NessEvent.createEvent(user, TEST_EVENT_TYPE, ImmutableMap.of("seq", i)));
+        }
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((receiver.getCount() < 5 || ringBuffer.getRetainedEventCount() > 0) && System.nanoTime() < deadline) {
+            Thread.sleep(5L);
+        }
+        ringBuffer.shutdown();
+
+        Assert.assertEquals(5, receiver.getCount());
+        Assert.assertEquals(0, ringBuffer.getRetainedEventCount());
+    }
+
+    @Test
+    public void testBroadcast() throws Exception
+    {
+        // BUSY_SPIN is left out, it starves the producers on machines with few cores.
+        for (final NessEventWaitStrategy waitStrategy : new NessEventWaitStrategy [] { NessEventWaitStrategy.YIELD, NessEventWaitStrategy.PARK }) {
+            final OrderRecordingReceiver receiver1 = new OrderRecordingReceiver();
+            final OrderRecordingReceiver receiver2 = new OrderRecordingReceiver();
+
+            final InternalEventDispatcher dispatcher = new InternalEventDispatcher(Config.getFixedConfig(ImmutableMap.of("ness.event.dispatch.mode", "RING_BUFFER",
+                                                                                                                         "ness.event.dispatch.ring-size", "8",
+                                                                                                                         "ness.event.dispatch.wait-strategy", waitStrategy.name())).getBean(NessEventConfig.class));
+            dispatcher.injectEventReceivers(ImmutableSet.<NessEventReceiver>of(receiver1, receiver2));
+
+            final int eventCount = 500;
+            final int threadCount = 4;
+            final UUID [] users = new UUID[threadCount];
+            final Thread [] threads = new Thread[threadCount];
+
+            for (int i = 0; i < threadCount; i++) {
+                final UUID user = UUID.randomUUID();
+                users[i] = user;
+                threads[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int j = 0; j < eventCount; j++) {
+                            dispatcher.dispatch(NessEvent.createEvent(user, TEST_EVENT_TYPE, ImmutableMap.of("seq", j)));
+                        }
+                    }
+                });
+                threads[i].start();
+            }
+            for (int i = 0; i < threadCount; i++) {
+                threads[i].join();
+            }
+
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while ((receiver1.getCount() < eventCount * threadCount || receiver2.getCount() < eventCount * threadCount) && System.nanoTime() < deadline) {
+                Thread.sleep(5L);
+            }
+            dispatcher.stop();
+
+            for (final OrderRecordingReceiver receiver : new OrderRecordingReceiver [] { receiver1, receiver2 }) {
+                Assert.assertEquals(eventCount * threadCount, receiver.getCount());
+                for (int i = 0; i < threadCount; i++) {
+                    for (int j = 0; j < eventCount; j++) {
+                        Assert.assertEquals(Integer.valueOf(j), receiver.getSequence(users[i]).get(j));
+                    }
+                }
+            }
+            Assert.assertEquals(Integer.valueOf(0), dispatcher.getQueueDepths().get(receiver1));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.nesscomputing.config.Config;
+import com.nesscomputing.event.util.CountingEventReceiver;
+
+public class TestEventRoutingTable
+{
+    private static final UUID USER = UUID.randomUUID();
+    private static final NessEventType TYPE_A = NessEventType.getForName("TYPE_A");
+    private static final NessEventType TYPE_B = NessEventType.getForName("TYPE_B");
+    private static final NessEventType TYPE_C = NessEventType.getForName("TYPE_C");
+
+    @Test
+    public void testEmpty()
+    {
+        Assert.assertEquals(0, EventRoutingTable.EMPTY.getEndpoints(TYPE_A).length);
+    }
+
+    @Test
+    public void testRouting()
+    {
+        final ReceiverEndpoint untyped = new ReceiverEndpoint(new CountingEventReceiver(TYPE_A));
+        final ReceiverEndpoint typedA = new ReceiverEndpoint(new TypedReceiver(TYPE_A));
+        final ReceiverEndpoint typedAB = new ReceiverEndpoint(new TypedReceiver(TYPE_A, TYPE_B));
+
+        final EventRoutingTable table = EventRoutingTable.build(ImmutableList.of(typedA, untyped, typedAB));
+
+        Assert.assertEquals(Arrays.asList(typedA, untyped, typedAB), Arrays.asList(table.getEndpoints(TYPE_A)));
+        Assert.assertEquals(Arrays.asList(untyped, typedAB), Arrays.asList(table.getEndpoints(TYPE_B)));
+        Assert.assertEquals(Arrays.asList(untyped), Arrays.asList(table.getEndpoints(TYPE_C)));
+    }
+
+    @Test
+    public void testTypedReceiverOnlySeesItsTypes()
+    {
+        final TypedReceiver receiver = new TypedReceiver(TYPE_A);
+        final InternalEventDispatcher dispatcher = new InternalEventDispatcher(Config.getEmptyConfig().getBean(NessEventConfig.class));
+        dispatcher.injectEventReceivers(ImmutableSet.<NessEventReceiver>of(receiver));
+
+        dispatcher.dispatch(NessEvent.createEvent(USER, TYPE_B));
+        dispatcher.dispatch(NessEvent.createEvent(USER, TYPE_A));
+        dispatcher.dispatch(NessEvent.createEvent(USER, TYPE_C));
+
+        Assert.assertEquals(1, receiver.getAcceptCount());
+        Assert.assertEquals(1, receiver.getReceiveCount());
+    }
+
+    public static class TypedReceiver implements NessTypedEventReceiver
+    {
+        private final Set<NessEventType> eventTypes;
+        private final AtomicInteger acceptCount = new AtomicInteger();
+        private final AtomicInteger receiveCount = new AtomicInteger();
+
+        public TypedReceiver(final NessEventType ... eventTypes)
+        {
+            this.eventTypes = ImmutableSet.copyOf(eventTypes);
+        }
+
+        @Override
+        public Set<NessEventType> getEventTypes()
+        {
+            return eventTypes;
+        }
+
+        @Override
+        public boolean accept(final NessEvent event)
+        {
+            acceptCount.incrementAndGet();
+            return true;
+        }
+
+        @Override
+        public void receive(final NessEvent event)
+        {
+            receiveCount.incrementAndGet();
+        }
+
+        public int getAcceptCount()
+        {
+            return acceptCount.get();
+        }
+
+        public int getReceiveCount()
+        {
+            return receiveCount.get();
+        }
+    }
+}
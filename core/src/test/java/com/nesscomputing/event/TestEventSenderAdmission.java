@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.nesscomputing.config.Config;
+
+public class TestEventSenderAdmission
+{
+    private static final NessEventType NOISY = NessEventType.getForName("NOISY_EVENT");
+    private static final NessEventType QUIET = NessEventType.getForName("QUIET_EVENT");
+
+    private static NessEventSender createSender(final Config config, final NessEventTransmitter transmitter)
+    {
+        final NessEventConfig eventConfig = config.getBean(NessEventConfig.class);
+        final NessEventSender sender = new NessEventSender(eventConfig);
+        sender.addEventTransmitter(transmitter);
+        sender.injectAdmission(EventAdmission.fromConfig(config, eventConfig));
+        return sender;
+    }
+
+    @Test
+    public void testRateLimit()
+    {
+        final RecordingTransmitter transmitter = new RecordingTransmitter(null);
+        final NessEventSender sender = createSender(Config.getFixedConfig(ImmutableMap.of("ness.event.rate-limit.NOISY_EVENT", "5")), transmitter);
+
+        for (int i = 0; i < 100; i++) {
+            sender.enqueue(NessEvent.createEvent(UUID.randomUUID(), NOISY));
+            sender.enqueue(NessEvent.createEvent(UUID.randomUUID(), QUIET));
+        }
+
+        final int noisyEvents = transmitter.count(NOISY);
+        Assert.assertTrue(noisyEvents >= 5 && noisyEvents < 10);
+        Assert.assertEquals(100, transmitter.count(QUIET));
+        Assert.assertEquals(Long.valueOf(100 - noisyEvents), sender.getRateLimitedEventCounts().get(NOISY));
+        Assert.assertEquals(100L - noisyEvents, sender.getRateLimitedEventCount());
+        Assert.assertEquals(0L, sender.getSampledEventCount());
+    }
+
+    @Test
+    public void testSampling()
+    {
+        final RecordingTransmitter transmitter = new RecordingTransmitter(null);
+        final NessEventSender sender = createSender(Config.getFixedConfig(ImmutableMap.of("ness.event.sample.NOISY_EVENT", "0.5")), transmitter);
+
+        for (int i = 0; i < 1000; i++) {
+            sender.enqueue(NessEvent.createEvent(UUID.randomUUID(), NOISY));
+        }
+
+        final int noisyEvents = transmitter.count(NOISY);
+        Assert.assertTrue(noisyEvents > 300 && noisyEvents < 700);
+        Assert.assertEquals(Long.valueOf(1000 - noisyEvents), sender.getSampledEventCounts().get(NOISY));
+    }
+
+    @Test
+    public void testRuntimeChanges()
+    {
+        final RecordingTransmitter transmitter = new RecordingTransmitter(null);
+        final NessEventSender sender = createSender(Config.getEmptyConfig(), transmitter);
+
+        sender.setSampleRate(NOISY, 0.0);
+        sender.enqueueAll(Lists.newArrayList(NessEvent.createEvent(UUID.randomUUID(), NOISY),
+                                             NessEvent.createEvent(UUID.randomUUID(), QUIET)));
+        Assert.assertEquals(0, transmitter.count(NOISY));
+        Assert.assertEquals(1, transmitter.count(QUIET));
+
+        sender.removeSampleRate(NOISY);
+        sender.enqueue(NessEvent.createEvent(UUID.randomUUID(), NOISY));
+        Assert.assertEquals(1, transmitter.count(NOISY));
+        Assert.assertEquals(1L, sender.getSampledEventCount());
+    }
+
+    @Test
+    public void testConcurrentRuntimeChanges() throws Exception
+    {
+        final EventAdmission admission = new EventAdmission(false, 0.5);
+        final NessEventType[] types = new NessEventType[100];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = NessEventType.getForName("CONCURRENT_" + i);
+        }
+
+        final Thread rateLimiter = new Thread() {
+            @Override
+            public void run()
+            {
+                for (final NessEventType eventType : types) {
+                    admission.setRateLimit(eventType, 10.0);
+                }
+            }
+        };
+        rateLimiter.start();
+        for (final NessEventType eventType : types) {
+            admission.setSampleRate(eventType, 0.0);
+        }
+        rateLimiter.join();
+
+        for (final NessEventType eventType : types) {
+            final EventAdmission.TypePolicy policy = admission.getPolicy(eventType);
+            Assert.assertTrue(policy.isSampled());
+            Assert.assertTrue(policy.isRateLimited());
+        }
+    }
+
+    @Test
+    public void testAdaptiveSampling() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingTransmitter transmitter = new RecordingTransmitter(release);
+        final NessEventSender sender = createSender(Config.getFixedConfig(ImmutableMap.of("ness.event.sender.async", "true",
+                                                                                          "ness.event.sender.queue-size", "10",
+                                                                                          "ness.event.sender.adaptive-sampling", "true",
+                                                                                          "ness.event.sample.NOISY_EVENT", "1.0")), transmitter);
+
+        for (int i = 0; i < 1000; i++) {
+            sender.enqueue(NessEvent.createEvent(UUID.randomUUID(), NOISY));
+        }
+
+        // The transport holds one event, the queue filled up and sampling dropped the rest instead of the queue.
+        Assert.assertTrue(sender.getSampledEventCount() >= 980);
+        Assert.assertEquals(0L, sender.getDroppedEventCount());
+
+        release.countDown();
+        sender.stop();
+    }
+
+    private static class RecordingTransmitter implements NessEventTransmitter
+    {
+        private final List<NessEvent> events = Lists.newCopyOnWriteArrayList();
+        private final CountDownLatch release;
+
+        RecordingTransmitter(final CountDownLatch release)
+        {
+            this.release = release;
+        }
+
+        @Override
+        public void transmit(@Nonnull final NessEvent event)
+        {
+            if (release != null) {
+                try {
+                    release.await();
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            events.add(event);
+        }
+
+        int count(final NessEventType eventType)
+        {
+            int count = 0;
+            for (final NessEvent event : events) {
+                if (eventType.equals(event.getType())) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.nesscomputing.config.Config;
+import com.nesscomputing.event.TestPartitionedEventDispatch.OrderRecordingReceiver;
+
+public class TestEventSenderBatch
+{
+    private static final NessEventType TEST_EVENT_TYPE = NessEventType.getForName("TEST_EVENT");
+
+    @Test
+    public void testEnqueueAll()
+    {
+        final BatchRecordingTransmitter batchTransmitter = new BatchRecordingTransmitter();
+        final PlainRecordingTransmitter plainTransmitter = new PlainRecordingTransmitter();
+
+        final NessEventSender sender = new NessEventSender(Config.getEmptyConfig().getBean(NessEventConfig.class));
+        sender.addEventTransmitter(batchTransmitter);
+        sender.addEventTransmitter(plainTransmitter);
+
+        final List<NessEvent> events = createEvents(UUID.randomUUID(), 50);
+        sender.enqueueAll(events);
+
+        Assert.assertEquals(1, batchTransmitter.batches.size());
+        Assert.assertEquals(events, Lists.newArrayList(batchTransmitter.batches.get(0)));
+        Assert.assertEquals(events, plainTransmitter.events);
+    }
+
+    @Test
+    public void testLocalTransmitAll()
+    {
+        final OrderRecordingReceiver receiver = new OrderRecordingReceiver();
+        final InternalEventDispatcher dispatcher = new InternalEventDispatcher(Config.getEmptyConfig().getBean(NessEventConfig.class));
+        dispatcher.subscribe(receiver);
+
+        final NessEventSender sender = new NessEventSender(Config.getEmptyConfig().getBean(NessEventConfig.class));
+        sender.addEventTransmitter(new InternalLocalEventTransmitter(dispatcher));
+
+        final UUID user = UUID.randomUUID();
+        sender.enqueueAll(createEvents(user, 100));
+
+        Assert.assertEquals(100, receiver.getCount());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(Integer.valueOf(i), receiver.getSequence(user).get(i));
+        }
+    }
+
+    @Test
+    public void testAsyncSenderBatches() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final BlockingBatchTransmitter transmitter = new BlockingBatchTransmitter(release);
+
+        final NessEventSender sender = new NessEventSender(Config.getFixedConfig(ImmutableMap.of("ness.event.sender.async", "true",
+                                                                                               "ness.event.batch.max-size", "20")).getBean(NessEventConfig.class));
+        sender.addEventTransmitter(transmitter);
+
+        final List<NessEvent> events = createEvents(UUID.randomUUID(), 51);
+        sender.enqueue(events.get(0));
+        Assert.assertTrue(transmitter.started.await(5, TimeUnit.SECONDS));
+        sender.enqueueAll(events.subList(1, events.size()));
+
+        // The worker holds the first event, the other 50 are waiting in its queue.
+        release.countDown();
+        sender.stop();
+
+        Assert.assertEquals(events, transmitter.getEvents());
+        Assert.assertEquals(ImmutableList.of(1, 20, 20, 10), transmitter.getBatchSizes());
+    }
+
+    private static List<NessEvent> createEvents(final UUID user, final int count)
+    {
+        final List<NessEvent> events = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            events.add(NessEvent.createEvent(user, TEST_EVENT_TYPE, ImmutableMap.of("seq", i)));
+        }
+        return events;
+    }
+
+    private static class BatchRecordingTransmitter implements NessEventBatchTransmitter
+    {
+        private final List<Collection<NessEvent>> batches = Lists.newArrayList();
+
+        @Override
+        public void transmit(@Nonnull final NessEvent event)
+        {
+            Assert.fail("batch transmitter should only see batches");
+        }
+
+        @Override
+        public void transmitAll(@Nonnull final Collection<NessEvent> events)
+        {
+            batches.add(events);
+        }
+    }
+
+    private static class PlainRecordingTransmitter implements NessEventTransmitter
+    {
+        private final List<NessEvent> events = Lists.newArrayList();
+
+        @Override
+        public void transmit(@Nonnull final NessEvent event)
+        {
+            events.add(event);
+        }
+    }
+
+    private static class BlockingBatchTransmitter implements NessEventBatchTransmitter
+    {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release;
+        private final List<NessEvent> events = Lists.newArrayList();
+        private final List<Integer> batchSizes = Lists.newArrayList();
+
+        BlockingBatchTransmitter(final CountDownLatch release)
+        {
+            this.release = release;
+        }
+
+        @Override
+        public void transmit(@Nonnull final NessEvent event)
+        {
+            transmitAll(ImmutableList.of(event));
+        }
+
+        @Override
+        public void transmitAll(@Nonnull final Collection<NessEvent> batch)
+        {
+            started.countDown();
+            try {
+                release.await();
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                events.addAll(batch);
+                batchSizes.add(batch.size());
+            }
+        }
+
+        synchronized List<NessEvent> getEvents()
+        {
+            return Lists.newArrayList(events);
+        }
+
+        synchronized List<Integer> getBatchSizes()
+        {
+            return Lists.newArrayList(batchSizes);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.nesscomputing.config.Config;
+
+public class TestEventSenderCoalescing
+{
+    private static final NessEventType WAKE = NessEventType.getForName("WAKE");
+    private static final NessEventType SEARCH = NessEventType.getForName("SEARCH");
+
+    private static NessEventSender createSender(final String mode, final String window, final NessEventTransmitter transmitter)
+    {
+        final Config config = Config.getFixedConfig(ImmutableMap.of("ness.event.coalesce.WAKE", mode,
+                                                                    "ness.event.sender.coalesce-window", window));
+        final NessEventConfig eventConfig = config.getBean(NessEventConfig.class);
+
+        final NessEventSender sender = new NessEventSender(eventConfig);
+        sender.addEventTransmitter(transmitter);
+        sender.injectCoalescing(EventCoalescing.fromConfig(config, eventConfig));
+        return sender;
+    }
+
+    @Test
+    public void testLast()
+    {
+        final RecordingTransmitter transmitter = new RecordingTransmitter(2);
+        final NessEventSender sender = createSender("last", "1m", transmitter);
+
+        final UUID user = UUID.randomUUID();
+        for (int i = 0; i < 10; i++) {
+            sender.enqueue(NessEvent.createEvent(user, WAKE, ImmutableMap.of("seq", i)));
+        }
+        sender.enqueue(NessEvent.createEvent(user, SEARCH));
+
+        Assert.assertEquals(1, transmitter.events.size());
+        Assert.assertEquals(SEARCH, transmitter.events.get(0).getType());
+
+        sender.stop();
+
+        Assert.assertEquals(2, transmitter.events.size());
+        final Map<String, ? extends Object> payload = transmitter.events.get(1).getPayload();
+        Assert.assertEquals(9, ((Number) payload.get("seq")).intValue());
+        Assert.assertEquals(9, ((Number) payload.get(NessEventSender.COALESCED_EVENTS_KEY)).intValue());
+        Assert.assertEquals(9L, sender.getCoalescedEventCount());
+    }
+
+    @Test
+    public void testFirstPerUser()
+    {
+        final RecordingTransmitter transmitter = new RecordingTransmitter(3);
+        final NessEventSender sender = createSender("FIRST", "1m", transmitter);
+
+        final UUID user1 = UUID.randomUUID();
+        final UUID user2 = UUID.randomUUID();
+        final NessEvent first = NessEvent.createEvent(user1, WAKE, ImmutableMap.of("seq", 0));
+        sender.enqueue(first);
+        sender.enqueue(NessEvent.createEvent(user1, WAKE, ImmutableMap.of("seq", 1)));
+        sender.enqueue(NessEvent.createEvent(user2, WAKE, ImmutableMap.of("seq", 2)));
+        sender.enqueue(NessEvent.createEvent(null, WAKE, ImmutableMap.of("seq", 3)));
+        Assert.assertTrue(transmitter.events.isEmpty());
+
+        sender.stop();
+
+        Assert.assertEquals(3, transmitter.events.size());
+        for (final NessEvent event : transmitter.events) {
+            if (user1.equals(event.getUser())) {
+                Assert.assertEquals(first.getId(), event.getId());
+                Assert.assertEquals(0, ((Number) event.getPayload().get("seq")).intValue());
+                Assert.assertEquals(1, ((Number) event.getPayload().get(NessEventSender.COALESCED_EVENTS_KEY)).intValue());
+            }
+            else {
+                Assert.assertFalse(event.getPayload().containsKey(NessEventSender.COALESCED_EVENTS_KEY));
+            }
+        }
+        Assert.assertEquals(1L, sender.getCoalescedEventCount());
+    }
+
+    @Test
+    public void testWindowEnds() throws Exception
+    {
+        final RecordingTransmitter transmitter = new RecordingTransmitter(2);
+        final NessEventSender sender = createSender("last", "50ms", transmitter);
+
+        final UUID user = UUID.randomUUID();
+        sender.enqueueAll(Lists.newArrayList(NessEvent.createEvent(user, WAKE, ImmutableMap.of("seq", 0)),
+                                             NessEvent.createEvent(user, WAKE, ImmutableMap.of("seq", 1)),
+                                             NessEvent.createEvent(user, SEARCH)));
+
+        Assert.assertTrue(transmitter.latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(SEARCH, transmitter.events.get(0).getType());
+        Assert.assertEquals(1, ((Number) transmitter.events.get(1).getPayload().get("seq")).intValue());
+        sender.stop();
+    }
+
+    @Test
+    public void testStopAsync()
+    {
+        final Config config = Config.getFixedConfig(ImmutableMap.of("ness.event.coalesce.WAKE", "last",
+                                                                    "ness.event.sender.coalesce-window", "1m",
+                                                                    "ness.event.sender.async", "true"));
+        final NessEventConfig eventConfig = config.getBean(NessEventConfig.class);
+        final RecordingTransmitter transmitter = new RecordingTransmitter(2);
+
+        final NessEventSender sender = new NessEventSender(eventConfig);
+        sender.addEventTransmitter(transmitter);
+        sender.injectCoalescing(EventCoalescing.fromConfig(config, eventConfig));
+
+        final UUID user1 = UUID.randomUUID();
+        final UUID user2 = UUID.randomUUID();
+        for (int i = 0; i < 5; i++) {
+            sender.enqueue(NessEvent.createEvent(user1, WAKE, ImmutableMap.of("seq", i)));
+            sender.enqueue(NessEvent.createEvent(user2, WAKE, ImmutableMap.of("seq", i)));
+        }
+
+        // The held events pass the sender queue before it shuts down.
+        sender.stop();
+        Assert.assertEquals(2, transmitter.events.size());
+        Assert.assertEquals(0L, sender.getDroppedEventCount());
+
+        // After stop, nothing is held back any more.
+        sender.enqueue(NessEvent.createEvent(user1, WAKE));
+        Assert.assertEquals(1L, sender.getDroppedEventCount());
+    }
+
+    private static class RecordingTransmitter implements NessEventTransmitter
+    {
+        private final List<NessEvent> events = Lists.newCopyOnWriteArrayList();
+        private final CountDownLatch latch;
+
+        RecordingTransmitter(final int expectedEvents)
+        {
+            this.latch = new CountDownLatch(expectedEvents);
+        }
+
+        @Override
+        public void transmit(@Nonnull final NessEvent event)
+        {
+            events.add(event);
+            latch.countDown();
+        }
+    }
+}
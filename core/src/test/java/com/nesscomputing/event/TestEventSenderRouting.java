@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.nesscomputing.config.Config;
+
+public class TestEventSenderRouting
+{
+    private static final NessEventType SEARCH = NessEventType.getForName("SEARCH");
+    private static final NessEventType USER_REGISTERED = NessEventType.getForName("USER_REGISTERED");
+    private static final NessEventType USER_DELETED = NessEventType.getForName("USER_DELETED");
+    private static final NessEventType OTHER = NessEventType.getForName("OTHER_EVENT");
+
+    private RecordingTransmitter local;
+    private RecordingTransmitter amqp;
+    private RecordingTransmitter jms;
+    private NessEventSender sender;
+
+    @Before
+    public void setUp()
+    {
+        final Config config = Config.getFixedConfig(ImmutableMap.of("ness.event.transport", "local,amqp,jms",
+                                                                    "ness.event.route.SEARCH", "local",
+                                                                    "ness.event.route.USER_*", "amqp, jms",
+                                                                    "ness.event.route.USER_REGISTERED", "local,amqp"));
+        local = new RecordingTransmitter();
+        amqp = new RecordingTransmitter();
+        jms = new RecordingTransmitter();
+
+        sender = new NessEventSender(config.getBean(NessEventConfig.class));
+        sender.injectTransmitters(ImmutableMap.<String, NessEventTransmitter>of("local", local, "amqp", amqp, "jms", jms));
+        sender.injectRoutes(EventTransportRoutes.fromConfig(config, config.getBean(NessEventConfig.class)));
+    }
+
+    @Test
+    public void testRoutes()
+    {
+        for (final NessEventType eventType : ImmutableList.of(SEARCH, USER_REGISTERED, USER_DELETED, OTHER)) {
+            sender.enqueue(NessEvent.createEvent(UUID.randomUUID(), eventType));
+        }
+
+        Assert.assertEquals(ImmutableList.of(SEARCH, USER_REGISTERED, OTHER), typesOf(local.events));
+        Assert.assertEquals(ImmutableList.of(USER_REGISTERED, USER_DELETED, OTHER), typesOf(amqp.events));
+        Assert.assertEquals(ImmutableList.of(USER_DELETED, OTHER), typesOf(jms.events));
+    }
+
+    @Test
+    public void testRoutesBatch()
+    {
+        final List<NessEvent> events = Lists.newArrayList();
+        for (final NessEventType eventType : ImmutableList.of(SEARCH, USER_REGISTERED, USER_DELETED, OTHER)) {
+            events.add(NessEvent.createEvent(UUID.randomUUID(), eventType));
+        }
+        sender.enqueueAll(events);
+
+        Assert.assertEquals(ImmutableList.of(SEARCH, USER_REGISTERED, OTHER), typesOf(local.events));
+        Assert.assertEquals(ImmutableList.of(USER_REGISTERED, USER_DELETED, OTHER), typesOf(amqp.events));
+        Assert.assertEquals(ImmutableList.of(USER_DELETED, OTHER), typesOf(jms.events));
+    }
+
+    @Test
+    public void testUnnamedTransmitterGetsAllEvents()
+    {
+        final RecordingTransmitter unnamed = new RecordingTransmitter();
+        sender.addEventTransmitter(unnamed);
+
+        sender.enqueue(NessEvent.createEvent(UUID.randomUUID(), SEARCH));
+        sender.enqueue(NessEvent.createEvent(UUID.randomUUID(), USER_DELETED));
+
+        Assert.assertEquals(ImmutableList.of(SEARCH, USER_DELETED), typesOf(unnamed.events));
+        Assert.assertEquals(ImmutableList.of(SEARCH), typesOf(local.events));
+    }
+
+    @Test
+    public void testTypeRegisteredLater()
+    {
+        final NessEventType lateType = NessEventType.getForName("USER_ROUTED_LATE_" + UUID.randomUUID());
+        sender.enqueue(NessEvent.createEvent(UUID.randomUUID(), lateType));
+
+        Assert.assertTrue(local.events.isEmpty());
+        Assert.assertEquals(ImmutableList.of(lateType), typesOf(amqp.events));
+        Assert.assertEquals(ImmutableList.of(lateType), typesOf(jms.events));
+    }
+
+    @Test
+    public void testLowercaseRoutes()
+    {
+        final Config config = Config.getFixedConfig(ImmutableMap.of("ness.event.transport", "local,amqp,jms",
+                                                                    "ness.event.route.search", "local",
+                                                                    "ness.event.route.user_*", "jms"));
+        sender.injectRoutes(EventTransportRoutes.fromConfig(config, config.getBean(NessEventConfig.class)));
+
+        sender.enqueue(NessEvent.createEvent(UUID.randomUUID(), SEARCH));
+        sender.enqueue(NessEvent.createEvent(UUID.randomUUID(), USER_DELETED));
+
+        Assert.assertEquals(ImmutableList.of(SEARCH), typesOf(local.events));
+        Assert.assertTrue(amqp.events.isEmpty());
+        Assert.assertEquals(ImmutableList.of(USER_DELETED), typesOf(jms.events));
+    }
+
+    @Test
+    public void testNoRoutes()
+    {
+        final Map<String, List<String>> noRoutes = ImmutableMap.of();
+        sender.injectRoutes(new EventTransportRoutes(noRoutes));
+        sender.enqueue(NessEvent.createEvent(UUID.randomUUID(), SEARCH));
+
+        Assert.assertEquals(1, local.events.size());
+        Assert.assertEquals(1, amqp.events.size());
+        Assert.assertEquals(1, jms.events.size());
+    }
+
+    private static List<NessEventType> typesOf(final List<NessEvent> events)
+    {
+        final List<NessEventType> types = Lists.newArrayList();
+        for (final NessEvent event : events) {
+            types.add(event.getType());
+        }
+        return types;
+    }
+
+    private static class RecordingTransmitter implements NessEventTransmitter
+    {
+        private final List<NessEvent> events = Lists.newArrayList();
+
+        @Override
+        public void transmit(@Nonnull final NessEvent event)
+        {
+            events.add(event);
+        }
+    }
+}
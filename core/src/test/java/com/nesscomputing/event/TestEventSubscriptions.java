@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Stage;
+import com.nesscomputing.config.Config;
+import com.nesscomputing.config.ConfigModule;
+import com.nesscomputing.event.util.CountingEventReceiver;
+
+public class TestEventSubscriptions
+{
+    private static final NessEventType TEST_EVENT_TYPE = NessEventType.getForName("TEST_EVENT");
+    private static final UUID USER = UUID.randomUUID();
+
+    @Test
+    public void testSubscribeUnsubscribe()
+    {
+        final CountingEventReceiver injected = new CountingEventReceiver(TEST_EVENT_TYPE);
+        final CountingEventReceiver subscribed = new CountingEventReceiver(TEST_EVENT_TYPE);
+
+        final InternalEventDispatcher dispatcher = new InternalEventDispatcher(Config.getEmptyConfig().getBean(NessEventConfig.class));
+        dispatcher.injectEventReceivers(ImmutableSet.<NessEventReceiver>of(injected));
+
+        dispatcher.dispatch(NessEvent.createEvent(USER, TEST_EVENT_TYPE));
+        dispatcher.subscribe(subscribed);
+        dispatcher.subscribe(subscribed);
+        dispatcher.dispatch(NessEvent.createEvent(USER, TEST_EVENT_TYPE));
+        dispatcher.unsubscribe(subscribed);
+        dispatcher.unsubscribe(subscribed);
+        dispatcher.dispatch(NessEvent.createEvent(USER, TEST_EVENT_TYPE));
+
+        Assert.assertEquals(3, injected.getCount());
+        Assert.assertEquals(1, subscribed.getCount());
+
+        dispatcher.unsubscribe(injected);
+        dispatcher.dispatch(NessEvent.createEvent(USER, TEST_EVENT_TYPE));
+        Assert.assertEquals(3, injected.getCount());
+    }
+
+    @Test
+    public void testSubscriptionsBinding()
+    {
+        final Injector injector = Guice.createInjector(Stage.PRODUCTION, ConfigModule.forTesting(), new NessEventModule());
+
+        final NessEventSubscriptions subscriptions = injector.getInstance(NessEventSubscriptions.class);
+        final NessEventDispatcher dispatcher = injector.getInstance(NessEventDispatcher.class);
+        Assert.assertSame(dispatcher, subscriptions);
+
+        final CountingEventReceiver receiver = new CountingEventReceiver(TEST_EVENT_TYPE);
+        subscriptions.subscribe(receiver);
+        dispatcher.dispatch(NessEvent.createEvent(USER, TEST_EVENT_TYPE));
+        Assert.assertEquals(1, receiver.getCount());
+    }
+
+    @Test
+    public void testChurnDuringDispatch() throws Exception
+    {
+        final CountingEventReceiver stable = new CountingEventReceiver(TEST_EVENT_TYPE);
+        final InternalEventDispatcher dispatcher = new InternalEventDispatcher(Config.getEmptyConfig().getBean(NessEventConfig.class));
+        dispatcher.subscribe(stable);
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final Thread churner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (running.get()) {
+                        final CountingEventReceiver receiver = new CountingEventReceiver(TEST_EVENT_TYPE);
+                        dispatcher.subscribe(receiver);
+                        dispatcher.unsubscribe(receiver);
+                    }
+                }
+                catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        });
+        churner.start();
+
+        final int eventCount = 20000;
+        for (int i = 0; i < eventCount; i++) {
+            dispatcher.dispatch(NessEvent.createEvent(USER, TEST_EVENT_TYPE));
+        }
+        running.set(false);
+        churner.join();
+
+        Assert.assertNull(failure.get());
+        Assert.assertEquals(eventCount, stable.getCount());
+    }
+
+    @Test
+    public void testRingBufferUnsubscribe() throws Exception
+    {
+        final CountingEventReceiver receiver = new CountingEventReceiver(TEST_EVENT_TYPE);
+        final NessEventReceiver stalled = new NessEventReceiver() {
+            @Override
+            public boolean accept(final NessEvent event)
+            {
+                return true;
+            }
+
+            @Override
+            public void receive(final NessEvent event)
+            {
+                try {
+                    Thread.sleep(TimeUnit.HOURS.toMillis(1));
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        final InternalEventDispatcher dispatcher = new InternalEventDispatcher(Config.getFixedConfig(ImmutableMap.of("ness.event.dispatch.mode", "RING_BUFFER",
+                                                                                                                     "ness.event.dispatch.ring-size", "4")).getBean(NessEventConfig.class));
+        dispatcher.subscribe(receiver);
+        dispatcher.subscribe(stalled);
+        dispatcher.dispatch(NessEvent.createEvent(USER, TEST_EVENT_TYPE));
+
+        // The stalled consumer would block publishing once the ring is full.
+        dispatcher.unsubscribe(stalled);
+        Assert.assertFalse(dispatcher.getQueueDepths().containsKey(stalled));
+
+        for (int i = 0; i < 20; i++) {
+            dispatcher.dispatch(NessEvent.createEvent(USER, TEST_EVENT_TYPE));
+        }
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (receiver.getCount() < 21 && System.nanoTime() < deadline) {
+            Thread.sleep(5L);
+        }
+        dispatcher.stop();
+
+        Assert.assertEquals(21, receiver.getCount());
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.nesscomputing.config.Config;
+
+public class TestExecutorEventDispatch
+{
+    private static final NessEventType TEST_EVENT_TYPE = NessEventType.getForName("TEST_EVENT");
+    private static final UUID USER = UUID.randomUUID();
+
+    @Test
+    public void testReceiveRunsConcurrently() throws Exception
+    {
+        final BlockingReceiver receiver = new BlockingReceiver(4);
+        final InternalEventDispatcher dispatcher = createDispatcher("4");
+        dispatcher.injectEventReceivers(ImmutableSet.<NessEventReceiver>of(receiver));
+
+        for (int i = 0; i < 4; i++) {
+            dispatcher.dispatch(NessEvent.createEvent(USER, TEST_EVENT_TYPE));
+        }
+
+        // All four calls block until all four are in flight.
+        Assert.assertTrue(receiver.awaitArrivals());
+        Assert.assertEquals(Integer.valueOf(4), dispatcher.getQueueDepths().get(receiver));
+
+        receiver.release();
+        dispatcher.stop();
+    }
+
+    @Test
+    public void testConcurrencyLimit() throws Exception
+    {
+        final BlockingReceiver receiver = new BlockingReceiver(2);
+        final InternalEventDispatcher dispatcher = createDispatcher("2");
+        dispatcher.injectEventReceivers(ImmutableSet.<NessEventReceiver>of(receiver));
+
+        dispatcher.dispatch(NessEvent.createEvent(USER, TEST_EVENT_TYPE));
+        dispatcher.dispatch(NessEvent.createEvent(USER, TEST_EVENT_TYPE));
+        Assert.assertTrue(receiver.awaitArrivals());
+
+        final CountDownLatch dispatched = new CountDownLatch(1);
+        final Thread dispatchThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatcher.dispatch(NessEvent.createEvent(USER, TEST_EVENT_TYPE));
+                dispatched.countDown();
+            }
+        });
+        dispatchThread.start();
+
+        // The third dispatch waits for a permit.
+        Assert.assertFalse(dispatched.await(100L, TimeUnit.MILLISECONDS));
+
+        receiver.release();
+        Assert.assertTrue(dispatched.await(5L, TimeUnit.SECONDS));
+        dispatchThread.join();
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (receiver.getCount() < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(5L);
+        }
+        Assert.assertEquals(3, receiver.getCount());
+        Assert.assertEquals(2, receiver.getMaxInFlight());
+
+        dispatcher.stop();
+    }
+
+    private InternalEventDispatcher createDispatcher(final String concurrency)
+    {
+        return new InternalEventDispatcher(Config.getFixedConfig(ImmutableMap.of("ness.event.dispatch.mode", "EXECUTOR",
+                                                                                 "ness.event.executor.receiver-concurrency", concurrency)).getBean(NessEventConfig.class));
+    }
+
+    public static class BlockingReceiver implements NessEventReceiver
+    {
+        private final CountDownLatch arrivals;
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicInteger count = new AtomicInteger();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+
+        public BlockingReceiver(final int expectedArrivals)
+        {
+            this.arrivals = new CountDownLatch(expectedArrivals);
+        }
+
+        @Override
+        public boolean accept(final NessEvent event)
+        {
+            return true;
+        }
+
+        @Override
+        public void receive(final NessEvent event)
+        {
+            final int current = inFlight.incrementAndGet();
+            int max;
+            while ((max = maxInFlight.get()) < current && !maxInFlight.compareAndSet(max, current)) {
+                continue;
+            }
+
+            arrivals.countDown();
+            try {
+                release.await();
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            count.incrementAndGet();
+            inFlight.decrementAndGet();
+        }
+
+        public boolean awaitArrivals() throws InterruptedException
+        {
+            return arrivals.await(5L, TimeUnit.SECONDS);
+        }
+
+        public void release()
+        {
+            release.countDown();
+        }
+
+        public int getCount()
+        {
+            return count.get();
+        }
+
+        public int getMaxInFlight()
+        {
+            return maxInFlight.get();
+        }
+    }
+}
@@ -146,4 +146,24 @@ public class TestNessEvent
                               null,
                               PAYLOAD);
     }
+
+    @Test
+    public void testTimestampMillis()
+    {
+        final NessEvent event = NessEvent.createEvent(USER_ID, TIMESTAMP.getMillis(), TYPE, PAYLOAD);
+
+        Assert.assertEquals(TIMESTAMP.getMillis(), event.getTimestampMillis());
+        Assert.assertEquals(TIMESTAMP, event.getTimestamp());
+        Assert.assertSame(event.getTimestamp(), event.getTimestamp());
+    }
+
+    @Test
+    public void testTimestampIsUtc()
+    {
+        final DateTime timestamp = new DateTime(DateTimeZone.forOffsetHours(5));
+        final NessEvent event = NessEvent.createEvent(USER_ID, timestamp, TYPE, PAYLOAD);
+
+        Assert.assertEquals(timestamp.getMillis(), event.getTimestampMillis());
+        Assert.assertEquals(DateTimeZone.UTC, event.getTimestamp().getZone());
+    }
 }
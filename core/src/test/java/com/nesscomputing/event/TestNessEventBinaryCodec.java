@@ -0,0 +1,216 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.joda.JodaModule;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.apache.commons.io.Charsets;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestNessEventBinaryCodec
+{
+    private static final UUID USER = UUID.fromString("00000000-0000-04d2-c000-000000026810");
+
+    private ObjectMapper mapper;
+    private NessEventBinaryCodec codec;
+    private NessEventDecoder decoder;
+
+    @Before
+    public void setUp()
+    {
+        mapper = new ObjectMapper();
+        mapper.registerModule(new JodaModule());
+        mapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+        codec = new NessEventBinaryCodec(mapper);
+        decoder = new NessEventDecoder(mapper);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        final Map<String, Object> payload = NessEventPayload.builder()
+            .put("string", "mac and cheese")
+            .put("int", -42)
+            .put("long", 1L << 40)
+            .put("double", 99.9153705888414)
+            .put("true", true)
+            .put("false", false)
+            .put("null", null)
+            .put("big", new BigInteger("123456789012345678901234567890"))
+            .put("decimal", new BigDecimal("1.50"))
+            .put("list", ImmutableList.of(1, "two", ImmutableMap.of("three", 3L)))
+            .put("map", ImmutableMap.of("nested", ImmutableList.of()))
+            .build();
+        final NessEvent event = NessEvent.createEvent(USER, NessEventTypes.SEARCH, payload);
+
+        final byte [] data = codec.encode(event);
+        Assert.assertTrue(NessEventBinaryCodec.isBinary(data));
+
+        final NessEvent decoded = codec.decode(data);
+        Assert.assertEquals(event, decoded);
+        Assert.assertEquals(event.getTimestampMillis(), decoded.getTimestampMillis());
+        Assert.assertNull(decoded.getPayload().get("null"));
+        Assert.assertTrue(decoded.getPayload().containsKey("null"));
+    }
+
+    @Test
+    public void testSystemEvent() throws IOException
+    {
+        final NessEvent event = NessEvent.createEvent(null, -1L, NessEventTypes.SEARCH, null);
+        final NessEvent decoded = codec.decode(codec.encode(event));
+
+        Assert.assertEquals(event, decoded);
+        Assert.assertNull(decoded.getUser());
+        Assert.assertEquals(-1L, decoded.getTimestampMillis());
+    }
+
+    @Test
+    public void testSmallerThanJson() throws IOException
+    {
+        final NessEvent event = NessEvent.createEvent(USER, NessEventTypes.SEARCH, ImmutableMap.of("searchStr", "mac and cheese", "udid", "wizbang"));
+        Assert.assertTrue(codec.encode(event).length < mapper.writeValueAsBytes(event).length);
+    }
+
+    @Test
+    public void testOtherValuesMatchJson() throws IOException
+    {
+        final DateTime when = new DateTime("2011-03-03T14:41:56.279", DateTimeZone.UTC);
+        final NessEvent event = NessEvent.createEvent(USER, NessEventTypes.SEARCH, ImmutableMap.of("when", when, "id", USER));
+
+        final NessEvent fromJson = decoder.decode(mapper.writeValueAsBytes(event));
+        final NessEvent fromBinary = decoder.decode(codec.encode(event));
+        Assert.assertEquals(fromJson, fromBinary);
+    }
+
+    @Test
+    public void testByteArrayMatchesJson() throws IOException
+    {
+        final NessEvent event = NessEvent.createEvent(USER, NessEventTypes.SEARCH, ImmutableMap.of("data", new byte [] { 1, 2, 3, (byte) 0xff }));
+
+        final NessEvent fromJson = decoder.decode(mapper.writeValueAsBytes(event));
+        final NessEvent fromBinary = decoder.decode(codec.encode(event));
+        Assert.assertEquals(fromJson, fromBinary);
+        Assert.assertEquals("AQID/w==", fromBinary.getPayload().get("data"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnconvertibleValue()
+    {
+        // A mapper that can not turn the value into anything simpler.
+        final ObjectMapper identityMapper = new ObjectMapper() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public <T> T convertValue(final Object fromValue, final Class<T> toValueType)
+            {
+                return toValueType.cast(fromValue);
+            }
+        };
+
+        new NessEventBinaryCodec(identityMapper).encode(NessEvent.createEvent(USER, NessEventTypes.SEARCH, ImmutableMap.of("value", new Object())));
+    }
+
+    @Test
+    public void testDecoderSelectsFormat() throws IOException
+    {
+        final NessEvent event = NessEvent.createEvent(USER, NessEventTypes.SEARCH, ImmutableMap.of("udid", "wizbang"));
+
+        Assert.assertEquals(event, decoder.decode(codec.encode(event)));
+        Assert.assertEquals(event, decoder.decode(codec.encode(event), NessEventBinaryCodec.CONTENT_TYPE));
+        Assert.assertEquals(event, decoder.decode(mapper.writeValueAsBytes(event), "application/json"));
+        Assert.assertFalse(NessEventBinaryCodec.isBinary(mapper.writeValueAsBytes(event)));
+    }
+
+    @Test
+    public void testOlderJsonVersion() throws IOException
+    {
+        // As written by version 2 nodes, they keep sending this during a rollout.
+        final String json = "{\"v\":2,\"id\":\"5ad87404-9c14-4edd-ae52-7c26eb472f03\",\"user\":\"" + USER + "\",\"timestamp\":1299163316279,\"type\":\"SEARCH\",\"payload\":{\"udid\":\"wizbang\"}}";
+        final NessEvent expected = new NessEvent(USER, 1299163316279L, NessEventTypes.SEARCH, ImmutableMap.of("udid", "wizbang"), UUID.fromString("5ad87404-9c14-4edd-ae52-7c26eb472f03"));
+
+        Assert.assertEquals(expected, decoder.decode(json.getBytes(Charsets.UTF_8)));
+        Assert.assertEquals(expected, decoder.decode(json));
+        Assert.assertEquals(expected, mapper.readValue(json, NessEvent.class));
+
+        final ObjectMapper streamingMapper = new ObjectMapper();
+        streamingMapper.registerModule(new NessEventJacksonModule());
+        Assert.assertEquals(expected, streamingMapper.readValue(json, NessEvent.class));
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownVersion() throws IOException
+    {
+        final byte [] data = codec.encode(NessEvent.createEvent(USER, NessEventTypes.SEARCH));
+        data[2] = (byte) (NessEvent.EVENT_VERSION + 1);
+        codec.decode(data);
+    }
+
+    @Test
+    public void testNestingLimit() throws IOException
+    {
+        Object value = "x";
+        for (int i = 0; i < NessEventBinaryCodec.MAX_DEPTH; i++) {
+            value = ImmutableList.of(value);
+        }
+        final NessEvent event = NessEvent.createEvent(USER, NessEventTypes.SEARCH, ImmutableMap.of("a", value));
+        Assert.assertEquals(event, codec.decode(codec.encode(event)));
+
+        try {
+            codec.decode(codec.encode(NessEvent.createEvent(USER, NessEventTypes.SEARCH, ImmutableMap.of("a", ImmutableList.of(value)))));
+            Assert.fail();
+        }
+        catch (IOException ioe) {
+            // expected
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testHostileNesting() throws IOException
+    {
+        // Replace the string value (tag, length, 'x') with a list nested 100000 levels deep.
+        final byte [] data = codec.encode(NessEvent.createEvent(USER, NessEventTypes.SEARCH, ImmutableMap.of("a", "x")));
+        final int depth = 100000;
+        final byte [] hostile = Arrays.copyOf(data, data.length - 3 + depth * 2 + 1);
+        for (int i = 0; i < depth; i++) {
+            hostile[data.length - 3 + i * 2] = 9;
+            hostile[data.length - 3 + i * 2 + 1] = 1;
+        }
+        codec.decode(hostile);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws IOException
+    {
+        final byte [] data = codec.encode(NessEvent.createEvent(USER, NessEventTypes.SEARCH, ImmutableMap.of("udid", "wizbang")));
+        codec.decode(Arrays.copyOf(data, data.length - 3));
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.joda.JodaModule;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.apache.commons.io.Charsets;
+import org.apache.commons.io.IOUtils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestNessEventDecoder
+{
+    private static final UUID USER = UUID.fromString("00000000-0000-04d2-c000-000000026810");
+
+    private ObjectMapper mapper;
+    private NessEventDecoder decoder;
+
+    @Before
+    public void setUp()
+    {
+        mapper = new ObjectMapper();
+        mapper.registerModule(new JodaModule());
+        mapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+        decoder = new NessEventDecoder(mapper);
+    }
+
+    @Test
+    public void testDecodeMatchesMapper() throws IOException
+    {
+        final String json = IOUtils.toString(getClass().getResourceAsStream("/serializedEvent.json"), Charsets.UTF_8);
+        final NessEvent expected = mapper.readValue(json, NessEvent.class);
+
+        final NessEvent fromText = decoder.decode(json);
+        final NessEvent fromBytes = decoder.decode(json.getBytes(Charsets.UTF_8));
+
+        Assert.assertEquals(expected, fromText);
+        Assert.assertEquals(expected, fromBytes);
+        Assert.assertEquals(expected.getTimestamp(), fromBytes.getTimestamp());
+    }
+
+    @Test
+    public void testPayloadIsLazy() throws IOException
+    {
+        final NessEvent event = NessEvent.createEvent(USER, NessEventTypes.SEARCH, ImmutableMap.of("nested", ImmutableMap.of("list", ImmutableList.of(1, 2, 3)),
+                                                                                                "text", "{\"not\":\"json\"}",
+                                                                                                "flag", true));
+        final byte [] data = mapper.writeValueAsBytes(event);
+
+        final NessEvent decoded = decoder.decode(data);
+        Assert.assertTrue(decoded instanceof LazyNessEvent);
+        Assert.assertEquals(event.getId(), decoded.getId());
+        Assert.assertEquals(USER, decoded.getUser());
+        Assert.assertEquals(NessEventTypes.SEARCH, decoded.getType());
+        Assert.assertFalse(((LazyNessEvent) decoded).isPayloadDecoded());
+
+        final Map<String, ? extends Object> payload = decoded.getPayload();
+        Assert.assertTrue(((LazyNessEvent) decoded).isPayloadDecoded());
+        Assert.assertTrue(payload instanceof NessEventPayload);
+        Assert.assertSame(payload, decoded.getPayload());
+        Assert.assertEquals(event.getPayload(), payload);
+        Assert.assertEquals(ImmutableList.of(1, 2, 3), ((Map<?, ?>) payload.get("nested")).get("list"));
+        Assert.assertTrue(((Map<?, ?>) payload.get("nested")).get("list") instanceof List);
+    }
+
+    @Test
+    public void testMissingAndNullPayload() throws IOException
+    {
+        final NessEvent missing = decoder.decode("{\"id\":\"5ad87404-9c14-4edd-ae52-7c26eb472f03\",\"type\":\"SEARCH\",\"v\":2}");
+        Assert.assertTrue(missing.getPayload().isEmpty());
+        Assert.assertNull(missing.getUser());
+        Assert.assertNotNull(missing.getTimestamp());
+
+        final NessEvent nullPayload = decoder.decode("{\"id\":\"5ad87404-9c14-4edd-ae52-7c26eb472f03\",\"type\":\"SEARCH\",\"payload\":null,\"user\":null}");
+        Assert.assertTrue(nullPayload.getPayload().isEmpty());
+    }
+
+    @Test
+    public void testTimestampFormats() throws IOException
+    {
+        final DateTime timestamp = new DateTime("2011-03-03T14:41:56.279", DateTimeZone.UTC);
+
+        final NessEvent numeric = decoder.decode("{\"id\":\"5ad87404-9c14-4edd-ae52-7c26eb472f03\",\"type\":\"SEARCH\",\"timestamp\":" + timestamp.getMillis() + "}");
+        Assert.assertEquals(timestamp, numeric.getTimestamp());
+
+        final NessEvent text = decoder.decode("{\"id\":\"5ad87404-9c14-4edd-ae52-7c26eb472f03\",\"type\":\"SEARCH\",\"timestamp\":\"2011-03-03T14:41:56.279Z\"}");
+        Assert.assertEquals(timestamp.getMillis(), text.getTimestamp().getMillis());
+    }
+
+    @Test(expected = IOException.class)
+    public void testMalformedPayloadFailsEagerly() throws IOException
+    {
+        decoder.decode("{\"id\":\"5ad87404-9c14-4edd-ae52-7c26eb472f03\",\"type\":\"SEARCH\",\"payload\":{\"a\":[1,2}}");
+    }
+
+    @Test(expected = IOException.class)
+    public void testIdRequired() throws IOException
+    {
+        decoder.decode("{\"type\":\"SEARCH\",\"payload\":{}}");
+    }
+}
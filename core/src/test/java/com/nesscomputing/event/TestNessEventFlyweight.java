@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.UUID;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestNessEventFlyweight
+{
+    private static final UUID USER = UUID.fromString("00000000-0000-04d2-c000-000000026810");
+
+    private final NessEventBinaryCodec codec = new NessEventBinaryCodec(new ObjectMapper());
+
+    @Test
+    public void testSlots() throws Exception
+    {
+        final List<NessEvent> events = Lists.newArrayList(NessEvent.createEvent(USER, NessEventTypes.SEARCH, ImmutableMap.of("udid", "wizbang")),
+                                                          NessEvent.createEvent(null, -5L, NessEventTypes.RATED, null),
+                                                          NessEvent.createEvent(USER, NessEventType.getForName("FLYWEIGHT_\u00e9v\u00e9nement"), ImmutableMap.of("n", 1)));
+
+        for (final ByteBuffer buffer : new ByteBuffer [] { ByteBuffer.allocate(4096), ByteBuffer.allocateDirect(4096) }) {
+            final int [] offsets = new int[events.size()];
+            final int [] lengths = new int[events.size()];
+            buffer.position(7);
+            for (int i = 0; i < events.size(); i++) {
+                final byte [] data = codec.encode(events.get(i));
+                offsets[i] = buffer.position();
+                lengths[i] = data.length;
+                buffer.put(data);
+            }
+            final int position = buffer.position();
+
+            final NessEventFlyweight flyweight = new NessEventFlyweight();
+            for (int i = 0; i < events.size(); i++) {
+                final NessEvent event = events.get(i);
+                Assert.assertSame(flyweight, flyweight.wrap(buffer, offsets[i], lengths[i]));
+
+                Assert.assertEquals(event.getId(), flyweight.getId());
+                Assert.assertEquals(event.getUser() != null, flyweight.hasUser());
+                Assert.assertEquals(event.getUser(), flyweight.getUser());
+                Assert.assertEquals(event.getTimestampMillis(), flyweight.getTimestampMillis());
+                Assert.assertEquals(event.getType(), flyweight.getType());
+                Assert.assertTrue(flyweight.isType(event.getType()));
+                Assert.assertEquals(event.getType() == NessEventTypes.SEARCH, flyweight.isType(NessEventTypes.SEARCH));
+                Assert.assertEquals(event, flyweight.toEvent());
+            }
+
+            // Reading never moves the buffer.
+            Assert.assertEquals(position, buffer.position());
+        }
+    }
+
+    @Test
+    public void testEncodeIntoBuffer() throws Exception
+    {
+        final NessEvent event1 = NessEvent.createEvent(USER, NessEventTypes.SEARCH, ImmutableMap.of("udid", "wizbang"));
+        final NessEvent event2 = NessEvent.createEvent(null, NessEventTypes.RATED, ImmutableMap.of("rating", 4));
+
+        for (final ByteBuffer buffer : new ByteBuffer [] { ByteBuffer.allocate(256), ByteBuffer.allocateDirect(256) }) {
+            buffer.position(3);
+            final int length1 = codec.encode(event1, buffer);
+            final int length2 = codec.encode(event2, buffer);
+            Assert.assertEquals(3 + length1 + length2, buffer.position());
+
+            final NessEventFlyweight flyweight = new NessEventFlyweight();
+            Assert.assertEquals(event1, flyweight.wrap(buffer, 3, length1).toEvent());
+            Assert.assertEquals(event2, flyweight.wrap(buffer, 3 + length1, length2).toEvent());
+            Assert.assertTrue(flyweight.isType(NessEventTypes.RATED));
+        }
+    }
+
+    @Test
+    public void testEncodeOverflow()
+    {
+        final ByteBuffer buffer = ByteBuffer.allocate(20);
+        try {
+            codec.encode(NessEvent.createEvent(USER, NessEventTypes.SEARCH), buffer);
+            Assert.fail();
+        }
+        catch (BufferOverflowException boe) {
+            Assert.assertEquals(0, buffer.position());
+        }
+    }
+
+    @Test
+    public void testTruncated() throws Exception
+    {
+        final NessEvent event = NessEvent.createEvent(USER, 1327531243690L, NessEventTypes.SEARCH, ImmutableMap.<String, Object>of("udid", "wizbang"));
+        final byte [] data = codec.encode(event);
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+
+        // header, ids, timestamp (a six byte varint) and the type name make up the envelope.
+        final int envelopeLength = 4 + 16 + 16 + 6 + 1 + NessEventTypes.SEARCH.getName().length();
+        final NessEventFlyweight flyweight = new NessEventFlyweight();
+        for (int length = 0; length < envelopeLength; length++) {
+            try {
+                flyweight.wrap(buffer, 0, length);
+                Assert.fail("wrapped " + length + " bytes");
+            }
+            catch (IllegalArgumentException iae) {
+                // expected
+            }
+        }
+
+        // The envelope is complete, the payload is only checked when decoding.
+        for (int length = envelopeLength; length < data.length; length++) {
+            flyweight.wrap(buffer, 0, length);
+            Assert.assertEquals(USER, flyweight.getUser());
+            Assert.assertTrue(flyweight.isType(NessEventTypes.SEARCH));
+            try {
+                flyweight.toEvent();
+                Assert.fail("decoded " + length + " bytes");
+            }
+            catch (IOException ioe) {
+                // expected
+            }
+        }
+        Assert.assertEquals(event, flyweight.wrap(buffer, 0, data.length).toEvent());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotBinary()
+    {
+        new NessEventFlyweight().wrap(ByteBuffer.wrap(new byte[64]), 0, 64);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnbound()
+    {
+        new NessEventFlyweight().getTimestampMillis();
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.joda.JodaModule;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Stage;
+import com.google.inject.TypeLiteral;
+import com.nesscomputing.config.ConfigModule;
+
+import org.apache.commons.io.Charsets;
+import org.apache.commons.io.IOUtils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestNessEventJacksonModule
+{
+    private static final DateTime ENTRY_TIMESTAMP = new DateTime("2011-03-03T14:41:56.279", DateTimeZone.UTC);
+    private static final UUID USER = UUID.fromString("00000000-0000-04d2-c000-000000026810");
+
+    private ObjectMapper reflectiveMapper;
+    private ObjectMapper mapper;
+
+    @Before
+    public void setUp()
+    {
+        reflectiveMapper = new ObjectMapper();
+        reflectiveMapper.registerModule(new JodaModule());
+        reflectiveMapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+        mapper = new ObjectMapper();
+        mapper.registerModule(new JodaModule());
+        mapper.registerModule(new NessEventJacksonModule());
+        mapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    }
+
+    @Test
+    public void testSerializeMatchesReflective() throws IOException
+    {
+        final Map<String, Object> payload = ImmutableMap.<String, Object>of("searchStr", "mac and cheese",
+                                                                            "count", 3,
+                                                                            "when", ENTRY_TIMESTAMP,
+                                                                            "nested", ImmutableMap.of("list", ImmutableList.of(1.5, "two")));
+        for (final NessEvent event : new NessEvent [] { NessEvent.createEvent(USER, ENTRY_TIMESTAMP, NessEventTypes.SEARCH, payload),
+                                                         NessEvent.createEvent(null, NessEventTypes.SEARCH),
+                                                         NessEvent.createEvent(null, NessEventTypes.SEARCH, Collections.<String, Object>singletonMap("test", null)) }) {
+            Assert.assertEquals(reflectiveMapper.readValue(reflectiveMapper.writeValueAsString(event), TreeMap.class),
+                                reflectiveMapper.readValue(mapper.writeValueAsString(event), TreeMap.class));
+        }
+    }
+
+    @Test
+    public void testDeserializeMatchesReflective() throws IOException
+    {
+        final String json = IOUtils.toString(getClass().getResourceAsStream("/serializedEvent.json"), Charsets.UTF_8);
+
+        final NessEvent expected = reflectiveMapper.readValue(json, NessEvent.class);
+        final NessEvent event = mapper.readValue(json, NessEvent.class);
+        Assert.assertEquals(expected, event);
+        Assert.assertEquals(ENTRY_TIMESTAMP, event.getTimestamp());
+        Assert.assertTrue(event.getPayload() instanceof NessEventPayload);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        final NessEvent event = NessEvent.createEvent(USER, NessEventTypes.SEARCH, ImmutableMap.of("nested", ImmutableMap.of("list", ImmutableList.of(1, 2, 3)),
+                                                                                                "flag", true,
+                                                                                                "missing", "x"));
+        Assert.assertEquals(event, mapper.readValue(mapper.writeValueAsBytes(event), NessEvent.class));
+
+        // Lazily decoded events are written the same way.
+        final NessEvent lazy = new NessEventDecoder(mapper).decode(mapper.writeValueAsBytes(event));
+        Assert.assertEquals(event, mapper.readValue(mapper.writeValueAsString(lazy), NessEvent.class));
+    }
+
+    @Test
+    public void testTimestamps() throws IOException
+    {
+        final String iso = "{\"id\":\"5ad87404-9c14-4edd-ae52-7c26eb472f03\",\"type\":\"SEARCH\",\"timestamp\":\"2011-03-03T14:41:56.279Z\",\"unknown\":{\"a\":[1]}}";
+        Assert.assertEquals(ENTRY_TIMESTAMP, mapper.readValue(iso, NessEvent.class).getTimestamp());
+
+        final String missing = "{\"id\":\"5ad87404-9c14-4edd-ae52-7c26eb472f03\",\"type\":\"SEARCH\",\"payload\":null}";
+        final NessEvent event = mapper.readValue(missing, NessEvent.class);
+        Assert.assertNotNull(event.getTimestamp());
+        Assert.assertTrue(event.getPayload().isEmpty());
+    }
+
+    @Test
+    public void testInList() throws IOException
+    {
+        final NessEvent event = NessEvent.createEvent(USER, NessEventTypes.SEARCH, ImmutableMap.of("udid", "wizbang"));
+        final NessEvent [] events = mapper.readValue(mapper.writeValueAsString(new NessEvent [] { event, event }), NessEvent [].class);
+        Assert.assertEquals(2, events.length);
+        Assert.assertEquals(event, events[1]);
+    }
+
+    @Test
+    public void testBoundByEventModule()
+    {
+        final Injector injector = Guice.createInjector(Stage.PRODUCTION,
+                                                       ConfigModule.forTesting(),
+                                                       new NessEventModule());
+
+        final Set<Module> modules = injector.getInstance(Key.get(new TypeLiteral<Set<Module>>() {}));
+        Assert.assertEquals(1, modules.size());
+        Assert.assertTrue(Iterables.getOnlyElement(modules) instanceof NessEventJacksonModule);
+    }
+
+    @Test(expected = JsonMappingException.class)
+    public void testIdRequired() throws IOException
+    {
+        mapper.readValue("{\"type\":\"SEARCH\",\"payload\":{}}", NessEvent.class);
+    }
+}
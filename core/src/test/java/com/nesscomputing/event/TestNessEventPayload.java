@@ -0,0 +1,296 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+public class TestNessEventPayload
+{
+    private static final NessEventType TYPE = NessEventType.getForName("TestNessEventPayload");
+
+    @Test
+    public void testSmallPayload()
+    {
+        final Map<String, Object> source = new HashMap<String, Object>();
+        source.put("hello", "world");
+        source.put("answer", 42);
+        source.put("nothing", null);
+
+        final NessEventPayload payload = NessEventPayload.copyOf(source);
+        Assert.assertEquals(3, payload.size());
+        Assert.assertEquals("world", payload.get("hello"));
+        Assert.assertEquals(42, payload.get("answer"));
+        Assert.assertNull(payload.get("nothing"));
+        Assert.assertTrue(payload.containsKey("nothing"));
+        Assert.assertFalse(payload.containsKey("missing"));
+        Assert.assertNull(payload.get(null));
+
+        Assert.assertEquals(source, payload);
+        Assert.assertEquals(payload, source);
+        Assert.assertEquals(source.hashCode(), payload.hashCode());
+    }
+
+    @Test
+    public void testLargePayload()
+    {
+        final Map<String, Object> source = new HashMap<String, Object>();
+        for (int i = 0; i < 100; i++) {
+            source.put("key-" + i, i);
+        }
+
+        final NessEventPayload payload = NessEventPayload.copyOf(source);
+        Assert.assertEquals(100, payload.size());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(i, payload.get("key-" + i));
+        }
+        Assert.assertFalse(payload.containsKey("key-100"));
+        Assert.assertEquals(source, payload);
+    }
+
+    @Test
+    public void testBuilder()
+    {
+        final NessEventPayload.Builder builder = NessEventPayload.builder();
+        for (int i = 0; i < 20; i++) {
+            builder.put("key-" + i, i);
+        }
+        builder.put("key-3", "three");
+        builder.put("key-15", "fifteen");
+        builder.put(null, "null key");
+
+        final NessEventPayload payload = builder.build();
+        Assert.assertEquals(21, payload.size());
+        Assert.assertEquals("three", payload.get("key-3"));
+        Assert.assertEquals("fifteen", payload.get("key-15"));
+        Assert.assertEquals("null key", payload.get(null));
+
+        // Insertion order is kept.
+        final Iterator<String> keys = payload.keySet().iterator();
+        Assert.assertEquals("key-0", keys.next());
+        Assert.assertEquals("key-1", keys.next());
+
+        Assert.assertSame(NessEventPayload.EMPTY, NessEventPayload.builder().build());
+    }
+
+    @Test
+    public void testImmutable()
+    {
+        final NessEventPayload payload = NessEventPayload.builder().put("hello", "world").build();
+
+        try {
+            payload.put("foo", "bar");
+            Assert.fail();
+        }
+        catch (UnsupportedOperationException uoe) {
+            // ok
+        }
+        try {
+            payload.clear();
+            Assert.fail();
+        }
+        catch (UnsupportedOperationException uoe) {
+            // ok
+        }
+        try {
+            payload.entrySet().iterator().next().setValue("bar");
+            Assert.fail();
+        }
+        catch (UnsupportedOperationException uoe) {
+            // ok
+        }
+        Assert.assertEquals(ImmutableList.of("world"), Lists.newArrayList(payload.values()));
+    }
+
+    @Test
+    public void testEventSkipsCopy()
+    {
+        final NessEventPayload payload = NessEventPayload.builder().put("hello", "world").build();
+        Assert.assertSame(payload, NessEvent.createEvent(UUID.randomUUID(), TYPE, payload).getPayload());
+
+        final ImmutableMap<String, Object> immutablePayload = ImmutableMap.<String, Object>of("hello", "world");
+        Assert.assertSame(immutablePayload, NessEvent.createEvent(UUID.randomUUID(), TYPE, immutablePayload).getPayload());
+
+        final Map<String, Object> mutablePayload = new HashMap<String, Object>(immutablePayload);
+        final NessEvent event = NessEvent.createEvent(UUID.randomUUID(), TYPE, mutablePayload);
+        mutablePayload.put("foo", "bar");
+        Assert.assertTrue(event.getPayload() instanceof NessEventPayload);
+        Assert.assertEquals(immutablePayload, event.getPayload());
+
+        Assert.assertSame(NessEventPayload.EMPTY, NessEvent.createEvent(UUID.randomUUID(), TYPE, Collections.<String, Object>emptyMap()).getPayload());
+        Assert.assertSame(NessEventPayload.EMPTY, NessEvent.createEvent(UUID.randomUUID(), TYPE, null).getPayload());
+    }
+
+    @Test
+    public void testPrimitives()
+    {
+        final NessEventPayload payload = NessEventPayload.builder()
+            .putInt("count", 3)
+            .putLong("latency", 1L << 40)
+            .putDouble("score", 0.75)
+            .put("boxed", 12)
+            .put("text", "twelve")
+            .put("nothing", null)
+            .build();
+
+        Assert.assertEquals(3L, payload.getLong("count"));
+        Assert.assertEquals(1L << 40, payload.getLong("latency"));
+        Assert.assertEquals(0.75, payload.getDouble("score"), 0.0);
+        Assert.assertEquals(0L, payload.getLong("score"));
+        Assert.assertEquals(3.0, payload.getDouble("count"), 0.0);
+        Assert.assertEquals(12L, payload.getLong("boxed"));
+        Assert.assertEquals(-1L, payload.getLong("missing", -1L));
+        Assert.assertEquals(-1L, payload.getLong("nothing", -1L));
+        Assert.assertEquals(0.5, payload.getDouble("missing", 0.5), 0.0);
+
+        Assert.assertEquals(NessEventPayload.KIND_INT, payload.kindAt(0));
+        Assert.assertEquals(NessEventPayload.KIND_OBJECT, payload.kindAt(3));
+
+        // The map view boxes with the type that was put.
+        final Map<String, Object> expected = new HashMap<String, Object>();
+        expected.put("count", 3);
+        expected.put("latency", 1L << 40);
+        expected.put("score", 0.75);
+        expected.put("boxed", 12);
+        expected.put("text", "twelve");
+        expected.put("nothing", null);
+        Assert.assertEquals(expected, payload);
+        Assert.assertEquals(expected.hashCode(), payload.hashCode());
+        Assert.assertEquals(Integer.valueOf(3), payload.get("count"));
+
+        try {
+            payload.getLong("text");
+            Assert.fail();
+        }
+        catch (IllegalArgumentException iae) {
+            // ok
+        }
+        try {
+            payload.getDouble("missing");
+            Assert.fail();
+        }
+        catch (IllegalArgumentException iae) {
+            // ok
+        }
+    }
+
+    @Test
+    public void testEventAccessors()
+    {
+        // Stored as is, not as a NessEventPayload.
+        final NessEvent event = NessEvent.createEvent(UUID.randomUUID(), TYPE, ImmutableMap.<String, Object>of("count", 3, "score", 0.75, "text", "x"));
+        Assert.assertFalse(event.getPayload() instanceof NessEventPayload);
+
+        final NessEvent unboxed = NessEvent.createEvent(UUID.randomUUID(), TYPE, NessEventPayload.builder().putInt("count", 3).putDouble("score", 0.75).put("text", "x").build());
+
+        for (final NessEvent e : new NessEvent [] { event, unboxed }) {
+            Assert.assertEquals(3L, e.getLong("count"));
+            Assert.assertEquals(0L, e.getLong("score"));
+            Assert.assertEquals(0.75, e.getDouble("score"), 0.0);
+            Assert.assertEquals(3.0, e.getDouble("count"), 0.0);
+            Assert.assertEquals(-1L, e.getLong("missing", -1L));
+            Assert.assertEquals(0.5, e.getDouble("missing", 0.5), 0.0);
+
+            try {
+                e.getLong("text");
+                Assert.fail();
+            }
+            catch (IllegalArgumentException iae) {
+                // ok
+            }
+            try {
+                e.getDouble("missing");
+                Assert.fail();
+            }
+            catch (IllegalArgumentException iae) {
+                // ok
+            }
+        }
+    }
+
+    @Test
+    public void testPutAllUnboxes()
+    {
+        final Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("count", 3);
+        map.put("latency", 1L << 40);
+        map.put("score", 0.75);
+        map.put("text", "x");
+
+        final NessEventPayload payload = NessEventPayload.builder().putAll(map).build();
+        Assert.assertEquals(NessEventPayload.KIND_INT, payload.kindAt(0));
+        Assert.assertEquals(NessEventPayload.KIND_LONG, payload.kindAt(1));
+        Assert.assertEquals(NessEventPayload.KIND_DOUBLE, payload.kindAt(2));
+        Assert.assertEquals(NessEventPayload.KIND_OBJECT, payload.kindAt(3));
+        Assert.assertEquals(map, payload);
+
+        final NessEventPayload copy = NessEventPayload.builder().putAll(payload).put("more", "y").build();
+        Assert.assertEquals(NessEventPayload.KIND_LONG, copy.kindAt(1));
+        Assert.assertEquals(NessEventPayload.KIND_DOUBLE, copy.kindAt(2));
+        Assert.assertEquals(Integer.valueOf(3), copy.get("count"));
+    }
+
+    @Test
+    public void testPrimitivesReplaced()
+    {
+        final NessEventPayload.Builder builder = NessEventPayload.builder(1).put("a", "x").putLong("b", 7L);
+        for (int i = 0; i < 20; i++) {
+            builder.putInt("key" + i, i);
+        }
+        builder.put("b", "replaced").putDouble("a", 1.5).putLong("key10", 100L);
+
+        final NessEventPayload payload = builder.build();
+        Assert.assertEquals(22, payload.size());
+        Assert.assertEquals(Double.valueOf(1.5), payload.get("a"));
+        Assert.assertEquals("replaced", payload.get("b"));
+        Assert.assertEquals(Long.valueOf(100L), payload.get("key10"));
+        Assert.assertEquals(19L, payload.getLong("key19"));
+    }
+
+    @Test
+    public void testDecoderStoresUnboxed() throws Exception
+    {
+        final NessEventDecoder decoder = new NessEventDecoder(new ObjectMapper());
+        final NessEvent event = decoder.decode("{\"id\":\"5ad87404-9c14-4edd-ae52-7c26eb472f03\",\"type\":\"RATED\",\"payload\":{\"rating\":4,\"latency\":12345678901,\"score\":0.5,\"big\":123456789012345678901}}");
+
+        final NessEventPayload payload = (NessEventPayload) event.getPayload();
+        Assert.assertEquals(NessEventPayload.KIND_INT, payload.kindAt(0));
+        Assert.assertEquals(NessEventPayload.KIND_LONG, payload.kindAt(1));
+        Assert.assertEquals(NessEventPayload.KIND_DOUBLE, payload.kindAt(2));
+        Assert.assertEquals(NessEventPayload.KIND_OBJECT, payload.kindAt(3));
+        Assert.assertEquals(4L, payload.getLong("rating"));
+        Assert.assertEquals(12345678901L, payload.getLong("latency"));
+        Assert.assertEquals(0.5, payload.getDouble("score"), 0.0);
+        Assert.assertEquals(Integer.valueOf(4), payload.get("rating"));
+
+        final NessEventBinaryCodec codec = new NessEventBinaryCodec(new ObjectMapper());
+        final NessEvent binary = codec.decode(codec.encode(event));
+        Assert.assertEquals(event, binary);
+        Assert.assertEquals(NessEventPayload.KIND_DOUBLE, ((NessEventPayload) binary.getPayload()).kindAt(2));
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.io.IOException;
+import java.util.UUID;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+
+import org.apache.commons.io.Charsets;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestNessEventPayloadSchemas
+{
+    private static final NessEventType TYPED_EVENT_TYPE = NessEventType.getForName("TYPED_SCHEMA_EVENT");
+    private static final NessEventType UNTYPED_EVENT_TYPE = NessEventType.getForName("UNTYPED_SCHEMA_EVENT");
+
+    private static final UUID USER = UUID.fromString("00000000-0000-04d2-c000-000000026810");
+
+    private ObjectMapper mapper;
+    private NessEventDecoder decoder;
+
+    @Before
+    public void setUp()
+    {
+        NessEventPayloadSchemas.register(TYPED_EVENT_TYPE, SearchPayload.class);
+
+        // A default mapper, transports do not relax it.
+        mapper = new ObjectMapper();
+        decoder = new NessEventDecoder(mapper);
+    }
+
+    @Test
+    public void testRegistry()
+    {
+        Assert.assertSame(SearchPayload.class, NessEventPayloadSchemas.getPayloadClass(TYPED_EVENT_TYPE));
+        Assert.assertNull(NessEventPayloadSchemas.getPayloadClass(UNTYPED_EVENT_TYPE));
+
+        // Registering the same class again is fine.
+        NessEventPayloadSchemas.register(TYPED_EVENT_TYPE, SearchPayload.class);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testConflictingRegistration()
+    {
+        NessEventPayloadSchemas.register(TYPED_EVENT_TYPE, Object.class);
+    }
+
+    @Test
+    public void testDecodeStraightIntoClass() throws IOException
+    {
+        final NessEvent event = decoder.decode(eventJson(TYPED_EVENT_TYPE, true).getBytes(Charsets.UTF_8));
+
+        // Decoded from the raw JSON, no payload map was built.
+        Assert.assertFalse(((LazyNessEvent) event).isPayloadDecoded());
+
+        final SearchPayload payload = event.getPayload(SearchPayload.class);
+        Assert.assertEquals("pizza", payload.getQuery());
+        Assert.assertEquals(3, payload.getCount());
+        Assert.assertSame(payload, event.getPayload(SearchPayload.class));
+        Assert.assertFalse(((LazyNessEvent) event).isPayloadDecoded());
+
+        // The map view is still available.
+        Assert.assertEquals(ImmutableMap.of("query", "pizza", "count", 3), event.getPayload());
+    }
+
+    @Test
+    public void testPayloadBeforeType() throws IOException
+    {
+        final NessEvent event = decoder.decode(eventJson(TYPED_EVENT_TYPE, false));
+
+        final SearchPayload payload = event.getPayload(SearchPayload.class);
+        Assert.assertEquals("pizza", payload.getQuery());
+        Assert.assertEquals(3, payload.getCount());
+        Assert.assertFalse(((LazyNessEvent) event).isPayloadDecoded());
+    }
+
+    @Test
+    public void testUnknownAndMissingFields() throws IOException
+    {
+        final String json = "{\"id\":\"5ad87404-9c14-4edd-ae52-7c26eb472f03\",\"type\":\"" + TYPED_EVENT_TYPE.getName() + "\","
+                          + "\"payload\":{\"query\":\"pizza\",\"radius\":2.5}}";
+        final NessEvent event = decoder.decode(json.getBytes(Charsets.UTF_8));
+
+        // The map holds exactly what was sent, no defaults for the missing field.
+        Assert.assertEquals(ImmutableMap.of("query", "pizza", "radius", 2.5), event.getPayload());
+
+        // The payload class ignores the field it does not know.
+        final SearchPayload payload = event.getPayload(SearchPayload.class);
+        Assert.assertEquals("pizza", payload.getQuery());
+        Assert.assertEquals(0, payload.getCount());
+    }
+
+    @Test
+    public void testUnregisteredType() throws IOException
+    {
+        final NessEvent event = decoder.decode(eventJson(UNTYPED_EVENT_TYPE, true).getBytes(Charsets.UTF_8));
+        Assert.assertEquals(ImmutableMap.of("query", "pizza", "count", 3), event.getPayload());
+
+        final SearchPayload payload = event.getPayload(SearchPayload.class);
+        Assert.assertEquals("pizza", payload.getQuery());
+        Assert.assertEquals(3, payload.getCount());
+    }
+
+    @Test
+    public void testLocalEvent()
+    {
+        final NessEvent event = NessEvent.createEvent(USER, TYPED_EVENT_TYPE, ImmutableMap.of("query", "pizza", "count", 3));
+
+        final SearchPayload payload = event.getPayload(SearchPayload.class);
+        Assert.assertEquals("pizza", payload.getQuery());
+        Assert.assertEquals(3, payload.getCount());
+        Assert.assertSame(payload, event.getPayload(SearchPayload.class));
+    }
+
+    private static String eventJson(final NessEventType type, final boolean typeFirst)
+    {
+        final String envelope = "\"id\":\"5ad87404-9c14-4edd-ae52-7c26eb472f03\",\"user\":\"" + USER + "\",\"timestamp\":1299163316279";
+        final String typeField = "\"type\":\"" + type.getName() + "\"";
+        final String payloadField = "\"payload\":{\"query\":\"pizza\",\"count\":3}";
+
+        return "{" + envelope + "," + (typeFirst ? typeField + "," + payloadField : payloadField + "," + typeField) + "}";
+    }
+
+    public static class SearchPayload
+    {
+        private String query;
+        private int count;
+
+        public String getQuery()
+        {
+            return query;
+        }
+
+        public void setQuery(final String query)
+        {
+            this.query = query;
+        }
+
+        public int getCount()
+        {
+            return count;
+        }
+
+        public void setCount(final int count)
+        {
+            this.count = count;
+        }
+    }
+}
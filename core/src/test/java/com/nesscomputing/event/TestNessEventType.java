@@ -22,6 +22,7 @@ import org.joda.time.DateTimeZone;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
 import com.nesscomputing.event.NessEventType;
 
@@ -89,4 +90,96 @@ public class TestNessEventType
         final NessEventType eventType = NessEventType.getForName(null);
         Assert.assertEquals("", eventType.getName());
     }
+
+    @Test
+    public void testInterned()
+    {
+        final NessEventType eventType = NessEventType.getForName("interned");
+        Assert.assertSame(eventType, NessEventType.getForName("INTERNED"));
+        Assert.assertSame(eventType, NessEventType.getForName("Interned"));
+        Assert.assertSame(NessEventTypes.SEARCH, NessEventType.getForName("search"));
+        Assert.assertSame(NessEventType.getForName(null), NessEventType.getForName(""));
+    }
+
+    @Test
+    public void testRegistryLimit() throws Exception
+    {
+        final NessEventType known = NessEventType.getForName("LIMIT_KNOWN");
+        final int count = NessEventType.getRegisteredTypeCount();
+
+        NessEventType.maxRegisteredTypes = count;
+        try {
+            final NessEventType overflow = NessEventType.getForName("LIMIT_OVERFLOW");
+            Assert.assertEquals("LIMIT_OVERFLOW", overflow.getName());
+            Assert.assertEquals(NessEventType.getForName("").getOrdinal(), overflow.getOrdinal());
+            Assert.assertEquals(overflow, NessEventType.getForName("limit_overflow"));
+            Assert.assertEquals(overflow.hashCode(), NessEventType.getForName("limit_overflow").hashCode());
+            Assert.assertFalse(overflow.equals(NessEventType.getForName("")));
+            Assert.assertFalse(overflow.equals(NessEventType.getForName("LIMIT_OTHER")));
+            Assert.assertSame(known, NessEventType.getForName("limit_known"));
+            Assert.assertSame(known, NessEventType.getForName("Limit_Known"));
+            Assert.assertEquals(count, NessEventType.getRegisteredTypeCount());
+
+            // Types beyond the limit still round-trip through the wire format.
+            final NessEvent event = NessEvent.createEvent(null, overflow);
+            final ObjectMapper mapper = new ObjectMapper();
+            Assert.assertEquals(event, new NessEventDecoder(mapper).decode(mapper.writeValueAsString(event)));
+            final NessEventBinaryCodec codec = new NessEventBinaryCodec(mapper);
+            Assert.assertEquals(event, codec.decode(codec.encode(event)));
+        }
+        finally {
+            NessEventType.maxRegisteredTypes = NessEventType.MAX_REGISTERED_TYPES;
+        }
+
+        Assert.assertEquals("LIMIT_OVERFLOW", NessEventType.getForName("LIMIT_OVERFLOW").getName());
+    }
+
+    @Test
+    public void testOrdinals()
+    {
+        final NessEventType eventType1 = NessEventType.getForName("ORDINAL_ONE");
+        final NessEventType eventType2 = NessEventType.getForName("ORDINAL_TWO");
+
+        Assert.assertEquals(eventType1.getOrdinal() + 1, eventType2.getOrdinal());
+        Assert.assertEquals(eventType1.getOrdinal(), NessEventType.getForName("ordinal_one").getOrdinal());
+        Assert.assertTrue(eventType2.getOrdinal() < NessEventType.getRegisteredTypeCount());
+
+        final NessEventType constructed = new NessEventType("ordinal_one");
+        Assert.assertNotSame(eventType1, constructed);
+        Assert.assertEquals(eventType1, constructed);
+        Assert.assertEquals(eventType1.hashCode(), constructed.hashCode());
+        Assert.assertEquals(eventType1.getOrdinal(), constructed.getOrdinal());
+        Assert.assertFalse(eventType1.equals(eventType2));
+    }
+
+    @Test
+    public void testConcurrentRegistration() throws Exception
+    {
+        final int threadCount = 4;
+        final NessEventType [][] results = new NessEventType[threadCount][100];
+        final Thread [] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final NessEventType [] result = results[i];
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < result.length; j++) {
+                        result[j] = NessEventType.getForName("CONCURRENT_" + j);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (int i = 0; i < threadCount; i++) {
+            threads[i].join();
+        }
+
+        final int count = NessEventType.getRegisteredTypeCount();
+        for (int j = 0; j < 100; j++) {
+            for (int i = 1; i < threadCount; i++) {
+                Assert.assertSame(results[0][j], results[i][j]);
+            }
+            Assert.assertTrue(results[0][j].getOrdinal() < count);
+        }
+    }
 }
@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.nesscomputing.config.Config;
+
+public class TestPartitionedEventDispatch
+{
+    private static final NessEventType TEST_EVENT_TYPE = NessEventType.getForName("TEST_EVENT");
+
+    @Test
+    public void testPerUserOrder() throws Exception
+    {
+        final OrderRecordingReceiver receiver = new OrderRecordingReceiver();
+        final InternalEventDispatcher dispatcher = new InternalEventDispatcher(Config.getFixedConfig(ImmutableMap.of("ness.event.dispatch.mode", "PARTITIONED",
+                                                                                                                     "ness.event.dispatch.lanes", "4")).getBean(NessEventConfig.class));
+        dispatcher.injectEventReceivers(ImmutableSet.<NessEventReceiver>of(receiver));
+
+        final int userCount = 20;
+        final int eventCount = 200;
+        final UUID [] users = new UUID[userCount];
+        for (int i = 0; i < userCount; i++) {
+            users[i] = UUID.randomUUID();
+        }
+
+        for (int i = 0; i < eventCount; i++) {
+            for (int j = 0; j < userCount; j++) {
+                dispatcher.dispatch(NessEvent.createEvent(users[j], TEST_EVENT_TYPE, ImmutableMap.of("seq", i)));
+            }
+        }
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (receiver.getCount() < eventCount * userCount && System.nanoTime() < deadline) {
+            Thread.sleep(5L);
+        }
+        dispatcher.stop();
+
+        Assert.assertEquals(eventCount * userCount, receiver.getCount());
+        for (int j = 0; j < userCount; j++) {
+            final List<Integer> sequence = receiver.getSequence(users[j]);
+            Assert.assertEquals(eventCount, sequence.size());
+            for (int i = 0; i < eventCount; i++) {
+                Assert.assertEquals(Integer.valueOf(i), sequence.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testLaneSelection()
+    {
+        final UUID user = UUID.randomUUID();
+        final EventLanes fixed = new TestLanes(4, 2);
+        Assert.assertEquals(2, fixed.getLane(NessEvent.createEvent(null, TEST_EVENT_TYPE)));
+        Assert.assertEquals(2, fixed.getLane(NessEvent.createEvent(null, TEST_EVENT_TYPE)));
+
+        final int userLane = fixed.getLane(NessEvent.createEvent(user, TEST_EVENT_TYPE));
+        Assert.assertEquals(userLane, fixed.getLane(NessEvent.createEvent(user, NessEventTypes.RATED)));
+
+        final EventLanes roundRobin = new TestLanes(4, -1);
+        for (int i = 0; i < 8; i++) {
+            Assert.assertEquals(i % 4, roundRobin.getLane(NessEvent.createEvent(null, TEST_EVENT_TYPE)));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadNullUserLane()
+    {
+        new TestLanes(4, 4);
+    }
+
+    private static class TestLanes extends EventLanes
+    {
+        TestLanes(final int laneCount, final int nullUserLane)
+        {
+            super(laneCount, nullUserLane, 10, NessEventOverflowPolicy.BLOCK, EventPriorities.NONE);
+        }
+
+        @Override
+        protected void process(@Nonnull final NessEvent event)
+        {
+        }
+    }
+
+    public static class OrderRecordingReceiver implements NessEventReceiver
+    {
+        private final Map<UUID, List<Integer>> sequences = new ConcurrentHashMap<UUID, List<Integer>>();
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public boolean accept(final NessEvent event)
+        {
+            return true;
+        }
+
+        @Override
+        public void receive(final NessEvent event)
+        {
+            List<Integer> sequence = sequences.get(event.getUser());
+            if (sequence == null) {
+                sequence = new CopyOnWriteArrayList<Integer>();
+                sequences.put(event.getUser(), sequence);
+            }
+            sequence.add((Integer) event.getPayload().get("seq"));
+            count.incrementAndGet();
+        }
+
+        public List<Integer> getSequence(final UUID user)
+        {
+            return sequences.get(user);
+        }
+
+        public int getCount()
+        {
+            return count.get();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.event;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.nesscomputing.config.Config;
+
+public class TestReceiverCircuitBreaker
+{
+    private static final NessEventType TEST_EVENT_TYPE = NessEventType.getForName("TEST_EVENT");
+    private static final UUID USER = UUID.randomUUID();
+
+    private static final long THRESHOLD = TimeUnit.MILLISECONDS.toNanos(20L);
+    private static final long PROBE_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100L);
+
+    @Test
+    public void testOpensOnSlowReceiver()
+    {
+        final SlowReceiver receiver = new SlowReceiver(50L);
+        final ReceiverEndpoint endpoint = new ReceiverEndpoint(receiver, new ReceiverCircuitBreaker(THRESHOLD, 2, PROBE_INTERVAL, 0));
+
+        Assert.assertEquals(NessEventCircuitState.CLOSED, endpoint.getCircuitState());
+
+        for (int i = 0; i < 10; i++) {
+            endpoint.deliver(NessEvent.createEvent(USER, TEST_EVENT_TYPE));
+        }
+
+        Assert.assertEquals(NessEventCircuitState.OPEN, endpoint.getCircuitState());
+        Assert.assertEquals(2, receiver.getEvents().size());
+        Assert.assertEquals(8L, endpoint.getShedEventCount());
+    }
+
+    @Test
+    public void testSingleSlowCallInLargeWindow()
+    {
+        final ReceiverCircuitBreaker circuitBreaker = new ReceiverCircuitBreaker(THRESHOLD, 100, PROBE_INTERVAL, 0);
+
+        circuitBreaker.record(THRESHOLD * 2);
+        for (int i = 0; i < 99; i++) {
+            circuitBreaker.record(0L);
+        }
+        Assert.assertEquals(NessEventCircuitState.CLOSED, circuitBreaker.getState());
+
+        circuitBreaker.record(THRESHOLD * 2);
+        Assert.assertEquals(NessEventCircuitState.CLOSED, circuitBreaker.getState());
+        circuitBreaker.record(THRESHOLD * 2);
+        Assert.assertEquals(NessEventCircuitState.OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    public void testProbeClosesAndDrainsOverflow() throws Exception
+    {
+        final SlowReceiver receiver = new SlowReceiver(50L);
+        final ReceiverEndpoint endpoint = new ReceiverEndpoint(receiver, new ReceiverCircuitBreaker(THRESHOLD, 1, PROBE_INTERVAL, 3));
+
+        endpoint.deliver(NessEvent.createEvent(USER, TEST_EVENT_TYPE));
+        Assert.assertEquals(NessEventCircuitState.OPEN, endpoint.getCircuitState());
+
+        receiver.setDelay(0L);
+        for (int i = 0; i < 5; i++) {
+            endpoint.deliver(NessEvent.createEvent(USER, TEST_EVENT_TYPE));
+        }
+        Assert.assertEquals(1, receiver.getEvents().size());
+        Assert.assertEquals(2L, endpoint.getShedEventCount());
+
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(PROBE_INTERVAL) + 20L);
+
+        final NessEvent probe = NessEvent.createEvent(USER, TEST_EVENT_TYPE);
+        endpoint.deliver(probe);
+
+        Assert.assertEquals(NessEventCircuitState.CLOSED, endpoint.getCircuitState());
+        Assert.assertEquals(5, receiver.getEvents().size());
+        Assert.assertSame(probe, receiver.getEvents().get(1));
+    }
+
+    @Test
+    public void testFailedProbeReopens() throws Exception
+    {
+        final SlowReceiver receiver = new SlowReceiver(50L);
+        final ReceiverEndpoint endpoint = new ReceiverEndpoint(receiver, new ReceiverCircuitBreaker(THRESHOLD, 1, PROBE_INTERVAL, 0));
+
+        endpoint.deliver(NessEvent.createEvent(USER, TEST_EVENT_TYPE));
+        Assert.assertEquals(NessEventCircuitState.OPEN, endpoint.getCircuitState());
+
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(PROBE_INTERVAL) + 20L);
+        endpoint.deliver(NessEvent.createEvent(USER, TEST_EVENT_TYPE));
+
+        Assert.assertEquals(NessEventCircuitState.OPEN, endpoint.getCircuitState());
+        Assert.assertEquals(2, receiver.getEvents().size());
+
+        endpoint.deliver(NessEvent.createEvent(USER, TEST_EVENT_TYPE));
+        Assert.assertEquals(2, receiver.getEvents().size());
+    }
+
+    @Test
+    public void testDisabledByDefault()
+    {
+        final InternalEventDispatcher dispatcher = new InternalEventDispatcher(Config.getEmptyConfig().getBean(NessEventConfig.class));
+        Assert.assertTrue(dispatcher.getCircuitStates().isEmpty());
+        Assert.assertEquals(0L, dispatcher.getShedEventCount());
+    }
+
+    public static class SlowReceiver implements NessEventReceiver
+    {
+        private final List<NessEvent> events = new CopyOnWriteArrayList<NessEvent>();
+        private volatile long delay;
+
+        public SlowReceiver(final long delay)
+        {
+            this.delay = delay;
+        }
+
+        public void setDelay(final long delay)
+        {
+            this.delay = delay;
+        }
+
+        public List<NessEvent> getEvents()
+        {
+            return events;
+        }
+
+        @Override
+        public boolean accept(final NessEvent event)
+        {
+            return true;
+        }
+
+        @Override
+        public void receive(final NessEvent event)
+        {
+            events.add(event);
+            if (delay > 0L) {
+                try {
+                    Thread.sleep(delay);
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
@@ -51,6 +51,17 @@ public abstract class JmsEventConfig
         return true;
     }
 
+    /**
+     * Send events in the binary encoding instead of JSON. Only enable this once all receivers
+     * accept the binary encoding.
+     */
+    @Config("ness.event.${jmsName}.transmit-binary")
+    @Default("false")
+    public boolean isTransmitBinary()
+    {
+        return false;
+    }
+
     /**
      * The name of the event JMS topic.
      */
@@ -20,7 +20,10 @@ import static com.nesscomputing.event.jms.JmsEventModule.JMS_EVENT_NAME;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
+import javax.jms.BytesMessage;
 import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.TextMessage;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Preconditions;
@@ -30,7 +33,9 @@ import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 
 import com.nesscomputing.event.NessEvent;
+import com.nesscomputing.event.NessEventDecoder;
 import com.nesscomputing.event.NessEventDispatcher;
+import com.nesscomputing.event.NessEventFlowControl;
 import com.nesscomputing.jms.AbstractConsumer;
 import com.nesscomputing.jms.ConsumerCallback;
 import com.nesscomputing.jms.JmsRunnableFactory;
@@ -39,29 +44,32 @@ import com.nesscomputing.lifecycle.guice.OnStage;
 import com.nesscomputing.logging.Log;
 
 /**
- * Received an Event from the JMS message queue and dispatches it to the event system.
+ * Received an Event from the JMS message queue and dispatches it to the event system. Text
+ * messages hold JSON, bytes messages either JSON or the binary encoding.
  */
 @Singleton
-public class JmsEventReceiver implements ConsumerCallback<String>
+public class JmsEventReceiver implements ConsumerCallback<Message>
 {
     private static final Log LOG = Log.findLog();
 
     private final JmsEventConfig jmsEventConfig;
     private final NessEventDispatcher eventDispatcher;
-    private final ObjectMapper mapper;
+    private final NessEventDecoder decoder;
 
     private final AtomicReference<AbstractConsumer> consumerHolder = new AtomicReference<AbstractConsumer>();
     private final AtomicReference<Thread> consumerThreadHolder = new AtomicReference<Thread>();
 
     private final AtomicInteger eventsReceived = new AtomicInteger(0);
 
+    private volatile NessEventFlowControl flowControl = null;
+
     @Inject
     public JmsEventReceiver(final JmsEventConfig jmsEventConfig,
                      final NessEventDispatcher eventDispatcher,
                      final ObjectMapper mapper)
     {
         this.eventDispatcher = eventDispatcher;
-        this.mapper = mapper;
+        this.decoder = new NessEventDecoder(mapper);
         this.jmsEventConfig = jmsEventConfig;
     }
 
@@ -70,13 +78,19 @@ public class JmsEventReceiver implements ConsumerCallback<String>
     {
         final AbstractConsumer consumer;
         if (jmsEventConfig.isUseQueue()) {
-            consumer = topicFactory.createQueueTextMessageListener(jmsEventConfig.getTopicName(), this);
+            consumer = topicFactory.createQueueListener(jmsEventConfig.getTopicName(), this);
         } else {
-            consumer = topicFactory.createTopicTextMessageListener(jmsEventConfig.getTopicName() , this);
+            consumer = topicFactory.createTopicListener(jmsEventConfig.getTopicName() , this);
         }
         this.consumerHolder.set(consumer);
     }
 
+    @Inject(optional = true)
+    public void injectFlowControl(final NessEventFlowControl flowControl)
+    {
+        this.flowControl = flowControl;
+    }
+
     @OnStage(LifecycleStage.START)
     public void start()
     {
@@ -129,6 +143,42 @@ public class JmsEventReceiver implements ConsumerCallback<String>
     }
 
     @Override
+    public boolean withMessage(final Message message) throws JMSException
+    {
+        if (message instanceof TextMessage) {
+            return withMessage(((TextMessage) message).getText());
+        }
+        else if (message instanceof BytesMessage) {
+            final BytesMessage bytesMessage = (BytesMessage) message;
+            final long length = bytesMessage.getBodyLength();
+            if (length > Integer.MAX_VALUE) {
+                LOG.warn("Ignoring message of %d bytes!", length);
+                return true;
+            }
+
+            final byte [] data = new byte[(int) length];
+            bytesMessage.readBytes(data);
+            final String contentType = bytesMessage.getStringProperty(JmsEventTransmitter.CONTENT_TYPE_PROPERTY);
+
+            final NessEvent event;
+            try {
+                event = decoder.decode(data, contentType);
+            }
+            catch (Exception e) {
+                LOG.warnDebug(e, "Could not parse %d byte message, ignoring!", data.length);
+                return true;
+            }
+            dispatch(event);
+        }
+        else if (message != null) {
+            LOG.warn("Ignoring message of unknown type %s", message.getClass().getName());
+        }
+        return true;
+    }
+
+    /**
+     * Receive an event as JSON text.
+     */
     public boolean withMessage(final String text) throws JMSException
     {
         if (text == null) {
@@ -137,7 +187,7 @@ public class JmsEventReceiver implements ConsumerCallback<String>
 
         final NessEvent event;
         try {
-            event = mapper.readValue(text, NessEvent.class);
+            event = decoder.decode(text);
         }
         catch (Exception e) {
             // Make sure that we catch all possible exceptions here that could
@@ -147,6 +197,14 @@ public class JmsEventReceiver implements ConsumerCallback<String>
             return true;
         }
 
+        dispatch(event);
+        return true;
+    }
+
+    private void dispatch(final NessEvent event) throws JMSException
+    {
+        awaitCapacity();
+
         try {
             eventsReceived.incrementAndGet();
             eventDispatcher.dispatch(event);
@@ -155,7 +213,22 @@ public class JmsEventReceiver implements ConsumerCallback<String>
             Throwables.propagateIfInstanceOf(e, JMSException.class);
             LOG.error(e, "Exception in event dispatcher.");
         }
+    }
 
-        return true;
+    /**
+     * Block the consumer thread while the dispatcher is saturated, so that no further
+     * messages are pulled from the broker.
+     */
+    private void awaitCapacity()
+    {
+        final NessEventFlowControl flowControl = this.flowControl;
+        if (flowControl != null) {
+            try {
+                flowControl.awaitCapacity();
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 }
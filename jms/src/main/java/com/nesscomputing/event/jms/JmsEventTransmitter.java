@@ -17,33 +17,52 @@ package com.nesscomputing.event.jms;
 
 import static com.nesscomputing.event.jms.JmsEventModule.JMS_EVENT_NAME;
 
+import java.io.IOException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nonnull;
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Preconditions;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 
 import com.nesscomputing.event.NessEvent;
+import com.nesscomputing.event.NessEventBinaryCodec;
 import com.nesscomputing.event.NessEventTransmitter;
+import com.nesscomputing.jms.AbstractProducer;
 import com.nesscomputing.jms.JmsRunnableFactory;
+import com.nesscomputing.jms.ProducerCallback;
 import com.nesscomputing.jms.TopicProducer;
 import com.nesscomputing.lifecycle.LifecycleStage;
 import com.nesscomputing.lifecycle.guice.OnStage;
 import com.nesscomputing.logging.Log;
 
 /**
- * Transmits an event onto a JMS topic.
+ * Transmits an event onto a JMS topic, as JSON text message or, if configured, as bytes
+ * message in the binary encoding (see {@link NessEventBinaryCodec}).
+ * <p>
+ * This is deliberately not a {@link com.nesscomputing.event.NessEventBatchTransmitter}. The
+ * topic producer owns its session and sends from its own thread, one message at a time; it
+ * offers no way to send a batch in a single transaction. Batches from
+ * {@link com.nesscomputing.event.NessEventSender#enqueueAll(java.util.Collection)} arrive
+ * here as one {@link #transmit(NessEvent)} call per event.
  */
 @Singleton
 public class JmsEventTransmitter implements NessEventTransmitter
  {
      private static final Log LOG = Log.findLog();
 
+     /** Message property that holds the content type of bytes messages. */
+     public static final String CONTENT_TYPE_PROPERTY = "contentType";
+
      private final JmsEventConfig jmsEventConfig;
+     private final ObjectMapper mapper;
 
      private final AtomicReference<TopicProducer<Object>> topicProducerHolder = new AtomicReference<TopicProducer<Object>>();
      private final AtomicReference<Thread> producerThreadHolder = new AtomicReference<Thread>();
@@ -51,17 +70,24 @@ public class JmsEventTransmitter implements NessEventTransmitter
      private final AtomicInteger eventsTransmitted = new AtomicInteger(0);
 
      @Inject
-     public JmsEventTransmitter(final JmsEventConfig jmsEventConfig)
+     public JmsEventTransmitter(final JmsEventConfig jmsEventConfig,
+                                final ObjectMapper mapper)
      {
          Preconditions.checkNotNull(jmsEventConfig, "The config must not be null!");
          this.jmsEventConfig = jmsEventConfig;
+         this.mapper = mapper;
      }
 
      @Inject(optional = true)
      public void injectTopicFactory(@Named(JMS_EVENT_NAME) final JmsRunnableFactory topicFactory)
      {
          Preconditions.checkNotNull(topicFactory, "The topic factory must not be null!");
-         this.topicProducerHolder.set(topicFactory.createTopicJsonProducer(jmsEventConfig.getTopicName()));
+         if (jmsEventConfig.isTransmitBinary()) {
+             this.topicProducerHolder.set(topicFactory.createTopicProducer(jmsEventConfig.getTopicName(), new BinaryProducerCallback(mapper)));
+         }
+         else {
+             this.topicProducerHolder.set(topicFactory.createTopicJsonProducer(jmsEventConfig.getTopicName()));
+         }
      }
 
      @OnStage(LifecycleStage.START)
@@ -132,4 +158,26 @@ public class JmsEventTransmitter implements NessEventTransmitter
              LOG.trace("Successfully offered '%s' to queue", event);
          }
      }
+
+     /**
+      * Sends events as bytes messages in the binary encoding, marked with its content type.
+      */
+     static final class BinaryProducerCallback implements ProducerCallback<Object>
+     {
+         private final NessEventBinaryCodec codec;
+
+         BinaryProducerCallback(final ObjectMapper mapper)
+         {
+             this.codec = new NessEventBinaryCodec(mapper);
+         }
+
+         @Override
+         public Message buildMessage(final AbstractProducer producer, final Object data) throws IOException, JMSException
+         {
+             final BytesMessage message = producer.getSession().createBytesMessage();
+             message.writeBytes(codec.encode((NessEvent) data));
+             message.setStringProperty(CONTENT_TYPE_PROPERTY, NessEventBinaryCodec.CONTENT_TYPE);
+             return message;
+         }
+     }
 }
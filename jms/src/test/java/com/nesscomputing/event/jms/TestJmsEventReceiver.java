@@ -15,19 +15,33 @@
  */
 package com.nesscomputing.event.jms;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.annotation.Nonnull;
+import javax.jms.BytesMessage;
+import javax.jms.Message;
+import javax.jms.TextMessage;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
 import com.nesscomputing.config.Config;
 import com.nesscomputing.config.ConfigModule;
 import com.nesscomputing.event.NessEvent;
+import com.nesscomputing.event.NessEventBinaryCodec;
 import com.nesscomputing.event.NessEventDispatcher;
+import com.nesscomputing.event.NessEventFlowControl;
+import com.nesscomputing.event.NessEventType;
 import com.nesscomputing.jackson.NessJacksonModule;
 import com.nesscomputing.logging.Log;
 
@@ -66,4 +80,85 @@ public class TestJmsEventReceiver
 
     }
 
+    @Test
+    public void testFlowControl() throws Exception
+    {
+        final AtomicInteger waits = new AtomicInteger();
+        eventReceiver.injectFlowControl(new NessEventFlowControl() {
+            @Override
+            public long getBufferedEventCount()
+            {
+                return 0L;
+            }
+
+            @Override
+            public boolean isSaturated()
+            {
+                return false;
+            }
+
+            @Override
+            public void awaitCapacity()
+            {
+                waits.incrementAndGet();
+            }
+        });
+
+        eventReceiver.withMessage("{\"user\":\"00000000-02bb-cb0b-c000-000000026810\",\"timestamp\":1327531243690,\"id\":\"31ab3710-0741-40a3-8e04-12cfb8073e9e\",\"type\":\"LOCATION_ACCURACY\",\"payload\":{},\"v\":2}");
+
+        Assert.assertEquals(1, waits.get());
+        Assert.assertEquals(1, eventReceiver.getEventsReceivedCount());
+    }
+
+    @Test
+    public void testTextMessage() throws Exception
+    {
+        final String json = "{\"user\":\"00000000-02bb-cb0b-c000-000000026810\",\"timestamp\":1327531243690,\"id\":\"31ab3710-0741-40a3-8e04-12cfb8073e9e\",\"type\":\"LOCATION_ACCURACY\",\"payload\":{},\"v\":2}";
+        final TextMessage message = (TextMessage) message(TextMessage.class, json, null);
+
+        Assert.assertTrue(eventReceiver.withMessage(message));
+        Assert.assertEquals(1, eventReceiver.getEventsReceivedCount());
+    }
+
+    @Test
+    public void testBinaryMessage() throws Exception
+    {
+        final byte [] data = new NessEventBinaryCodec(new ObjectMapper()).encode(NessEvent.createEvent(UUID.randomUUID(), NessEventType.getForName("LOCATION_ACCURACY"), ImmutableMap.of("accuracy", 99.9)));
+
+        Assert.assertTrue(eventReceiver.withMessage(message(BytesMessage.class, data, NessEventBinaryCodec.CONTENT_TYPE)));
+        Assert.assertTrue(eventReceiver.withMessage(message(BytesMessage.class, data, null)));
+        Assert.assertEquals(2, eventReceiver.getEventsReceivedCount());
+
+        // Garbage is dropped, the receiver keeps going.
+        Assert.assertTrue(eventReceiver.withMessage(message(BytesMessage.class, new byte [] { 1, 2, 3 }, NessEventBinaryCodec.CONTENT_TYPE)));
+        Assert.assertEquals(2, eventReceiver.getEventsReceivedCount());
+    }
+
+    /**
+     * A text or bytes message with the given body and content type property.
+     */
+    private static Message message(final Class<? extends Message> messageClass, final Object body, final String contentType)
+    {
+        return (Message) Proxy.newProxyInstance(messageClass.getClassLoader(), new Class<?> [] { messageClass }, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object [] args)
+            {
+                if ("getText".equals(method.getName())) {
+                    return body;
+                }
+                else if ("getBodyLength".equals(method.getName())) {
+                    return Long.valueOf(((byte []) body).length);
+                }
+                else if ("readBytes".equals(method.getName())) {
+                    final byte [] data = (byte []) body;
+                    System.arraycopy(data, 0, args[0], 0, data.length);
+                    return data.length;
+                }
+                else if ("getStringProperty".equals(method.getName()) && JmsEventTransmitter.CONTENT_TYPE_PROPERTY.equals(args[0])) {
+                    return contentType;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
 }